@@ -22,6 +22,8 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 
@@ -39,6 +41,10 @@ public class LoginService {
     private final Plugin plugin;
     private final MessagesPort msg;
     private IpPolicyPort ipPolicy;
+    private JoinRepo joinRepo;
+    private Executor io; // null = resolve joins inline
+    private boolean deferProfiles; // no mc_profiles row until the player links
+    private UnitOfWork uow = UnitOfWork.DIRECT;
 
     private static final MiniMessage MINI = MiniMessage.miniMessage();
 
@@ -73,14 +79,114 @@ public class LoginService {
 
     public void setDiscordDmPort(DiscordDmPort dm) { this.dm = dm; }
     public void setIpPolicyPort(IpPolicyPort ipPolicy) { this.ipPolicy = ipPolicy; }
+    public void setJoinRepo(JoinRepo joinRepo) { this.joinRepo = joinRepo; }
+    public void setIoExecutor(Executor io) { this.io = io; }
+    public void setDeferProfileCreation(boolean deferProfiles) { this.deferProfiles = deferProfiles; }
+    public void setUnitOfWork(UnitOfWork uow) { this.uow = uow; }
+
+    // === Join prefetch ===
+    /** Storage part of the join flow, resolved in async pre-login and handed to {@link #onPlayerJoin}. */
+    private record JoinSnapshot(String name, boolean bedrock, JoinRepo.Row row, long epoch, long atMillis) {}
+
+    private static final long PREFETCH_TTL_MILLIS = 30_000L;
+    private final Map<UUID, JoinSnapshot> prefetched = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the join-time reads and writes off the tick thread (call from AsyncPlayerPreLoginEvent).
+     * The result is consumed once by the next {@link #onPlayerJoin} for this UUID; a missing, stale or
+     * mismatching entry makes the join fall back to storage.
+     */
+    public void prefetchJoin(UUID uuid, String name, boolean bedrock) {
+        long now = System.currentTimeMillis();
+        // Logins denied after pre-login never join; drop their leftovers
+        prefetched.values().removeIf(s -> now - s.atMillis() > PREFETCH_TTL_MILLIS);
+
+        long epoch = state.verdictEpoch(uuid);
+        prefetched.put(uuid, new JoinSnapshot(name, bedrock, resolveJoin(uuid, name, bedrock), epoch, now));
+    }
+
+    /**
+     * Join-time upserts and link/IP reads; a single round trip when a {@link JoinRepo} is set.
+     * With deferred profile creation, players without a stored profile are only tracked in login state;
+     * their row is written together with the link.
+     */
+    private JoinRepo.Row resolveJoin(UUID uuid, String name, boolean bedrock) {
+        String platform = bedrock ? "BEDROCK" : "JAVA";
+        if (joinRepo != null) {
+            return deferProfiles ? joinRepo.resolveExistingJoin(uuid, name, platform)
+                    : joinRepo.resolveJoin(uuid, name, platform);
+        }
+        if (deferProfiles && accounts.findDiscordForProfile(uuid).isEmpty()) return new JoinRepo.Row(null, null);
+        profiles.upsertName(uuid, name);
+        profiles.updatePlatform(uuid, platform);
+        // active discord id present <=> linked; saves the separate isLinked query
+        Long discordId = accounts.findDiscordForProfile(uuid).orElse(null);
+        String lastIp = discordId != null ? profiles.findLastConfirmedIp(uuid).orElse(null) : null;
+        return new JoinRepo.Row(discordId, lastIp);
+    }
+
+    private JoinSnapshot takePrefetch(UUID uuid, String name, boolean bedrock) {
+        JoinSnapshot s = prefetched.remove(uuid);
+        if (s == null || !isFresh(uuid, s)) return null;
+        return s.bedrock() == bedrock && Objects.equals(s.name(), name) ? s : null;
+    }
+
+    private boolean isFresh(UUID uuid, JoinSnapshot s) {
+        return System.currentTimeMillis() - s.atMillis() <= PREFETCH_TTL_MILLIS
+                && s.epoch() == state.verdictEpoch(uuid); // no link/IP/pending change of this profile since the prefetch
+    }
 
     // === Join flow ===
+    /**
+     * Storage work comes from the pre-login snapshot when available. Otherwise, with an I/O executor set,
+     * it runs off-thread while the player is gated as resolving, and the rest continues on the player's thread.
+     * A resolving player is gated like LOGIN and is in the LOGIN phase meanwhile, so listeners apply its visuals.
+     */
     public void onPlayerJoin(UUID uuid, String name, String currentIp, boolean bedrock) {
-        profiles.upsertName(uuid, name);
-        profiles.updatePlatform(uuid, bedrock ? "BEDROCK" : "JAVA");
+        JoinSnapshot snap = takePrefetch(uuid, name, bedrock);
+        if (snap != null) {
+            applyJoin(uuid, name, currentIp, bedrock, snap.row(), snap.epoch(), false);
+            return;
+        }
+        if (io == null) {
+            long epoch = state.verdictEpoch(uuid);
+            applyJoin(uuid, name, currentIp, bedrock, resolveJoin(uuid, name, bedrock), epoch, false);
+            return;
+        }
+        state.markResolving(uuid);
+        firePhaseEnter(uuid, LoginPhase.LOGIN);
+        long epoch = state.verdictEpoch(uuid);
+        io.execute(() -> {
+            JoinRepo.Row row;
+            try {
+                row = resolveJoin(uuid, name, bedrock);
+            } catch (Exception e) {
+                // Stay gated as resolving until the kick lands; quit clears the flag
+                log.warning("Join resolution failed for " + uuid + ": " + e.getMessage());
+                kick(uuid, msg.mc("login.resolve_failed"));
+                return;
+            }
+            runPlayer(uuid, p -> {
+                if (!state.isResolving(uuid)) return; // quit while resolving
+                state.clearResolving(uuid);
+                applyJoin(uuid, name, currentIp, bedrock, row, epoch, true);
+            });
+        });
+    }
+
+    /** @param inLoginPhase LOGIN was entered while resolving; it is left here unless the player stays in it */
+    private void applyJoin(UUID uuid, String name, String currentIp, boolean bedrock, JoinRepo.Row row,
+                           long verdictEpoch, boolean inLoginPhase) {
         Properties props = propertiesProvider.getSnapshot();
+        // Records the owner as of the join. Logins without a fresh snapshot were not checked, so the
+        // exclusive check runs here (again, harmlessly, for those that were) and kicks
+        Optional<UUID> other = state.claimOnline(uuid, row.activeDiscordId(), props.disallowSimultaneousPlay);
+        if (other.isPresent()) {
+            kick(uuid, simultaneousKickReason(other.get()));
+            return;
+        }
 
-        if (!accounts.isLinked(uuid)) {
+        if (!row.linked()) {
             state.markPendingLogin(uuid, currentIp, bedrock);
             if (bedrock) {
                 String code = state.recentBedrockCodeAfterLeave(uuid, java.time.Duration.ofSeconds(props.bedrockCodeTimeAfterLeave))
@@ -89,7 +195,7 @@ public class LoginService {
                 Map<String, String> ph = Map.of("code", code);
                 showLoginPhaseTitle(uuid);
                 sendBedrockHint(uuid, msg.mc("login.bedrock.code_hint", ph));
-                firePhaseEnter(uuid, ua.beengoo.logdo2.api.events.LoginPhase.LOGIN);
+                if (!inLoginPhase) firePhaseEnter(uuid, ua.beengoo.logdo2.api.events.LoginPhase.LOGIN);
             } else {
                 String token = state.createOAuthState(uuid, currentIp, name, false);
                 String loginUrl = publicUrl + "/login?state=" + token;
@@ -98,14 +204,15 @@ public class LoginService {
                         msg.mc("chat.auth_link_text"),
                         msg.mc("chat.auth_link_hover"),
                         loginUrl);
-                firePhaseEnter(uuid, ua.beengoo.logdo2.api.events.LoginPhase.LOGIN);
+                if (!inLoginPhase) firePhaseEnter(uuid, ua.beengoo.logdo2.api.events.LoginPhase.LOGIN);
             }
             return;
         }
+        if (inLoginPhase) firePhaseExit(uuid, LoginPhase.LOGIN);
 
-        String last = profiles.findLastConfirmedIp(uuid).orElse(null);
+        String last = row.lastConfirmedIp();
         if (!Objects.equals(last, currentIp)) {
-            long discordId = accounts.findDiscordForProfile(uuid).orElseThrow();
+            long discordId = row.activeDiscordId();
             state.markPendingIpConfirm(uuid, currentIp, discordId);
             if (dm != null) dm.sendIpConfirmDm(discordId, uuid, name, currentIp);
             showIpConfirmPhaseTitle(uuid);
@@ -113,14 +220,39 @@ public class LoginService {
             return;
         }
 
+        // Prime the gate cache with what we just read, so the first gated event does not hit the DB
+        state.cacheVerdict(uuid, currentIp, ipAllowed(currentIp, last), verdictEpoch);
         sendActionBar(uuid, msg.mc("login.linked.actionbar"));
     }
 
+    /**
+     * Gate check used by event handlers. Pending flags are in-memory; the linked/IP part is served
+     * from the verdict cache in {@link LoginStatePort} and only resolved from storage on a miss.
+     */
     public boolean isActionAllowed(UUID uuid, String currentIp) {
-        if (!accounts.isLinked(uuid)) return false;
+        if (state.isResolving(uuid)) return false;
         if (state.isPendingLogin(uuid)) return false;
         if (state.isPendingIpConfirm(uuid)) return false;
-        String last = profiles.findLastConfirmedIp(uuid).orElse(null);
+        Boolean cached = state.cachedVerdict(uuid, currentIp);
+        if (cached != null) return cached;
+
+        long epoch = state.verdictEpoch(uuid);
+        boolean allowed = accounts.isLinked(uuid)
+                && ipAllowed(currentIp, profiles.findLastConfirmedIp(uuid).orElse(null));
+        state.cacheVerdict(uuid, currentIp, allowed, epoch);
+        return allowed;
+    }
+
+    /**
+     * Caches the verdict a state transition just settled, so clearing a pending flag never leaves the
+     * next gated event to a storage miss on the player's thread. Call right after the transition's own
+     * invalidation; a later change of this profile still drops it.
+     */
+    private void primeVerdict(UUID uuid, String ip, boolean allowed) {
+        state.cacheVerdict(uuid, ip, allowed, state.verdictEpoch(uuid));
+    }
+
+    private boolean ipAllowed(String currentIp, String last) {
         if (ipPolicy != null && last != null) {
             try {
                 return ipPolicy.allow(currentIp, last);
@@ -148,46 +280,52 @@ public class LoginService {
         var user = oauth.fetchUser(tokenSet.accessToken());
         Properties props = propertiesProvider.getSnapshot();
 
-        // Ensure Discord user exists before creating FK-dependent records
-        if (discordUserRepo != null) {
-            discordUserRepo.upsertUser(user.id(), user.username(), user.globalName(), user.email(), user.avatar());
-        }
+        // All storage work below is one transaction: a failure leaves no half-applied link
+        uow.run(() -> {
+            // Ensure Discord user exists before creating FK-dependent records
+            if (discordUserRepo != null) {
+                discordUserRepo.upsertUser(user.id(), user.username(), user.globalName(), user.email(), user.avatar());
+            }
 
-        // If profile is already linked/reserved for another Discord user, block with 403
-        var existing = accounts.findAnyDiscordForProfile(st.uuid());
-        if (existing.isPresent() && existing.get() != user.id()) {
-            throw new ForbiddenLinkException("Profile is reserved for a different Discord account");
-        }
+            // If profile is already linked/reserved for another Discord user, block with 403
+            var existing = accounts.findAnyDiscordForProfile(st.uuid());
+            if (existing.isPresent() && existing.get() != user.id()) {
+                throw new ForbiddenLinkException("Profile is reserved for a different Discord account");
+            }
 
-        // Enforce per-Discord platform limits unless already linked to same discord
-        String platform = st.bedrock() ? "BEDROCK" : "JAVA";
-        var cur = accounts.findDiscordForProfile(st.uuid());
-        boolean bypass = state.consumeLimitBypass(st.uuid());
-        if (!bypass && (cur.isEmpty() || cur.get() != user.id())) {
-            int limit = st.bedrock() ? props.bedrockLimitPerDiscord : props.javaLimitPerDiscord;
-            if (limit > 0) {
-                int count = accounts.countByDiscordAndPlatform(user.id(), platform, props.limitIncludeReserved);
-                if (count >= limit) {
-                    throw new ForbiddenLinkException("Link limit reached for platform " + platform);
+            // Enforce per-Discord platform limits unless already linked to same discord
+            String platform = st.bedrock() ? "BEDROCK" : "JAVA";
+            var cur = accounts.findDiscordForProfile(st.uuid());
+            boolean bypass = state.consumeLimitBypass(st.uuid());
+            if (!bypass && (cur.isEmpty() || cur.get() != user.id())) {
+                int limit = st.bedrock() ? props.bedrockLimitPerDiscord : props.javaLimitPerDiscord;
+                if (limit > 0) {
+                    int count = accounts.countByDiscordAndPlatform(user.id(), platform, props.limitIncludeReserved);
+                    if (count >= limit) {
+                        throw new ForbiddenLinkException("Link limit reached for platform " + platform);
+                    }
                 }
             }
-        }
 
-        accounts.activate(user.id(), st.uuid());
-        tokens.save(user.id(), tokenSet.accessToken(), tokenSet.refreshToken(), tokenSet.expiresAt(),
-                tokenSet.tokenType(), tokenSet.scope());
-        if (discordUserRepo != null) {
-            boolean hasCommands = tokenSet.scope() != null && tokenSet.scope().contains("applications.commands");
-            discordUserRepo.setCommandsInstalled(user.id(), hasCommands);
-        }
+            accounts.activate(user.id(), st.uuid(), st.name(), platform, st.ip());
+            tokens.save(user.id(), tokenSet.accessToken(), tokenSet.refreshToken(), tokenSet.expiresAt(),
+                    tokenSet.tokenType(), tokenSet.scope());
+            if (discordUserRepo != null) {
+                boolean hasCommands = tokenSet.scope() != null && tokenSet.scope().contains("applications.commands");
+                discordUserRepo.setCommandsInstalled(user.id(), hasCommands);
+            }
 
-        profiles.updateLastConfirmedIp(st.uuid(), st.ip());
-        profiles.updatePlatform(st.uuid(), st.bedrock() ? "BEDROCK" : "JAVA");
+            profiles.updateLastConfirmedIp(st.uuid(), st.ip());
+            profiles.updatePlatform(st.uuid(), platform);
+        });
+        state.updateOnlineOwner(st.uuid(), user.id());
+        state.invalidateVerdict(st.uuid());
 
         Map<String, String> ph = Map.of("name", st.name());
         sendActionBar(st.uuid(), msg.mc("oauth.linked_actionbar", ph));
         if (dm != null) dm.sendFirstLoginDm(user.id(), st.uuid(), st.name(), publicUrl);
         state.clearPendingLogin(st.uuid());
+        primeVerdict(st.uuid(), st.ip(), true); // linked just now, from this IP
         clearPhaseTitle(st.uuid());
         firePhaseExit(st.uuid(), ua.beengoo.logdo2.api.events.LoginPhase.LOGIN);
     }
@@ -202,6 +340,8 @@ public class LoginService {
         if (pending == null) return;
 
         profiles.updateLastConfirmedIp(profileUuid, pending.newIp());
+        state.invalidateVerdict(profileUuid);
+        primeVerdict(profileUuid, pending.newIp(), true);
         sendActionBar(profileUuid, msg.mc("ip.confirm_actionbar"));
         clearPhaseTitle(profileUuid);
 
@@ -223,6 +363,7 @@ public class LoginService {
         }
         var pending = state.consumePendingIpConfirm(profileUuid);
         if (pending == null) return;
+        primeVerdict(profileUuid, pending.newIp(), false);
 
         long durSec = applyProgressiveBan(pending.newIp());
         Map<String, String> ph = Map.of("duration", formattedDuration(durSec));
@@ -247,9 +388,12 @@ public class LoginService {
         }
 
         // Reserve the link, full activation happens after OAuth
-        accounts.reserve(discordUserId, pending.uuid());
-        profiles.updateLastConfirmedIp(pending.uuid(), pending.ip());
-        profiles.updatePlatform(pending.uuid(), "BEDROCK");
+        uow.run(() -> {
+            accounts.reserve(discordUserId, pending.uuid(), pending.name(), "BEDROCK", pending.ip());
+            profiles.updateLastConfirmedIp(pending.uuid(), pending.ip());
+            profiles.updatePlatform(pending.uuid(), "BEDROCK");
+        });
+        state.invalidateVerdict(pending.uuid());
 
         String token = state.createOAuthState(pending.uuid(), pending.ip(), pending.name(), true);
         String loginUrl = publicUrl + "/login?state=" + token;
@@ -259,13 +403,18 @@ public class LoginService {
     }
 
     public void onLoginTimeout(UUID uuid) {
+        String ip = state.listPendingLogins().stream()
+                .filter(pl -> pl.uuid().equals(uuid)).map(LoginStatePort.PendingLogin::ip)
+                .findFirst().orElse(null);
         state.clearPendingLogin(uuid);
+        if (ip != null) primeVerdict(uuid, ip, false); // still unlinked until the kick lands
         kick(uuid, msg.mc("timeouts.login_kick"));
         firePhaseExit(uuid, ua.beengoo.logdo2.api.events.LoginPhase.LOGIN);
     }
 
     public void onIpConfirmTimeout(UUID uuid) {
-        state.consumePendingIpConfirm(uuid);
+        var pending = state.consumePendingIpConfirm(uuid);
+        if (pending != null) primeVerdict(uuid, pending.newIp(), false);
         kick(uuid, msg.mc("timeouts.ip_kick"));
         firePhaseExit(uuid, ua.beengoo.logdo2.api.events.LoginPhase.IP_CONFIRM);
     }
@@ -362,21 +511,23 @@ public class LoginService {
         }
     }
 
+    /**
+     * With simultaneous play disallowed, registers the profile in the online index under its Discord owner
+     * and fails when another profile of that owner is online. The owner comes from the pre-login snapshot when
+     * present, so PlayerLoginEvent stays off storage. Otherwise nothing is checked or read here; the join
+     * checks the owner it resolves and kicks. Call {@link LoginStatePort#releaseOnline} if the login is denied afterwards.
+     */
     public Optional<String> disallowReasonOnLogin(UUID uuid) {
-        Properties props = propertiesProvider.getSnapshot();
-        if (!props.disallowSimultaneousPlay) return Optional.empty();
-        var owner = accounts.findDiscordForProfile(uuid);
-        if (owner.isEmpty()) return Optional.empty();
-        long discordId = owner.get();
-        for (org.bukkit.entity.Player other : org.bukkit.Bukkit.getOnlinePlayers()) {
-            if (other.getUniqueId().equals(uuid)) continue;
-            var otherOwner = accounts.findDiscordForProfile(other.getUniqueId());
-            if (otherOwner.isPresent() && otherOwner.get() == discordId) {
-                Map<String, String> ph = Map.of("other", other.getName());
-                return Optional.of(msg.mc("limits.simultaneous_kick", ph));
-            }
-        }
-        return Optional.empty();
+        if (!propertiesProvider.getSnapshot().disallowSimultaneousPlay) return Optional.empty();
+        JoinSnapshot snap = prefetched.get(uuid);
+        if (snap == null || !isFresh(uuid, snap)) return Optional.empty();
+        return state.claimOnline(uuid, snap.row().activeDiscordId(), true).map(this::simultaneousKickReason);
+    }
+
+    private String simultaneousKickReason(UUID other) {
+        Player p = Bukkit.getPlayer(other);
+        Map<String, String> ph = Map.of("other", p != null ? p.getName() : other.toString());
+        return msg.mc("limits.simultaneous_kick", ph);
     }
 
     private void runPlayer(UUID uuid, Consumer<Player> action) {
@@ -9,10 +9,12 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class LoginStateService implements LoginStatePort {
     private static final Duration OAUTH_STATE_TTL = Duration.ofMinutes(10);
     private static final Duration CODE_TTL        = Duration.ofMinutes(10);
+    private static final long EPOCH_TTL_MILLIS    = Duration.ofMinutes(10).toMillis();
 
     private final PropertiesProvider propertiesProvider;
 
@@ -22,6 +24,13 @@ public class LoginStateService implements LoginStatePort {
     private final Map<UUID, PendingIp> pendingIp = new ConcurrentHashMap<>();
     private final Map<UUID, BedrockShown> bedrockShown = new ConcurrentHashMap<>();
     private final Set<UUID> limitBypass = java.util.Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Set<UUID> resolving = ConcurrentHashMap.newKeySet();
+    private final OnlineDiscordIndex online = new OnlineDiscordIndex();
+    private final Map<UUID, Verdict> verdicts = new ConcurrentHashMap<>();
+    private final Map<UUID, Epoch> epochs = new ConcurrentHashMap<>();
+    private final AtomicLong epochClock = new AtomicLong();
+    private volatile long prunedEpochFloor;
+    private volatile long lastEpochPrune = System.currentTimeMillis();
     private final SecureRandom rnd = new SecureRandom();
 
     public LoginStateService(PropertiesProvider propertiesProvider) {
@@ -85,6 +94,7 @@ public class LoginStateService implements LoginStatePort {
     @Override
     public void markPendingIpConfirm(UUID uuid, String newIp, long discordId) {
         pendingIp.put(uuid, new PendingIp(uuid, newIp, discordId, Instant.now()));
+        invalidateVerdict(uuid);
     }
 
     @Override
@@ -94,7 +104,9 @@ public class LoginStateService implements LoginStatePort {
 
     @Override
     public PendingIp consumePendingIpConfirm(UUID uuid) {
-        return pendingIp.remove(uuid);
+        var pending = pendingIp.remove(uuid);
+        invalidateVerdict(uuid);
+        return pending;
     }
 
     @Override
@@ -105,6 +117,7 @@ public class LoginStateService implements LoginStatePort {
     @Override
     public void markPendingLogin(UUID uuid, String ip, boolean bedrock) {
         pendingLogin.put(uuid, new PendingLogin(uuid, ip, bedrock, Instant.now()));
+        invalidateVerdict(uuid);
     }
 
     @Override
@@ -116,6 +129,7 @@ public class LoginStateService implements LoginStatePort {
     public void clearPendingLogin(UUID uuid) {
         pendingLogin.remove(uuid);
         bedrockShown.remove(uuid);
+        invalidateVerdict(uuid);
     }
 
     @Override
@@ -159,6 +173,79 @@ public class LoginStateService implements LoginStatePort {
         return limitBypass.remove(uuid);
     }
 
+    // ===== join resolving =====
+    // Checked before the verdict cache in LoginService.isActionAllowed, so no invalidation is needed here
+    @Override
+    public void markResolving(UUID uuid) {
+        if (uuid != null) resolving.add(uuid);
+    }
+
+    @Override
+    public boolean isResolving(UUID uuid) {
+        return uuid != null && resolving.contains(uuid);
+    }
+
+    @Override
+    public void clearResolving(UUID uuid) {
+        if (uuid != null) resolving.remove(uuid);
+    }
+
+    // ===== online profiles by Discord owner =====
+    @Override
+    public Optional<UUID> claimOnline(UUID uuid, Long discordId, boolean exclusive) {
+        if (uuid == null) return Optional.empty();
+        return online.claim(uuid, discordId, exclusive);
+    }
+
+    @Override
+    public void updateOnlineOwner(UUID uuid, Long discordId) {
+        if (uuid != null) online.update(uuid, discordId);
+    }
+
+    @Override
+    public void releaseOnline(UUID uuid) {
+        if (uuid != null) online.release(uuid);
+    }
+
+    Set<UUID> onlineProfiles(long discordId) {
+        return online.online(discordId);
+    }
+
+    // ===== gate verdict cache =====
+    @Override
+    public Boolean cachedVerdict(UUID uuid, String ip) {
+        if (uuid == null) return null;
+        Verdict v = verdicts.get(uuid);
+        if (v == null || !Objects.equals(v.ip(), ip)) return null;
+        return v.allowed();
+    }
+
+    @Override
+    public long verdictEpoch(UUID uuid) {
+        if (uuid == null) return 0L;
+        Epoch e = epochs.get(uuid);
+        return e != null ? e.value() : prunedEpochFloor;
+    }
+
+    @Override
+    public void cacheVerdict(UUID uuid, String ip, boolean allowed, long epoch) {
+        if (uuid == null) return;
+        // compute() serializes with invalidateVerdict() on the same key, so a verdict computed
+        // before an invalidation can never overwrite the cleared entry
+        verdicts.compute(uuid, (u, prev) -> verdictEpoch(u) == epoch ? new Verdict(ip, allowed) : prev);
+    }
+
+    @Override
+    public void invalidateVerdict(UUID uuid) {
+        if (uuid == null) return;
+        long now = System.currentTimeMillis();
+        verdicts.compute(uuid, (u, prev) -> {
+            epochs.put(u, new Epoch(epochClock.incrementAndGet(), now));
+            return null;
+        });
+        if (now - lastEpochPrune >= EPOCH_TTL_MILLIS) pruneEpochs(now);
+    }
+
     // ===== helpers =====
     private void pruneStates() {
         Instant cutoff = Instant.now().minus(OAUTH_STATE_TTL);
@@ -170,6 +257,17 @@ public class LoginStateService implements LoginStatePort {
         codes.entrySet().removeIf(e -> e.getValue().at().isBefore(cutoff));
     }
 
+    /**
+     * Forgets epochs of profiles not invalidated for a while. The floor is raised first, so an epoch read
+     * before the prune can never match again; at worst one verdict or prefetch is recomputed.
+     */
+    private synchronized void pruneEpochs(long now) {
+        if (now - lastEpochPrune < EPOCH_TTL_MILLIS) return;
+        lastEpochPrune = now;
+        prunedEpochFloor = epochClock.incrementAndGet();
+        epochs.values().removeIf(e -> now - e.atMillis() >= EPOCH_TTL_MILLIS);
+    }
+
     private String generateStateToken() {
         byte[] b = new byte[16];
         rnd.nextBytes(b);
@@ -186,4 +284,6 @@ public class LoginStateService implements LoginStatePort {
     }
 
     private record BedrockShown(String code, Instant shownAt, Instant leftAt) {}
+    private record Verdict(String ip, boolean allowed) {}
+    private record Epoch(long value, long atMillis) {}
 }
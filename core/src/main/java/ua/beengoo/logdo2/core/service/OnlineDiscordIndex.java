@@ -0,0 +1,85 @@
+package ua.beengoo.logdo2.core.service;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Online (or logging-in) profiles by their active Discord ID, for the simultaneous-play check.
+ * Safe for concurrent joins on different region threads: every change runs inside {@code compute} on the
+ * profile's key first, then on the Discord key, always in that order.
+ */
+final class OnlineDiscordIndex {
+    private static final long UNLINKED = Long.MIN_VALUE;
+
+    private final Map<UUID, Long> owners = new ConcurrentHashMap<>();
+    private final Map<Long, Set<UUID>> byDiscord = new ConcurrentHashMap<>();
+
+    /**
+     * Registers {@code uuid} under {@code discordId} (null = unlinked). With {@code exclusive}, the check for
+     * another profile of the same Discord ID and the insert are one atomic step.
+     * @return the profile that blocked registration; any registration {@code uuid} already had is kept
+     */
+    Optional<UUID> claim(UUID uuid, Long discordId, boolean exclusive) {
+        long next = discordId == null ? UNLINKED : discordId;
+        UUID[] blocker = new UUID[1];
+        owners.compute(uuid, (k, prev) -> {
+            if (next != UNLINKED) {
+                byDiscord.compute(next, (d, set) -> {
+                    if (exclusive && set != null) {
+                        for (UUID other : set) {
+                            if (!other.equals(uuid)) {
+                                blocker[0] = other;
+                                return set;
+                            }
+                        }
+                    }
+                    return withMember(set, uuid);
+                });
+                if (blocker[0] != null) return prev; // e.g. the session already online with this UUID
+            }
+            if (prev != null && prev != next) unindex(prev, uuid);
+            return next;
+        });
+        return Optional.ofNullable(blocker[0]);
+    }
+
+    /** Link/unlink of a registered profile; profiles that are not online are ignored. */
+    void update(UUID uuid, Long discordId) {
+        long next = discordId == null ? UNLINKED : discordId;
+        owners.computeIfPresent(uuid, (k, prev) -> {
+            if (prev == next) return prev;
+            unindex(prev, uuid);
+            if (next != UNLINKED) byDiscord.compute(next, (d, set) -> withMember(set, uuid));
+            return next;
+        });
+    }
+
+    void release(UUID uuid) {
+        owners.computeIfPresent(uuid, (k, prev) -> {
+            unindex(prev, uuid);
+            return null;
+        });
+    }
+
+    Set<UUID> online(long discordId) {
+        Set<UUID> set = byDiscord.get(discordId);
+        return set == null ? Set.of() : Set.copyOf(set);
+    }
+
+    private static Set<UUID> withMember(Set<UUID> set, UUID uuid) {
+        Set<UUID> s = set != null ? set : ConcurrentHashMap.newKeySet();
+        s.add(uuid);
+        return s;
+    }
+
+    private void unindex(long discordId, UUID uuid) {
+        if (discordId == UNLINKED) return;
+        byDiscord.computeIfPresent(discordId, (d, set) -> {
+            set.remove(uuid);
+            return set.isEmpty() ? null : set;
+        });
+    }
+}
@@ -133,6 +133,160 @@ class LoginServiceJoinTest {
 
             assertEquals(discordId, dm.firstLoginDiscordId);
             assertEquals(uuid, dm.firstLoginProfile);
+
+            int calls = accounts.isLinkedCalls;
+            assertTrue(service.isActionAllowed(uuid, "4.4.4.4"));
+            assertEquals(calls, accounts.isLinkedCalls, "the link re-primes the verdict");
+        }
+    }
+
+    @Test
+    void actionVerdictIsCachedUntilIpConfirmed() {
+        try (var ignored = BukkitStub.install()) {
+            var state = new LoginStateService(props);
+            var profiles = new TestProfileRepo();
+            var accounts = new TestAccountsRepo();
+
+            UUID uuid = UUID.randomUUID();
+            long discordId = 42L;
+
+            profiles.lastIp.put(uuid, "1.1.1.1");
+            accounts.linked.add(uuid);
+            accounts.active.put(uuid, discordId);
+
+            var service = createService(state, profiles, accounts, new NoopDm());
+            service.onPlayerJoin(uuid, "Player", "1.1.1.1", false);
+
+            int callsAfterJoin = accounts.isLinkedCalls;
+            assertTrue(service.isActionAllowed(uuid, "1.1.1.1"));
+            assertTrue(service.isActionAllowed(uuid, "1.1.1.1"));
+            assertEquals(callsAfterJoin, accounts.isLinkedCalls, "primed verdict must not hit the repo");
+
+            // Different IP misses the cache; confirming it through Discord must invalidate the stale verdict
+            assertFalse(service.isActionAllowed(uuid, "2.2.2.2"));
+            state.markPendingIpConfirm(uuid, "2.2.2.2", discordId);
+            service.onDiscordIpConfirm(uuid, discordId);
+            int callsAfterConfirm = accounts.isLinkedCalls;
+            assertTrue(service.isActionAllowed(uuid, "2.2.2.2"));
+            assertEquals(callsAfterConfirm, accounts.isLinkedCalls, "confirmation re-primes the verdict");
+        }
+    }
+
+    @Test
+    void prefetchedJoinSkipsStorageUnlessStale() {
+        try (var ignored = BukkitStub.install()) {
+            var state = new LoginStateService(props);
+            var profiles = new TestProfileRepo();
+            var accounts = new TestAccountsRepo();
+            var dm = new RecordingDm();
+
+            UUID uuid = UUID.randomUUID();
+            profiles.lastIp.put(uuid, "1.1.1.1");
+            accounts.linked.add(uuid);
+            accounts.active.put(uuid, 42L);
+
+            var service = createService(state, profiles, accounts, dm);
+            service.prefetchJoin(uuid, "Player", false);
+            assertEquals("Player", profiles.names.get(uuid), "name is written during pre-login");
+
+            // Storage changes after the prefetch are not seen: the join is served from the snapshot.
+            // State changes of other players do not touch this player's snapshot either
+            accounts.active.put(uuid, 99L);
+            state.clearPendingLogin(UUID.randomUUID());
+            state.invalidateVerdict(UUID.randomUUID());
+            service.onPlayerJoin(uuid, "Player", "9.9.9.9", false);
+            assertEquals(42L, dm.lastDiscordId);
+
+            // A state change of this player between prefetch and join invalidates the snapshot
+            UUID other = UUID.randomUUID();
+            accounts.linked.add(other);
+            accounts.active.put(other, 7L);
+            service.prefetchJoin(other, "Other", false);
+            accounts.active.put(other, 8L);
+            state.clearPendingLogin(other);
+            service.onPlayerJoin(other, "Other", "9.9.9.9", false);
+            assertEquals(8L, dm.lastDiscordId, "stale snapshot falls back to storage");
+        }
+    }
+
+    @Test
+    void staleSnapshotLeavesTheSimultaneousCheckToTheJoin() {
+        try (var ignored = BukkitStub.install()) {
+            var state = new LoginStateService(props);
+            var profiles = new TestProfileRepo();
+            var accounts = new TestAccountsRepo();
+
+            UUID uuid = UUID.randomUUID();
+            UUID sibling = UUID.randomUUID(); // another profile of the same Discord account, already online
+            profiles.lastIp.put(uuid, "1.1.1.1");
+            accounts.linked.add(uuid);
+            accounts.active.put(uuid, 42L);
+            state.claimOnline(sibling, 42L, false);
+
+            var service = createService(state, profiles, accounts, new NoopDm());
+            service.prefetchJoin(uuid, "Player", false);
+            state.clearPendingLogin(uuid); // makes the snapshot stale
+
+            int reads = accounts.findDiscordCalls;
+            assertEquals(Optional.empty(), service.disallowReasonOnLogin(uuid));
+            assertEquals(reads, accounts.findDiscordCalls, "no storage read during PlayerLoginEvent");
+
+            // The join resolves the owner, finds the sibling online and kicks instead of completing
+            service.onPlayerJoin(uuid, "Player", "1.1.1.1", false);
+            assertNull(state.cachedVerdict(uuid, "1.1.1.1"));
+            assertEquals(Optional.of(sibling), state.claimOnline(UUID.randomUUID(), 42L, true));
+        }
+    }
+
+    @Test
+    void asyncJoinGatesPlayerUntilResolved() {
+        try (var ignored = BukkitStub.install()) {
+            var state = new LoginStateService(props);
+            var profiles = new TestProfileRepo();
+            var accounts = new TestAccountsRepo();
+
+            UUID uuid = UUID.randomUUID();
+            profiles.lastIp.put(uuid, "1.1.1.1");
+            accounts.linked.add(uuid);
+            accounts.active.put(uuid, 42L);
+
+            var service = createService(state, profiles, accounts, new NoopDm());
+            List<Runnable> queued = new ArrayList<>();
+            service.setIoExecutor(queued::add);
+            service.onPlayerJoin(uuid, "Player", "1.1.1.1", false);
+
+            // Nothing touched storage on the calling thread, and the player is gated meanwhile
+            assertNull(profiles.names.get(uuid));
+            assertTrue(state.isResolving(uuid));
+            assertFalse(service.isActionAllowed(uuid, "1.1.1.1"));
+
+            assertEquals(1, queued.size());
+            queued.getFirst().run();
+            assertEquals("Player", profiles.names.get(uuid));
+        }
+    }
+
+    @Test
+    void deferredProfileCreationSkipsWritesForUnlinkedJoins() {
+        try (var ignored = BukkitStub.install()) {
+            var state = new LoginStateService(props);
+            var profiles = new TestProfileRepo();
+            var accounts = new TestAccountsRepo();
+            var service = createService(state, profiles, accounts, new NoopDm());
+            service.setDeferProfileCreation(true);
+
+            UUID stranger = UUID.randomUUID();
+            service.onPlayerJoin(stranger, "Bot123", "6.6.6.6", false);
+            assertTrue(state.isPendingLogin(stranger));
+            assertFalse(profiles.names.containsKey(stranger), "unlinked join must not create a profile");
+            assertFalse(profiles.platforms.containsKey(stranger));
+
+            UUID member = UUID.randomUUID();
+            profiles.lastIp.put(member, "1.1.1.1");
+            accounts.linked.add(member);
+            accounts.active.put(member, 42L);
+            service.onPlayerJoin(member, "Player", "1.1.1.1", false);
+            assertEquals("Player", profiles.names.get(member));
         }
     }
 
@@ -181,6 +335,8 @@ class LoginServiceJoinTest {
         final Map<String, Integer> counts = new HashMap<>();
         UUID lastActivatedProfile;
         Long lastActivatedDiscord;
+        int isLinkedCalls;
+        int findDiscordCalls;
 
         @Override public void link(long discordId, UUID profileUuid) { activate(discordId, profileUuid); }
         @Override public void reserve(long discordId, UUID profileUuid) {
@@ -199,8 +355,8 @@ class LoginServiceJoinTest {
             return Optional.empty();
         }
 
-        @Override public boolean isLinked(UUID profileUuid) { return linked.contains(profileUuid); }
-        @Override public Optional<Long> findDiscordForProfile(UUID profileUuid) { return Optional.ofNullable(active.get(profileUuid)); }
+        @Override public boolean isLinked(UUID profileUuid) { isLinkedCalls++; return linked.contains(profileUuid); }
+        @Override public Optional<Long> findDiscordForProfile(UUID profileUuid) { findDiscordCalls++; return Optional.ofNullable(active.get(profileUuid)); }
         @Override public Optional<Long> findAnyDiscordForProfile(UUID profileUuid) { return Optional.ofNullable(any.getOrDefault(profileUuid, active.get(profileUuid))); }
         @Override public Set<UUID> findProfilesForDiscord(long discordId) { return profiles.getOrDefault(discordId, new LinkedHashSet<>()); }
         @Override public int countByDiscordAndPlatform(long discordId, String platform, boolean includeReserved) { return counts.getOrDefault(key(discordId, platform), 0); }
@@ -4,6 +4,8 @@ import org.junit.jupiter.api.Test;
 import ua.beengoo.logdo2.api.provider.Properties;
 import ua.beengoo.logdo2.api.provider.PropertiesProvider;
 
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -110,4 +112,35 @@ class LoginStateServiceTest {
         Thread.sleep(1015);
         assertNull(svc.consumeOneTimeCode(code));
     }
+
+    @Test
+    void onlineIndexAllowsOneProfilePerDiscord() {
+        var svc = new LoginStateService(props);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        assertTrue(svc.claimOnline(first, 7L, true).isEmpty());
+        assertEquals(Optional.of(first), svc.claimOnline(second, 7L, true));
+        assertEquals(Set.of(first), svc.onlineProfiles(7L), "blocked profile is not registered");
+
+        // Non-exclusive claims (simultaneous play allowed) register both
+        assertTrue(svc.claimOnline(second, 7L, false).isEmpty());
+        assertEquals(Set.of(first, second), svc.onlineProfiles(7L));
+
+        // Unlink moves the profile out of the Discord bucket; quit removes it entirely
+        svc.updateOnlineOwner(first, null);
+        assertEquals(Set.of(second), svc.onlineProfiles(7L));
+        svc.releaseOnline(second);
+        assertTrue(svc.onlineProfiles(7L).isEmpty());
+
+        // Owner updates for offline profiles are ignored
+        svc.updateOnlineOwner(UUID.randomUUID(), 7L);
+        assertTrue(svc.onlineProfiles(7L).isEmpty());
+
+        // A blocked claim keeps the registration the profile already had
+        assertTrue(svc.claimOnline(first, 7L, true).isEmpty());
+        assertTrue(svc.claimOnline(second, 8L, true).isEmpty());
+        assertEquals(Optional.of(first), svc.claimOnline(second, 7L, true));
+        assertEquals(Set.of(second), svc.onlineProfiles(8L));
+    }
 }
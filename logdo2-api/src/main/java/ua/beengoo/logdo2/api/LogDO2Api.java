@@ -22,5 +22,12 @@ public interface LogDO2Api {
     JDA getDiscordBot();
     List<MinecraftProfile> getUsersByDiscord(long discordId);
     String getTargetGuildId();
+
+    /**
+     * Drops the cached {@link ua.beengoo.logdo2.api.events.PlayerIpCheckEvent} answer for this player,
+     * so the event fires again on the next gated action. Only matters with {@code gates.ipCheckEvent: on-change};
+     * call it when your listener's decision changes without a LogDO2 state change.
+     */
+    void invalidateIpCheck(UUID uuid);
 }
 
@@ -10,6 +10,8 @@ import org.jetbrains.annotations.NotNull;
 /**
  * Fires when player goes truth Ip check stage
  * Allow's to skip ip check stage if allowed was modified.
+ * With {@code gates.ipCheckEvent: on-change} it fires only when login state or IP changes and the result
+ * is reused until then; see {@link ua.beengoo.logdo2.api.LogDO2Api#invalidateIpCheck}.
  * */
 @Getter
 public class PlayerIpCheckEvent extends Event {
@@ -13,6 +13,20 @@ public interface AccountsRepo {
 
     /** Activate the reserved link for this pair (sets active=1 and deactivates others for the profile). */
     void activate(long discordId, UUID profileUuid);
+
+    /**
+     * {@link #reserve(long, UUID)} that also writes the profile row (name, platform, last IP) in the same
+     * transaction, creating it if needed. Null values keep what is stored.
+     */
+    default void reserve(long discordId, UUID profileUuid, String name, String platform, String lastIp) {
+        reserve(discordId, profileUuid);
+    }
+
+    /** {@link #activate(long, UUID)} with the profile row written in the same transaction, see {@link #reserve(long, UUID, String, String, String)}. */
+    default void activate(long discordId, UUID profileUuid, String name, String platform, String lastIp) {
+        activate(discordId, profileUuid);
+    }
+
     Optional<Long> linkedAt(UUID profileUUID);
     boolean isLinked(UUID profileUuid);
     Optional<Long> findDiscordForProfile(UUID profileUuid);
@@ -0,0 +1,22 @@
+package ua.beengoo.logdo2.api.ports;
+
+import java.util.UUID;
+
+public interface JoinRepo {
+    /**
+     * Upsert name + platform ("JAVA"/"BEDROCK") and read what the join flow needs, in one round trip.
+     * Creates the profile row if it does not exist yet.
+     */
+    Row resolveJoin(UUID profileUuid, String name, String platform);
+
+    /**
+     * Like {@link #resolveJoin} but only updates a profile row that already exists, never creating one.
+     * Used when rows for players who never linked are deferred until the link is made.
+     */
+    Row resolveExistingJoin(UUID profileUuid, String name, String platform);
+
+    /** @param activeDiscordId null when the profile has no active link */
+    record Row(Long activeDiscordId, String lastConfirmedIp) {
+        public boolean linked() { return activeDiscordId != null; }
+    }
+}
@@ -3,6 +3,7 @@ package ua.beengoo.logdo2.api.ports;
 import java.time.Instant;
 import java.time.Duration;
 import java.util.Collection;
+import java.util.Optional;
 import java.util.UUID;
 
 public interface LoginStatePort {
@@ -47,6 +48,39 @@ public interface LoginStatePort {
     /** Consume bypass if present; returns true if bypass was available and consumed. */
     boolean consumeLimitBypass(UUID uuid);
 
+    // ===== Join resolving (storage lookup still running) =====
+    /** Player joined but link state is still being read off-thread; gate them like a pending login. */
+    default void markResolving(UUID uuid) {}
+    default boolean isResolving(UUID uuid) { return false; }
+    default void clearResolving(UUID uuid) {}
+
+    // ===== Online profiles by Discord owner (simultaneous-play check) =====
+    /**
+     * Registers an online or logging-in profile under its active Discord ID (null = unlinked).
+     * With {@code exclusive}, fails atomically when another profile of that Discord ID is registered.
+     * @return the registered profile that blocks this one
+     */
+    default Optional<UUID> claimOnline(UUID uuid, Long discordId, boolean exclusive) { return Optional.empty(); }
+    /** Link or unlink of a profile; ignored unless it is registered as online. */
+    default void updateOnlineOwner(UUID uuid, Long discordId) {}
+    default void releaseOnline(UUID uuid) {}
+
+    // ===== Gate verdict cache =====
+    /**
+     * Cached result of an action check for this profile from this IP, or null when unknown.
+     * Never blocks and never touches storage, so it is safe to call from event handlers.
+     */
+    default Boolean cachedVerdict(UUID uuid, String ip) { return null; }
+    /**
+     * Current invalidation epoch of this profile; read it before computing a verdict and pass it to
+     * {@link #cacheVerdict}. Changes of other profiles leave it alone.
+     */
+    default long verdictEpoch(UUID uuid) { return 0L; }
+    /** Store a verdict unless the cache was invalidated after {@code epoch} was read. */
+    default void cacheVerdict(UUID uuid, String ip, boolean allowed, long epoch) {}
+    /** Drop the cached verdict for this profile. Must be called on every link/IP/pending state change. */
+    default void invalidateVerdict(UUID uuid) {}
+
     // ===== Дані структур =====
     record PendingIp(UUID uuid, String newIp, long discordId, Instant at) {}
     record OAuthState(UUID uuid, String ip, String name, boolean bedrock, Instant at) {}
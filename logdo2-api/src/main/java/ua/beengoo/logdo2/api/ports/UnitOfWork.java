@@ -0,0 +1,31 @@
+package ua.beengoo.logdo2.api.ports;
+
+import java.util.function.Supplier;
+
+/**
+ * Runs several repository calls as one transaction on one connection.
+ * Units nest: an inner one joins the outer transaction, and a failure in either rolls back the whole flow.
+ */
+public interface UnitOfWork {
+    /** No transaction: every repository call stands alone and hooks run at once. */
+    UnitOfWork DIRECT = new UnitOfWork() {
+        @Override public <T> T inTransaction(Supplier<T> work) { return work.get(); }
+        @Override public void afterCommit(Runnable action) { action.run(); }
+    };
+
+    /** Commits when {@code work} returns, rolls back and rethrows when it throws. */
+    <T> T inTransaction(Supplier<T> work);
+
+    default void run(Runnable work) {
+        inTransaction(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs {@code action} after the current transaction commits, or right away outside of one.
+     * Dropped when the transaction rolls back; use it for in-memory state that must match storage.
+     */
+    void afterCommit(Runnable action);
+}
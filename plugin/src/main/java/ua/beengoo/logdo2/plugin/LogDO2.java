@@ -23,16 +23,23 @@ import ua.beengoo.logdo2.plugin.adapters.oauth.DiscordOAuthAdapter;
 import ua.beengoo.logdo2.plugin.command.LogDO2Command;
 import ua.beengoo.logdo2.plugin.config.Config;
 import ua.beengoo.logdo2.plugin.db.DatabaseManager;
+import ua.beengoo.logdo2.plugin.db.RetentionJobs;
 import ua.beengoo.logdo2.plugin.discord.JdaDiscordButtonListener;
 import ua.beengoo.logdo2.plugin.discord.JdaSlashLoginListener;
 import ua.beengoo.logdo2.plugin.discord.SlashCommandRegistrar;
 import ua.beengoo.logdo2.plugin.i18n.YamlMessages;
+import ua.beengoo.logdo2.plugin.listeners.PhaseVisualsListener;
 import ua.beengoo.logdo2.plugin.listeners.PlayerListener;
 import ua.beengoo.logdo2.plugin.listeners.PreLoginListener;
 import ua.beengoo.logdo2.plugin.integration.FloodgateHook;
 import ua.beengoo.logdo2.plugin.listeners.ReloadListener;
 import ua.beengoo.logdo2.plugin.props.LogDO2PropertiesManager;
 import ua.beengoo.logdo2.plugin.runtime.TimeoutManager;
+import ua.beengoo.logdo2.plugin.runtime.FreezeManager;
+import ua.beengoo.logdo2.plugin.runtime.IoExecutor;
+import ua.beengoo.logdo2.plugin.runtime.IpCheckDispatcher;
+import ua.beengoo.logdo2.plugin.runtime.PlayerSessions;
+import ua.beengoo.logdo2.plugin.runtime.VisibilityManager;
 import ua.beengoo.logdo2.plugin.util.EncryptionManager;
 import ua.beengoo.logdo2.plugin.util.EnumsUtil;
 import ua.beengoo.logdo2.plugin.util.StringUtil;
@@ -40,6 +47,8 @@ import ua.beengoo.logdo2.plugin.web.LoginEndpoint;
 import ua.beengoo.logdo2.plugin.util.AuditLogger;
 import ua.beengoo.logdo2.plugin.adapters.api.AccountsReadAdapter;
 import ua.beengoo.logdo2.plugin.adapters.api.LogDO2ApiImpl;
+import ua.beengoo.logdo2.plugin.adapters.cache.CachingRepos;
+import ua.beengoo.logdo2.plugin.adapters.cache.LinkReplica;
 import ua.beengoo.logdo2.plugin.adapters.api.ProfileReadAdapter;
 
 import java.time.Duration;
@@ -65,6 +74,10 @@ public final class LogDO2 extends JavaPlugin {
     private AccountsRepo accountsRepo;
     @Getter
     private ProfileRepo profileRepo;
+    private CachingRepos repoCache;
+    private WriteBehindProfileRepo writeBehind;
+    private IoExecutor io;
+    private RetentionJobs retention;
     @Getter
     private TokensRepo tokensRepo;
     private YamlMessages messages;
@@ -114,11 +127,58 @@ public final class LogDO2 extends JavaPlugin {
         }
         EncryptionManager crypto = EncryptionManager.fromBase64(keyB64);
 
-        this.accountsRepo    = new JdbcAccountsRepo(db.dataSource(), db.dialect());
-        this.profileRepo     = new JdbcProfileRepo(db.dataSource(), db.dialect());
+        WriteDedup dedup = getConfig().getBoolean("database.skipUnchangedWrites.enabled", false)
+                ? new WriteDedup(getConfig().getLong("database.skipUnchangedWrites.maximumSize", 10_000L),
+                        Duration.ofSeconds(getConfig().getLong("database.skipUnchangedWrites.touchIntervalSeconds", 3600L)))
+                : WriteDedup.disabled();
+        db.unitOfWork().onRollback(dedup::clear); // remembered values may never have been committed
+        this.accountsRepo    = new JdbcAccountsRepo(db.dataSource(), db.dialect(), dedup, db.keyCodec());
+        this.profileRepo     = new JdbcProfileRepo(db.dataSource(), db.dialect(), dedup, db.keyCodec());
+        JoinRepo joinRepo    = new JdbcJoinRepo(db.dataSource(), db.dialect(), dedup, db.keyCodec());
+        if (getConfig().getBoolean("database.writeBehind.enabled", false)) {
+            // Sits under the cache/replica so they see queued values through it
+            this.writeBehind = new WriteBehindProfileRepo(profileRepo, db.dataSource(), db.dialect(),
+                    getConfig().getLong("database.writeBehind.flushMillis", 500L),
+                    getConfig().getInt("database.writeBehind.maxRows", 200), dedup, db.keyCodec());
+            this.profileRepo = writeBehind;
+            joinRepo = writeBehind;
+        }
+        if (getConfig().getBoolean("database.replica.enabled", false)) {
+            LinkReplica replica = new LinkReplica(accountsRepo, profileRepo, joinRepo,
+                    getConfig().getInt("database.replica.expectedDiscordIds", 1024), db.unitOfWork());
+            log.info("Link replica: {}", replica.load(db.dataSource(), db.keyCodec()));
+            this.accountsRepo = replica;
+            this.profileRepo  = replica;
+            joinRepo = replica;
+        } else if (getConfig().getBoolean("database.cache.enabled", true)) {
+            this.repoCache = new CachingRepos(accountsRepo, profileRepo, joinRepo,
+                    getConfig().getLong("database.cache.maximumSize", 10_000L),
+                    Duration.ofSeconds(getConfig().getLong("database.cache.ttlSeconds", 300L)),
+                    Duration.ofSeconds(getConfig().getLong("database.cache.negativeTtlSeconds", 30L)),
+                    db.unitOfWork());
+            db.unitOfWork().onRollback(repoCache::invalidateAll);
+            this.accountsRepo = repoCache;
+            this.profileRepo  = repoCache;
+            joinRepo = repoCache;
+        }
+        if (getConfig().getBoolean("database.retention.enabled", false)) {
+            // Skipped upserts must not outlive the row: orphans are only purged once their dedup entries expired
+            long minOrphanAge = getConfig().getLong("database.skipUnchangedWrites.touchIntervalSeconds", 3600L);
+            this.retention = new RetentionJobs(db.unitOfWork(), db.dialect(), db.keyCodec(), new RetentionJobs.Settings(
+                    getConfig().getBoolean("database.retention.banProgress", true),
+                    getConfig().getLong("database.retention.reservedLinksMaxAgeSeconds", 0L),
+                    orphanAge("database.retention.orphanProfilesMaxAgeSeconds", 7776000L, minOrphanAge),
+                    orphanAge("database.retention.orphanDiscordAccountsMaxAgeSeconds", 0L, minOrphanAge),
+                    Math.max(1, getConfig().getInt("database.retention.chunkSize", 500)),
+                    getConfig().getLong("database.retention.chunkPauseMillis", 50L)),
+                    () -> LogDO2PropertiesManager.getINSTANCE().getSnapshot().banTrackWindowSec);
+            if (accountsRepo instanceof RetentionJobs.Listener l) retention.addListener(l);
+            long interval = getConfig().getLong("database.retention.intervalMinutes", 60L);
+            retention.start(Math.min(5L, interval), interval);
+        }
         this.tokensRepo      = new JdbcTokensRepo(db.dataSource(), crypto, db.dialect());
-        this.discordUserRepo = new JdbcDiscordUserRepo(db.dataSource(), db.dialect());
-        this.banProgressRepo = new JdbcBanProgressRepo(db.dataSource(), db.dialect());
+        this.discordUserRepo = new JdbcDiscordUserRepo(db.dataSource(), db.dialect(), dedup);
+        this.banProgressRepo = new JdbcBanProgressRepo(db.dataSource(), db.dialect(), db.keyCodec());
         this.loginStatePort  = new LoginStateService(LogDO2PropertiesManager.getINSTANCE());
 
         String redirectUri = publicUrl + "/oauth/callback";
@@ -139,6 +199,11 @@ public final class LogDO2 extends JavaPlugin {
                 LogDO2PropertiesManager.getINSTANCE(),
                 messages
         );
+        this.loginService.setJoinRepo(joinRepo);
+        this.loginService.setUnitOfWork(db.unitOfWork());
+        this.loginService.setDeferProfileCreation(getConfig().getBoolean("database.deferProfileCreation", false));
+        this.io = new IoExecutor(log);
+        this.loginService.setIoExecutor(io);
 
         startJDA(botToken, intentNames, enableCacheChunking, cacheAllGuildMembers);
 
@@ -180,18 +245,24 @@ public final class LogDO2 extends JavaPlugin {
         this.loginEndpoint.start(webPort);
 
         this.logdo2API = new LogDO2ApiImpl(loginService, profileRepo, accountsRepo, loginStatePort, jda, targetGuildId);
+        PlayerSessions sessions = new PlayerSessions();
+        IpCheckDispatcher ipCheck = new IpCheckDispatcher(sessions);
+        this.logdo2API.setIpCheckDispatcher(ipCheck);
 
-        LogDO2Command cmd = new LogDO2Command(accountsRepo, profileRepo, banProgressRepo, discordUserRepo, messages, audit, jda);
+        LogDO2Command cmd = new LogDO2Command(accountsRepo, profileRepo, banProgressRepo, discordUserRepo, messages, audit, jda, this, io);
+        cmd.setJdbcMetrics(db.metrics());
         Objects.requireNonNull(getCommand("logdo2")).setExecutor(cmd);
         Objects.requireNonNull(getCommand("logdo2")).setTabCompleter(cmd);
 
         FloodgateHook floodgate = new FloodgateHook();
         if (floodgate.isPresent()) log.info("Floodgate is supported!");
-        Bukkit.getPluginManager().registerEvents(new PreLoginListener(banProgressRepo, getLogger(), messages, audit), this);
-        Bukkit.getPluginManager().registerEvents(new PlayerListener(loginService, floodgate, loginStatePort, this, audit), this);
+        Bukkit.getPluginManager().registerEvents(new PreLoginListener(banProgressRepo, getLogger(), messages, audit, loginService, floodgate), this);
+        Bukkit.getPluginManager().registerEvents(new PlayerListener(loginService, floodgate, loginStatePort, this, audit, ipCheck, sessions), this);
+        Bukkit.getPluginManager().registerEvents(new PhaseVisualsListener(this, sessions,
+                new VisibilityManager(this, sessions), new FreezeManager(this, sessions)), this);
         Bukkit.getPluginManager().registerEvents(new ReloadListener(this), this);
         this.timeouts = new TimeoutManager(
-                this, loginStatePort, loginService,
+                this, loginStatePort, loginService, sessions,
                 Duration.ofSeconds(loginSec),
                 Duration.ofSeconds(ipConfSec),
                 Duration.ofSeconds(bctal)
@@ -258,10 +329,23 @@ public final class LogDO2 extends JavaPlugin {
         startJDA(botToken, intentNames, enableCacheChunking, cacheAllGuildMembers);
     }
 
+    private long orphanAge(String path, long def, long min) {
+        long age = getConfig().getLong(path, def);
+        return age > 0 ? Math.max(age, min) : 0;
+    }
+
     @Override
     public void onDisable() {
         if (timeouts != null) timeouts.stop();
         if (loginEndpoint != null) loginEndpoint.stop();
+        if (io != null) io.close(); // let in-flight lookups finish before the pool goes away
+        if (retention != null) {
+            retention.close();
+            log.info("Retention purged since start: {}", retention.statsLine());
+        }
+        if (writeBehind != null) writeBehind.close(); // drain queued profile updates
+        if (repoCache != null) log.info("Repository cache hit/miss: {}", repoCache.statsLine());
+        if (db != null && db.metrics() != null) db.metrics().report(5).forEach(line -> log.info("SQL {}", line));
         if (db != null) db.stop();
         shutdownJDA();
         if (audit != null) try { audit.close(); } catch (Exception ignored) {}
@@ -10,6 +10,7 @@ import ua.beengoo.logdo2.api.ports.AccountsRepo;
 import ua.beengoo.logdo2.api.ports.LoginStatePort;
 import ua.beengoo.logdo2.api.ports.ProfileRepo;
 import ua.beengoo.logdo2.core.service.LoginService;
+import ua.beengoo.logdo2.plugin.runtime.IpCheckDispatcher;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -22,6 +23,8 @@ public class LogDO2ApiImpl implements LogDO2Api {
     @Setter
     private JDA discordBot;
     private final String targetGuildId;
+    @Setter
+    private IpCheckDispatcher ipCheckDispatcher;
 
     public LogDO2ApiImpl(LoginService service,
                          ProfileRepo profiles,
@@ -121,4 +124,9 @@ public class LogDO2ApiImpl implements LogDO2Api {
     public String getTargetGuildId() {
         return targetGuildId;
     }
+
+    @Override
+    public void invalidateIpCheck(UUID uuid) {
+        if (ipCheckDispatcher != null) ipCheckDispatcher.invalidate(uuid);
+    }
 }
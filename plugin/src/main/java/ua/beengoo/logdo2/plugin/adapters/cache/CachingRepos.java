@@ -0,0 +1,331 @@
+package ua.beengoo.logdo2.plugin.adapters.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import ua.beengoo.logdo2.api.ports.AccountsRepo;
+import ua.beengoo.logdo2.api.ports.JoinRepo;
+import ua.beengoo.logdo2.api.ports.ProfileRepo;
+import ua.beengoo.logdo2.api.ports.UnitOfWork;
+import ua.beengoo.logdo2.plugin.db.RetentionJobs;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Read-through cache in front of {@link AccountsRepo} and {@link ProfileRepo}.
+ * Bounded W-TinyLFU caches (Caffeine) with TTL; "not linked / not found" answers are cached as
+ * negative entries with a shorter TTL. Writes made through this instance invalidate the affected keys, at once
+ * and again when their transaction commits: a read on another connection in between may have cached the
+ * committed, older row. Writes by other servers sharing the database become visible after the TTL.
+ */
+public class CachingRepos implements AccountsRepo, ProfileRepo, JoinRepo, RetentionJobs.Listener {
+    private final AccountsRepo accounts;
+    private final ProfileRepo profiles;
+    private final JoinRepo join; // nullable
+    private final UnitOfWork uow;
+
+    private final Cache<UUID, Optional<Long>> activeDiscord;
+    private final Cache<UUID, Optional<Long>> anyDiscord;
+    private final Cache<Long, Set<UUID>> profilesByDiscord;
+    private final Cache<UUID, Optional<String>> names;
+    private final Cache<UUID, Optional<String>> platforms;
+    private final Cache<UUID, Optional<String>> lastIps;
+
+    public CachingRepos(AccountsRepo accounts, ProfileRepo profiles,
+                        long maximumSize, Duration ttl, Duration negativeTtl) {
+        this(accounts, profiles, null, maximumSize, ttl, negativeTtl);
+    }
+
+    public CachingRepos(AccountsRepo accounts, ProfileRepo profiles, JoinRepo join,
+                        long maximumSize, Duration ttl, Duration negativeTtl) {
+        this(accounts, profiles, join, maximumSize, ttl, negativeTtl, UnitOfWork.DIRECT);
+    }
+
+    /** @param uow the unit of work the repos write through; evictions are repeated after its commit */
+    public CachingRepos(AccountsRepo accounts, ProfileRepo profiles, JoinRepo join,
+                        long maximumSize, Duration ttl, Duration negativeTtl, UnitOfWork uow) {
+        this.accounts = accounts;
+        this.profiles = profiles;
+        this.join = join;
+        this.uow = uow;
+        this.activeDiscord = build(maximumSize, ttl, negativeTtl, Optional::isEmpty);
+        this.anyDiscord = build(maximumSize, ttl, negativeTtl, Optional::isEmpty);
+        this.profilesByDiscord = build(maximumSize, ttl, negativeTtl, Set::isEmpty);
+        this.names = build(maximumSize, ttl, negativeTtl, Optional::isEmpty);
+        this.platforms = build(maximumSize, ttl, negativeTtl, Optional::isEmpty);
+        this.lastIps = build(maximumSize, ttl, negativeTtl, Optional::isEmpty);
+    }
+
+    // ===== AccountsRepo: reads =====
+
+    @Override
+    public boolean isLinked(UUID profileUuid) {
+        // active link exists <=> active discord id exists; share one entry for both calls
+        return findDiscordForProfile(profileUuid).isPresent();
+    }
+
+    @Override
+    public Optional<Long> findDiscordForProfile(UUID profileUuid) {
+        return activeDiscord.get(profileUuid, accounts::findDiscordForProfile);
+    }
+
+    @Override
+    public Optional<Long> findAnyDiscordForProfile(UUID profileUuid) {
+        return anyDiscord.get(profileUuid, accounts::findAnyDiscordForProfile);
+    }
+
+    @Override
+    public Set<UUID> findProfilesForDiscord(long discordId) {
+        return profilesByDiscord.get(discordId, d -> Set.copyOf(accounts.findProfilesForDiscord(d)));
+    }
+
+    @Override
+    public Optional<Long> linkedAt(UUID profileUUID) {
+        return accounts.linkedAt(profileUUID);
+    }
+
+    @Override
+    public int countByDiscordAndPlatform(long discordId, String platform, boolean includeReserved) {
+        return accounts.countByDiscordAndPlatform(discordId, platform, includeReserved);
+    }
+
+    // ===== AccountsRepo: writes =====
+
+    @Override
+    public void link(long discordId, UUID profileUuid) {
+        accounts.link(discordId, profileUuid);
+        evict(() -> evictLink(discordId, profileUuid));
+    }
+
+    @Override
+    public void reserve(long discordId, UUID profileUuid) {
+        accounts.reserve(discordId, profileUuid);
+        evict(() -> {
+            evictLink(discordId, profileUuid);
+            evictProfile(profileUuid); // reserve creates the mc_profiles row
+        });
+    }
+
+    @Override
+    public void reserve(long discordId, UUID profileUuid, String name, String platform, String lastIp) {
+        accounts.reserve(discordId, profileUuid, name, platform, lastIp);
+        evict(() -> {
+            evictLink(discordId, profileUuid);
+            evictProfile(profileUuid);
+        });
+    }
+
+    @Override
+    public void activate(long discordId, UUID profileUuid) {
+        accounts.activate(discordId, profileUuid);
+        evict(() -> evictLink(discordId, profileUuid));
+    }
+
+    @Override
+    public void activate(long discordId, UUID profileUuid, String name, String platform, String lastIp) {
+        accounts.activate(discordId, profileUuid, name, platform, lastIp);
+        evict(() -> {
+            evictLink(discordId, profileUuid);
+            evictProfile(profileUuid);
+        });
+    }
+
+    @Override
+    public void unlinkByProfile(UUID profileUuid) {
+        accounts.unlinkByProfile(profileUuid);
+        evict(() -> {
+            evictProfileLinks(profileUuid);
+            evictProfile(profileUuid); // mc_profiles row is deleted too
+        });
+    }
+
+    @Override
+    public void unlinkByDiscord(long discordId) {
+        // Collect affected profiles before the rows are gone (reserved ones included)
+        Set<UUID> affected = new HashSet<>(accounts.findProfilesForDiscord(discordId));
+        anyDiscord.asMap().forEach((uuid, d) -> { if (d.isPresent() && d.get() == discordId) affected.add(uuid); });
+        accounts.unlinkByDiscord(discordId);
+        evict(() -> {
+            profilesByDiscord.invalidate(discordId);
+            activeDiscord.invalidateAll(affected);
+            anyDiscord.invalidateAll(affected);
+        });
+    }
+
+    @Override
+    public void unlinkByDiscordAndProfile(long discordId, UUID profileUuid) {
+        accounts.unlinkByDiscordAndProfile(discordId, profileUuid);
+        evict(() -> {
+            evictLink(discordId, profileUuid);
+            evictProfile(profileUuid);
+        });
+    }
+
+    // ===== ProfileRepo =====
+
+    @Override
+    public Optional<String> findLastConfirmedIp(UUID profileUuid) {
+        return lastIps.get(profileUuid, profiles::findLastConfirmedIp);
+    }
+
+    @Override
+    public Optional<String> findNameByUuid(UUID uuid) {
+        return names.get(uuid, profiles::findNameByUuid);
+    }
+
+    @Override
+    public Optional<String> findPlatform(UUID uuid) {
+        return platforms.get(uuid, profiles::findPlatform);
+    }
+
+    @Override
+    public Optional<UUID> findUuidByName(String name) {
+        return profiles.findUuidByName(name);
+    }
+
+    @Override
+    public void updateLastConfirmedIp(UUID profileUuid, String ip) {
+        profiles.updateLastConfirmedIp(profileUuid, ip);
+        evict(() -> lastIps.invalidate(profileUuid));
+    }
+
+    @Override
+    public void upsertName(UUID profileUuid, String playerName) {
+        profiles.upsertName(profileUuid, playerName);
+        evict(() -> names.invalidate(profileUuid));
+    }
+
+    @Override
+    public void updatePlatform(UUID profileUuid, String platform) {
+        profiles.updatePlatform(profileUuid, platform);
+        evict(() -> platforms.invalidate(profileUuid));
+    }
+
+    // ===== JoinRepo =====
+
+    @Override
+    public Row resolveJoin(UUID profileUuid, String name, String platform) {
+        if (join == null) {
+            upsertName(profileUuid, name);
+            updatePlatform(profileUuid, platform);
+            Long discordId = findDiscordForProfile(profileUuid).orElse(null);
+            return new Row(discordId, discordId != null ? findLastConfirmedIp(profileUuid).orElse(null) : null);
+        }
+        Row row = join.resolveJoin(profileUuid, name, platform);
+        // The row is fresh from storage; store it rather than just evicting
+        names.put(profileUuid, Optional.ofNullable(name));
+        platforms.put(profileUuid, Optional.ofNullable(platform));
+        activeDiscord.put(profileUuid, Optional.ofNullable(row.activeDiscordId()));
+        lastIps.put(profileUuid, Optional.ofNullable(row.lastConfirmedIp()));
+        return row;
+    }
+
+    @Override
+    public Row resolveExistingJoin(UUID profileUuid, String name, String platform) {
+        if (join == null) {
+            Long discordId = findDiscordForProfile(profileUuid).orElse(null);
+            if (discordId == null) return new Row(null, null);
+            upsertName(profileUuid, name);
+            updatePlatform(profileUuid, platform);
+            return new Row(discordId, findLastConfirmedIp(profileUuid).orElse(null));
+        }
+        Row row = join.resolveExistingJoin(profileUuid, name, platform);
+        // Whether a row was updated is not known here; let name/platform reload on demand
+        names.invalidate(profileUuid);
+        platforms.invalidate(profileUuid);
+        activeDiscord.put(profileUuid, Optional.ofNullable(row.activeDiscordId()));
+        lastIps.put(profileUuid, Optional.ofNullable(row.lastConfirmedIp()));
+        return row;
+    }
+
+    // ===== RetentionJobs.Listener =====
+
+    @Override
+    public void reservedLinkPurged(long discordId, UUID profileUuid) {
+        evictLink(discordId, profileUuid);
+    }
+
+    @Override
+    public void profilePurged(UUID profileUuid) {
+        evictProfileLinks(profileUuid);
+        evictProfile(profileUuid);
+    }
+
+    /** Drops every entry, e.g. after a rollback: reads inside the transaction may have cached uncommitted rows. */
+    public void invalidateAll() {
+        activeDiscord.invalidateAll();
+        anyDiscord.invalidateAll();
+        profilesByDiscord.invalidateAll();
+        names.invalidateAll();
+        platforms.invalidateAll();
+        lastIps.invalidateAll();
+    }
+
+    // ===== stats =====
+
+    /** One line of hit/miss counters per cache, for logs. */
+    public String statsLine() {
+        return "links=" + fmt(activeDiscord.stats())
+                + " anyLinks=" + fmt(anyDiscord.stats())
+                + " byDiscord=" + fmt(profilesByDiscord.stats())
+                + " names=" + fmt(names.stats())
+                + " platforms=" + fmt(platforms.stats())
+                + " ips=" + fmt(lastIps.stats());
+    }
+
+    // ===== helpers =====
+
+    /** Now, so this thread reads its own write, and after the commit, dropping what others reloaded meanwhile. */
+    private void evict(Runnable eviction) {
+        eviction.run();
+        uow.afterCommit(eviction);
+    }
+
+    private void evictLink(long discordId, UUID profileUuid) {
+        profilesByDiscord.invalidate(discordId);
+        evictProfileLinks(profileUuid);
+    }
+
+    private void evictProfileLinks(UUID profileUuid) {
+        activeDiscord.invalidate(profileUuid);
+        anyDiscord.invalidate(profileUuid);
+        // activate/unlink may change other discord accounts' sets too; writes are rare, a scan is fine
+        profilesByDiscord.asMap().values().removeIf(set -> set.contains(profileUuid));
+    }
+
+    private void evictProfile(UUID profileUuid) {
+        names.invalidate(profileUuid);
+        platforms.invalidate(profileUuid);
+        lastIps.invalidate(profileUuid);
+    }
+
+    private static String fmt(CacheStats s) {
+        return s.hitCount() + "/" + s.missCount() + " (" + Math.round(s.hitRate() * 100) + "%)";
+    }
+
+    private static <K, V> Cache<K, V> build(long maximumSize, Duration ttl, Duration negativeTtl, Predicate<V> negative) {
+        long pos = ttl.toNanos();
+        long neg = negativeTtl.toNanos();
+        return Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new Expiry<K, V>() {
+                    @Override public long expireAfterCreate(K key, V value, long currentTime) {
+                        return negative.test(value) ? neg : pos;
+                    }
+                    @Override public long expireAfterUpdate(K key, V value, long currentTime, long currentDuration) {
+                        return negative.test(value) ? neg : pos;
+                    }
+                    @Override public long expireAfterRead(K key, V value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+}
@@ -0,0 +1,455 @@
+package ua.beengoo.logdo2.plugin.adapters.cache;
+
+import ua.beengoo.logdo2.api.ports.AccountsRepo;
+import ua.beengoo.logdo2.api.ports.JoinRepo;
+import ua.beengoo.logdo2.api.ports.ProfileRepo;
+import ua.beengoo.logdo2.api.ports.UnitOfWork;
+import ua.beengoo.logdo2.plugin.db.KeyCodec;
+import ua.beengoo.logdo2.plugin.db.RetentionJobs;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Full in-memory copy of {@code mc_profiles} + {@code links}, loaded once at startup.
+ * Every read is served from memory; writes go to the JDBC repos first and are mirrored here once committed.
+ * Only valid while this server is the single writer of those tables.
+ */
+public class LinkReplica implements AccountsRepo, ProfileRepo, JoinRepo, RetentionJobs.Listener {
+    /** Rough per-entry heap cost used for the startup stats line (compressed oops). */
+    static final int BYTES_PER_PROFILE = 200; // map node + UUID + record + name/ip strings
+    static final int BYTES_PER_LINK = 56;     // Link record + array slot + index slot share
+
+    private final AccountsRepo accounts;
+    private final ProfileRepo profiles;
+    private final JoinRepo join; // nullable
+    private final UnitOfWork uow;
+
+    private final Map<UUID, Profile> byUuid = new ConcurrentHashMap<>();
+    private final Map<String, UUID> byLowerName = new ConcurrentHashMap<>();
+    private final LongUuidIndex byDiscord;
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private final Object writeLock = new Object();
+
+    public LinkReplica(AccountsRepo accounts, ProfileRepo profiles, int expectedDiscordIds) {
+        this(accounts, profiles, null, expectedDiscordIds);
+    }
+
+    public LinkReplica(AccountsRepo accounts, ProfileRepo profiles, JoinRepo join, int expectedDiscordIds) {
+        this(accounts, profiles, join, expectedDiscordIds, UnitOfWork.DIRECT);
+    }
+
+    /** @param uow the unit of work the repos write through; mirroring waits for its commit */
+    public LinkReplica(AccountsRepo accounts, ProfileRepo profiles, JoinRepo join, int expectedDiscordIds,
+                       UnitOfWork uow) {
+        this.accounts = accounts;
+        this.profiles = profiles;
+        this.join = join;
+        this.uow = uow;
+        this.byDiscord = new LongUuidIndex(expectedDiscordIds);
+    }
+
+    /** Profile row with its links; replaced as a whole on every change so readers never see a partial update. */
+    record Profile(String name, String lastIp, String platform, Link[] links) {
+        static final Link[] NO_LINKS = new Link[0];
+
+        Profile withName(String n) { return new Profile(n, lastIp, platform, links); }
+        Profile withLastIp(String ip) { return new Profile(name, ip, platform, links); }
+        Profile withPlatform(String p) { return new Profile(name, lastIp, p, links); }
+        Profile withLinks(Link[] l) { return new Profile(name, lastIp, platform, l); }
+
+        Link active() {
+            for (Link l : links) if (l.active) return l;
+            return null;
+        }
+
+        Link find(long discordId) {
+            for (Link l : links) if (l.discordId == discordId) return l;
+            return null;
+        }
+    }
+
+    record Link(long discordId, boolean active, long createdAt) {}
+
+    // ===== loading =====
+
+    public String load(DataSource ds) {
+        return load(ds, KeyCodec.TEXT);
+    }
+
+    /** Loads both tables; returns a one-line summary for the startup log. */
+    public String load(DataSource ds, KeyCodec codec) {
+        long started = System.nanoTime();
+        int links = 0;
+        synchronized (writeLock) {
+            try (Connection c = ds.getConnection()) {
+                try (PreparedStatement ps = c.prepareStatement("SELECT mc_uuid, name, last_ip, platform FROM mc_profiles");
+                     ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        UUID uuid = codec.uuid(rs, 1);
+                        String name = rs.getString(2);
+                        byUuid.put(uuid, new Profile(name, codec.ip(rs, 3), intern(rs.getString(4)), Profile.NO_LINKS));
+                        if (name != null) byLowerName.put(name.toLowerCase(Locale.ROOT), uuid);
+                    }
+                }
+                Map<UUID, List<Link>> grouped = new HashMap<>();
+                try (PreparedStatement ps = c.prepareStatement("SELECT discord_id, mc_uuid, active, created_at FROM links");
+                     ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        long discordId = rs.getLong(1);
+                        UUID uuid = codec.uuid(rs, 2);
+                        grouped.computeIfAbsent(uuid, k -> new ArrayList<>(1))
+                                .add(new Link(discordId, rs.getInt(3) == 1, rs.getLong(4)));
+                        links++;
+                    }
+                }
+                indexLock.writeLock().lock();
+                try {
+                    for (var e : grouped.entrySet()) {
+                        Profile p = byUuid.computeIfAbsent(e.getKey(), k -> new Profile(null, null, null, Profile.NO_LINKS));
+                        byUuid.put(e.getKey(), p.withLinks(e.getValue().toArray(Profile.NO_LINKS)));
+                        for (Link l : e.getValue()) byDiscord.add(l.discordId, e.getKey());
+                    }
+                } finally {
+                    indexLock.writeLock().unlock();
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        long ms = (System.nanoTime() - started) / 1_000_000;
+        long bytes = (long) byUuid.size() * BYTES_PER_PROFILE + (long) links * BYTES_PER_LINK
+                + (long) byDiscord.capacity() * 12;
+        return String.format(Locale.ROOT,
+                "%d profiles, %d links, %d discord ids loaded in %d ms (~%.1f MiB, est. %d B/profile + %d B/link)",
+                byUuid.size(), links, byDiscord.size(), ms, bytes / (1024.0 * 1024.0), BYTES_PER_PROFILE, BYTES_PER_LINK);
+    }
+
+    // ===== AccountsRepo: reads =====
+
+    @Override
+    public boolean isLinked(UUID profileUuid) {
+        Profile p = byUuid.get(profileUuid);
+        return p != null && p.active() != null;
+    }
+
+    @Override
+    public Optional<Long> findDiscordForProfile(UUID profileUuid) {
+        Profile p = byUuid.get(profileUuid);
+        Link l = p == null ? null : p.active();
+        return l == null ? Optional.empty() : Optional.of(l.discordId);
+    }
+
+    @Override
+    public Optional<Long> findAnyDiscordForProfile(UUID profileUuid) {
+        Profile p = byUuid.get(profileUuid);
+        if (p == null || p.links.length == 0) return Optional.empty();
+        Link l = p.active();
+        return Optional.of(l != null ? l.discordId : p.links[0].discordId);
+    }
+
+    @Override
+    public Optional<Long> linkedAt(UUID profileUUID) {
+        Profile p = byUuid.get(profileUUID);
+        Link l = p == null ? null : p.active();
+        return l == null ? Optional.empty() : Optional.of(l.createdAt);
+    }
+
+    @Override
+    public Set<UUID> findProfilesForDiscord(long discordId) {
+        Set<UUID> out = new HashSet<>();
+        for (UUID uuid : discordProfiles(discordId)) {
+            Profile p = byUuid.get(uuid);
+            Link l = p == null ? null : p.find(discordId);
+            if (l != null && l.active) out.add(uuid);
+        }
+        return out;
+    }
+
+    @Override
+    public int countByDiscordAndPlatform(long discordId, String platform, boolean includeReserved) {
+        int n = 0;
+        for (UUID uuid : discordProfiles(discordId)) {
+            Profile p = byUuid.get(uuid);
+            Link l = p == null ? null : p.find(discordId);
+            if (l == null || (!includeReserved && !l.active)) continue;
+            if (p.platform != null && p.platform.equalsIgnoreCase(platform)) n++;
+        }
+        return n;
+    }
+
+    // ===== AccountsRepo: writes (JDBC first, then mirror) =====
+
+    @Override
+    public void link(long discordId, UUID profileUuid) {
+        accounts.link(discordId, profileUuid);
+        mirror(() -> {
+            upsertLink(discordId, profileUuid, false);
+            activateLocal(discordId, profileUuid);
+        });
+    }
+
+    @Override
+    public void reserve(long discordId, UUID profileUuid) {
+        accounts.reserve(discordId, profileUuid);
+        mirror(() -> upsertLink(discordId, profileUuid, false));
+    }
+
+    @Override
+    public void reserve(long discordId, UUID profileUuid, String name, String platform, String lastIp) {
+        accounts.reserve(discordId, profileUuid, name, platform, lastIp);
+        mirror(() -> {
+            mirrorProfile(profileUuid, name, platform, lastIp);
+            upsertLink(discordId, profileUuid, false);
+        });
+    }
+
+    @Override
+    public void activate(long discordId, UUID profileUuid) {
+        accounts.activate(discordId, profileUuid);
+        mirror(() -> activateLocal(discordId, profileUuid));
+    }
+
+    @Override
+    public void activate(long discordId, UUID profileUuid, String name, String platform, String lastIp) {
+        accounts.activate(discordId, profileUuid, name, platform, lastIp);
+        mirror(() -> {
+            mirrorProfile(profileUuid, name, platform, lastIp);
+            activateLocal(discordId, profileUuid);
+        });
+    }
+
+    @Override
+    public void unlinkByProfile(UUID profileUuid) {
+        accounts.unlinkByProfile(profileUuid);
+        mirror(() -> dropProfile(profileUuid));
+    }
+
+    @Override
+    public void unlinkByDiscord(long discordId) {
+        accounts.unlinkByDiscord(discordId);
+        mirror(() -> {
+            UUID[] affected;
+            indexLock.writeLock().lock();
+            try {
+                affected = byDiscord.removeKey(discordId);
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+            for (UUID uuid : affected) {
+                byUuid.computeIfPresent(uuid, (k, p) -> p.withLinks(without(p.links, discordId)));
+            }
+        });
+    }
+
+    @Override
+    public void unlinkByDiscordAndProfile(long discordId, UUID profileUuid) {
+        accounts.unlinkByDiscordAndProfile(discordId, profileUuid);
+        // The mc_profiles row is deleted as well, which cascades to the remaining links
+        mirror(() -> dropProfile(profileUuid));
+    }
+
+    // ===== ProfileRepo =====
+
+    @Override
+    public Optional<String> findLastConfirmedIp(UUID profileUuid) {
+        Profile p = byUuid.get(profileUuid);
+        return p == null ? Optional.empty() : Optional.ofNullable(p.lastIp);
+    }
+
+    @Override
+    public Optional<String> findNameByUuid(UUID uuid) {
+        Profile p = byUuid.get(uuid);
+        return p == null ? Optional.empty() : Optional.ofNullable(p.name);
+    }
+
+    @Override
+    public Optional<String> findPlatform(UUID uuid) {
+        Profile p = byUuid.get(uuid);
+        return p == null ? Optional.empty() : Optional.ofNullable(p.platform);
+    }
+
+    @Override
+    public Optional<UUID> findUuidByName(String name) {
+        if (name == null) return Optional.empty();
+        return Optional.ofNullable(byLowerName.get(name.toLowerCase(Locale.ROOT)));
+    }
+
+    @Override
+    public void updateLastConfirmedIp(UUID profileUuid, String ip) {
+        profiles.updateLastConfirmedIp(profileUuid, ip);
+        mirror(() -> byUuid.put(profileUuid, profileOrEmpty(profileUuid).withLastIp(ip)));
+    }
+
+    @Override
+    public void upsertName(UUID profileUuid, String playerName) {
+        profiles.upsertName(profileUuid, playerName);
+        mirror(() -> mirrorName(profileUuid, playerName));
+    }
+
+    @Override
+    public void updatePlatform(UUID profileUuid, String platform) {
+        profiles.updatePlatform(profileUuid, platform);
+        mirror(() -> byUuid.put(profileUuid, profileOrEmpty(profileUuid).withPlatform(intern(platform))));
+    }
+
+    // ===== JoinRepo =====
+
+    @Override
+    public Row resolveJoin(UUID profileUuid, String name, String platform) {
+        // Storage still needs the upserts; the answer comes from memory
+        if (join != null) {
+            join.resolveJoin(profileUuid, name, platform);
+        } else {
+            profiles.upsertName(profileUuid, name);
+            profiles.updatePlatform(profileUuid, platform);
+        }
+        mirror(() -> {
+            mirrorName(profileUuid, name);
+            byUuid.put(profileUuid, profileOrEmpty(profileUuid).withPlatform(intern(platform)));
+        });
+        return new Row(findDiscordForProfile(profileUuid).orElse(null), findLastConfirmedIp(profileUuid).orElse(null));
+    }
+
+    @Override
+    public Row resolveExistingJoin(UUID profileUuid, String name, String platform) {
+        // Memory knows whether the row exists; a missing one stays missing
+        if (!byUuid.containsKey(profileUuid)) return new Row(null, null);
+        return resolveJoin(profileUuid, name, platform);
+    }
+
+    // ===== RetentionJobs.Listener: rows purged in storage, already committed =====
+
+    @Override
+    public void reservedLinkPurged(long discordId, UUID profileUuid) {
+        synchronized (writeLock) {
+            byUuid.computeIfPresent(profileUuid, (k, p) -> p.withLinks(without(p.links, discordId)));
+            indexLock.writeLock().lock();
+            try {
+                byDiscord.remove(discordId, profileUuid);
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public void profilePurged(UUID profileUuid) {
+        synchronized (writeLock) {
+            dropProfile(profileUuid);
+        }
+    }
+
+    // ===== mirroring helpers (called under writeLock) =====
+
+    /**
+     * Applies {@code change} once the write is committed; right away outside a transaction.
+     * The storage write itself is not held under writeLock: it may wait for the SQLite writer thread, which
+     * runs these hooks. Two concurrent writes to the same profile may therefore be mirrored in a different
+     * order than they reached storage; the login flow does not race writes to one profile.
+     */
+    private void mirror(Runnable change) {
+        uow.afterCommit(() -> {
+            synchronized (writeLock) {
+                change.run();
+            }
+        });
+    }
+
+    /** Null values keep the mirrored ones, matching the COALESCE upsert. */
+    private void mirrorProfile(UUID profileUuid, String name, String platform, String lastIp) {
+        if (name != null) mirrorName(profileUuid, name);
+        Profile p = profileOrEmpty(profileUuid);
+        if (platform != null) p = p.withPlatform(intern(platform));
+        if (lastIp != null) p = p.withLastIp(lastIp);
+        byUuid.put(profileUuid, p);
+    }
+
+    private void mirrorName(UUID profileUuid, String playerName) {
+        Profile prev = profileOrEmpty(profileUuid);
+        if (prev.name != null) byLowerName.remove(prev.name.toLowerCase(Locale.ROOT), profileUuid);
+        byUuid.put(profileUuid, prev.withName(playerName));
+        if (playerName != null) byLowerName.put(playerName.toLowerCase(Locale.ROOT), profileUuid);
+    }
+
+    private void upsertLink(long discordId, UUID profileUuid, boolean active) {
+        Profile p = profileOrEmpty(profileUuid);
+        Link prev = p.find(discordId);
+        Link next = new Link(discordId, active, prev != null ? prev.createdAt : Instant.now().getEpochSecond());
+        byUuid.put(profileUuid, p.withLinks(with(p.links, next)));
+        if (prev == null) {
+            indexLock.writeLock().lock();
+            try {
+                byDiscord.add(discordId, profileUuid);
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void activateLocal(long discordId, UUID profileUuid) {
+        Profile p = profileOrEmpty(profileUuid);
+        Link[] links = new Link[p.links.length];
+        for (int i = 0; i < links.length; i++) {
+            Link l = p.links[i];
+            links[i] = l.active && l.discordId != discordId ? new Link(l.discordId, false, l.createdAt) : l;
+        }
+        byUuid.put(profileUuid, p.withLinks(links));
+        upsertLink(discordId, profileUuid, true);
+    }
+
+    private void dropProfile(UUID profileUuid) {
+        Profile p = byUuid.remove(profileUuid);
+        if (p == null) return;
+        if (p.name != null) byLowerName.remove(p.name.toLowerCase(Locale.ROOT), profileUuid);
+        if (p.links.length == 0) return;
+        indexLock.writeLock().lock();
+        try {
+            for (Link l : p.links) byDiscord.remove(l.discordId, profileUuid);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    private Profile profileOrEmpty(UUID uuid) {
+        Profile p = byUuid.get(uuid);
+        return p != null ? p : new Profile(null, null, null, Profile.NO_LINKS);
+    }
+
+    private UUID[] discordProfiles(long discordId) {
+        indexLock.readLock().lock();
+        try {
+            return byDiscord.get(discordId);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    private static Link[] with(Link[] links, Link link) {
+        for (int i = 0; i < links.length; i++) {
+            if (links[i].discordId == link.discordId) {
+                Link[] copy = links.clone();
+                copy[i] = link;
+                return copy;
+            }
+        }
+        Link[] copy = Arrays.copyOf(links, links.length + 1);
+        copy[links.length] = link;
+        return copy;
+    }
+
+    private static Link[] without(Link[] links, long discordId) {
+        return Arrays.stream(links).filter(l -> l.discordId != discordId).toArray(Link[]::new);
+    }
+
+    /** Platform values are a handful of constants; share one String per value. */
+    private static String intern(String platform) {
+        return platform == null ? null : platform.intern();
+    }
+}
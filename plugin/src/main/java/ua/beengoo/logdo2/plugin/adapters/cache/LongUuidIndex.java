@@ -0,0 +1,116 @@
+package ua.beengoo.logdo2.plugin.adapters.cache;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Open-addressing {@code long -> UUID[]} multimap (linear probing, backward-shift deletion).
+ * Keys stay primitive, values are small immutable arrays that are replaced on change.
+ * Not thread-safe; {@link LinkReplica} guards it with a read/write lock.
+ */
+final class LongUuidIndex {
+    static final UUID[] NONE = new UUID[0];
+
+    private long[] keys;
+    private UUID[][] values; // null slot = empty
+    private int mask;
+    private int size;
+
+    LongUuidIndex(int expected) {
+        int cap = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+        keys = new long[cap];
+        values = new UUID[cap][];
+        mask = cap - 1;
+    }
+
+    int size() { return size; }
+    int capacity() { return keys.length; }
+
+    UUID[] get(long key) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) return values[i];
+        }
+        return NONE;
+    }
+
+    void add(long key, UUID uuid) {
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] != key) continue;
+            UUID[] cur = values[i];
+            for (UUID u : cur) if (u.equals(uuid)) return;
+            UUID[] next = Arrays.copyOf(cur, cur.length + 1);
+            next[cur.length] = uuid;
+            values[i] = next;
+            return;
+        }
+        keys[i] = key;
+        values[i] = new UUID[]{uuid};
+        if (++size * 4 >= keys.length * 3) rehash(keys.length << 1);
+    }
+
+    void remove(long key, UUID uuid) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] != key) continue;
+            UUID[] cur = values[i];
+            int at = -1;
+            for (int j = 0; j < cur.length; j++) if (cur[j].equals(uuid)) { at = j; break; }
+            if (at < 0) return;
+            if (cur.length == 1) { deleteSlot(i); return; }
+            UUID[] next = new UUID[cur.length - 1];
+            System.arraycopy(cur, 0, next, 0, at);
+            System.arraycopy(cur, at + 1, next, at, cur.length - at - 1);
+            values[i] = next;
+            return;
+        }
+    }
+
+    /** @return the values that were stored under {@code key} */
+    UUID[] removeKey(long key) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                UUID[] old = values[i];
+                deleteSlot(i);
+                return old;
+            }
+        }
+        return NONE;
+    }
+
+    private void deleteSlot(int hole) {
+        size--;
+        int j = hole;
+        while (true) {
+            j = (j + 1) & mask;
+            if (values[j] == null) break;
+            int home = slot(keys[j]);
+            // Entry at j may move into the hole only if its home is not cyclically within (hole, j]
+            boolean stays = hole <= j ? (hole < home && home <= j) : (hole < home || home <= j);
+            if (stays) continue;
+            keys[hole] = keys[j];
+            values[hole] = values[j];
+            hole = j;
+        }
+        values[hole] = null;
+    }
+
+    private void rehash(int cap) {
+        long[] oldKeys = keys;
+        UUID[][] oldValues = values;
+        keys = new long[cap];
+        values = new UUID[cap][];
+        mask = cap - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == null) continue;
+            int j = slot(oldKeys[i]);
+            while (values[j] != null) j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
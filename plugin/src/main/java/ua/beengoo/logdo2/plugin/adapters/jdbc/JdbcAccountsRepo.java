@@ -2,6 +2,7 @@ package ua.beengoo.logdo2.plugin.adapters.jdbc;
 
 import ua.beengoo.logdo2.api.ports.AccountsRepo;
 import ua.beengoo.logdo2.plugin.db.DatabaseManager;
+import ua.beengoo.logdo2.plugin.db.KeyCodec;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
@@ -14,142 +15,173 @@ import java.util.*;
 public class JdbcAccountsRepo implements AccountsRepo {
     private final DataSource ds;
     private final DatabaseManager.Dialect dialect;
+    private final WriteDedup dedup;
+    private final KeyCodec codec;
 
     public JdbcAccountsRepo(DataSource ds, DatabaseManager.Dialect dialect) {
-        this.ds = ds; this.dialect = dialect;
+        this(ds, dialect, WriteDedup.disabled());
     }
 
+    /** @param dedup shared with the profile/user repos: rows deleted or overwritten here are forgotten there */
+    public JdbcAccountsRepo(DataSource ds, DatabaseManager.Dialect dialect, WriteDedup dedup) {
+        this(ds, dialect, dedup, KeyCodec.TEXT);
+    }
+
+    public JdbcAccountsRepo(DataSource ds, DatabaseManager.Dialect dialect, WriteDedup dedup, KeyCodec codec) {
+        this.ds = ds; this.dialect = dialect; this.dedup = dedup; this.codec = codec;
+    }
+
+    // Unkeyed: the Discord IDs that lose this profile are not known here
     @Override
     public void unlinkByProfile(UUID profileUuid) {
-        try (Connection c = ds.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement("DELETE FROM links WHERE mc_uuid=?")) {
-                ps.setString(1, profileUuid.toString());
-                ps.executeUpdate();
-            }
-            // Also remove profile record to fully clear association state
-            try (PreparedStatement ps2 = c.prepareStatement("DELETE FROM mc_profiles WHERE mc_uuid=?")) {
-                ps2.setString(1, profileUuid.toString());
-                ps2.executeUpdate();
+        Writes.run(ds, () -> {
+            try (Connection c = ds.getConnection()) {
+                inTransaction(c, () -> {
+                    try (PreparedStatement ps = c.prepareStatement("DELETE FROM links WHERE mc_uuid=?")) {
+                        codec.bindUuid(ps, 1, profileUuid);
+                        ps.executeUpdate();
+                    }
+                    // Also remove profile record to fully clear association state
+                    try (PreparedStatement ps2 = c.prepareStatement("DELETE FROM mc_profiles WHERE mc_uuid=?")) {
+                        codec.bindUuid(ps2, 1, profileUuid);
+                        ps2.executeUpdate();
+                    }
+                });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                dedup.forget("mc_profiles", profileUuid);
             }
-        } catch (Exception e) { throw new RuntimeException(e); }
+        });
     }
 
+    // Unkeyed: the profiles that lose their link are not known here
     @Override
     public void unlinkByDiscord(long discordId) {
-        try (var c = ds.getConnection();
-             var ps = c.prepareStatement("DELETE FROM links WHERE discord_id=?")) {
-            ps.setLong(1, discordId);
-            ps.executeUpdate();
-        } catch (Exception e) { throw new RuntimeException(e); }
+        Writes.run(ds, () -> {
+            try (var c = ds.getConnection();
+                 var ps = c.prepareStatement("DELETE FROM links WHERE discord_id=?")) {
+                ps.setLong(1, discordId);
+                ps.executeUpdate();
+            } catch (Exception e) { throw new RuntimeException(e); }
+        });
     }
 
     @Override
     public void unlinkByDiscordAndProfile(long discordId, UUID profileUuid) {
-        try (Connection c = ds.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement("DELETE FROM links WHERE discord_id=? AND mc_uuid=?")) {
-                ps.setLong(1, discordId);
-                ps.setString(2, profileUuid.toString());
-                ps.executeUpdate();
-            }
-            // Also remove the profile row for that UUID
-            try (PreparedStatement ps2 = c.prepareStatement("DELETE FROM mc_profiles WHERE mc_uuid=?")) {
-                ps2.setString(1, profileUuid.toString());
-                ps2.executeUpdate();
+        Writes.run(ds, () -> {
+            try (Connection c = ds.getConnection()) {
+                inTransaction(c, () -> {
+                    try (PreparedStatement ps = c.prepareStatement("DELETE FROM links WHERE discord_id=? AND mc_uuid=?")) {
+                        ps.setLong(1, discordId);
+                        codec.bindUuid(ps, 2, profileUuid);
+                        ps.executeUpdate();
+                    }
+                    // Also remove the profile row for that UUID
+                    try (PreparedStatement ps2 = c.prepareStatement("DELETE FROM mc_profiles WHERE mc_uuid=?")) {
+                        codec.bindUuid(ps2, 1, profileUuid);
+                        ps2.executeUpdate();
+                    }
+                });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                dedup.forget("mc_profiles", profileUuid);
             }
-        } catch (Exception e) { throw new RuntimeException(e); }
+        }, discordId, profileUuid);
     }
 
     @Override
     public void link(long discordId, UUID profileUuid) {
-        // For backward compatibility: perform full activation
-        reserve(discordId, profileUuid);
-        activate(discordId, profileUuid);
+        Writes.run(ds, () -> {
+            // For backward compatibility: perform full activation
+            reserve(discordId, profileUuid);
+            activate(discordId, profileUuid);
+        });
     }
 
     @Override
     public void reserve(long discordId, UUID profileUuid) {
+        reserve(discordId, profileUuid, null, null, null);
+    }
+
+    @Override
+    public void reserve(long discordId, UUID profileUuid, String name, String platform, String lastIp) {
         long now = Instant.now().getEpochSecond();
-        try (Connection c = ds.getConnection()) {
-            // ensure mc_profile exists
-            try (PreparedStatement ps = upsertProfileSql(c)) {
-                ps.setString(1, profileUuid.toString());
-                ps.setString(2, null);
-                ps.setLong(3, now);
-                if (dialect == DatabaseManager.Dialect.MYSQL) {
-                    ps.setString(4, null);
-                    ps.setLong(5, now);
-                }
-                ps.executeUpdate();
-            }
-            // ensure discord_account exists
-            try (PreparedStatement ps = upsertAccountSql(c)) {
-                ps.setLong(1, discordId);
-                ps.setString(2, null);
-                ps.setString(3, null);
-                ps.setString(4, null);
-                ps.setString(5, null);
-                ps.setLong(6, now);
-                if (dialect == DatabaseManager.Dialect.MYSQL) {
-                    ps.setString(7, null);
-                    ps.setString(8, null);
-                    ps.setString(9, null);
-                    ps.setString(10, null);
-                    ps.setLong(11, now);
-                }
-                ps.executeUpdate();
-            }
-            // link (reserve: active=0)
-            String sql = switch (dialect) {
-                case POSTGRES, SQLITE -> "INSERT INTO links(discord_id, mc_uuid, active, created_at) VALUES(?,?,0,?) " +
-                        "ON CONFLICT(discord_id, mc_uuid) DO UPDATE SET active=0";
-                case MYSQL -> "INSERT INTO links(discord_id, mc_uuid, active, created_at) VALUES(?,?,0,?) " +
-                        "ON DUPLICATE KEY UPDATE active=VALUES(active)";
-            };
-            try (PreparedStatement ps = c.prepareStatement(sql)) {
-                ps.setLong(1, discordId);
-                ps.setString(2, profileUuid.toString());
-                ps.setLong(3, now);
-                ps.executeUpdate();
+        Writes.run(ds, () -> {
+            try (Connection c = ds.getConnection()) {
+                inTransaction(c, () -> {
+                    upsertProfile(c, profileUuid, name, platform, lastIp, now);
+                    upsertAccount(c, discordId, now);
+                    // link (reserve: active=0)
+                    String sql = switch (dialect) {
+                        case POSTGRES, SQLITE -> "INSERT INTO links(discord_id, mc_uuid, active, created_at) VALUES(?,?,0,?) " +
+                                "ON CONFLICT(discord_id, mc_uuid) DO UPDATE SET active=0";
+                        case MYSQL -> "INSERT INTO links(discord_id, mc_uuid, active, created_at) VALUES(?,?,0,?) " +
+                                "ON DUPLICATE KEY UPDATE active=VALUES(active)";
+                    };
+                    try (PreparedStatement ps = c.prepareStatement(sql)) {
+                        ps.setLong(1, discordId);
+                        codec.bindUuid(ps, 2, profileUuid);
+                        ps.setLong(3, now);
+                        ps.executeUpdate();
+                    }
+                });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
             }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+            rememberProfile(profileUuid, name, platform);
+        }, discordId, profileUuid);
     }
 
     @Override
     public void activate(long discordId, UUID profileUuid) {
+        activate(discordId, profileUuid, null, null, null);
+    }
+
+    // Unkeyed: other Discord IDs may lose this profile's active link
+    @Override
+    public void activate(long discordId, UUID profileUuid, String name, String platform, String lastIp) {
         long now = Instant.now().getEpochSecond();
-        try (Connection c = ds.getConnection()) {
-            // Deactivate other links for this profile
-            try (PreparedStatement ps = c.prepareStatement("UPDATE links SET active=0 WHERE mc_uuid=? AND discord_id<>?")) {
-                ps.setString(1, profileUuid.toString());
-                ps.setLong(2, discordId);
-                ps.executeUpdate();
+        Writes.run(ds, () -> {
+            try (Connection c = ds.getConnection()) {
+                inTransaction(c, () -> {
+                    // The profile row may not exist yet when creation is deferred until linking
+                    upsertProfile(c, profileUuid, name, platform, lastIp, now);
+                    upsertAccount(c, discordId, now);
+                    // Deactivate other links for this profile
+                    try (PreparedStatement ps = c.prepareStatement("UPDATE links SET active=0 WHERE mc_uuid=? AND discord_id<>?")) {
+                        codec.bindUuid(ps, 1, profileUuid);
+                        ps.setLong(2, discordId);
+                        ps.executeUpdate();
+                    }
+                    // Upsert this pair as active=1
+                    String sql = switch (dialect) {
+                        case POSTGRES, SQLITE -> "INSERT INTO links(discord_id, mc_uuid, active, created_at) VALUES(?,?,1,?) " +
+                                "ON CONFLICT(discord_id, mc_uuid) DO UPDATE SET active=1";
+                        case MYSQL -> "INSERT INTO links(discord_id, mc_uuid, active, created_at) VALUES(?,?,1,?) " +
+                                "ON DUPLICATE KEY UPDATE active=VALUES(active)";
+                    };
+                    try (PreparedStatement ps = c.prepareStatement(sql)) {
+                        ps.setLong(1, discordId);
+                        codec.bindUuid(ps, 2, profileUuid);
+                        ps.setLong(3, now);
+                        ps.executeUpdate();
+                    }
+                });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
             }
-            // Upsert this pair as active=1
-            String sql = switch (dialect) {
-                case POSTGRES, SQLITE -> "INSERT INTO links(discord_id, mc_uuid, active, created_at) VALUES(?,?,1,?) " +
-                        "ON CONFLICT(discord_id, mc_uuid) DO UPDATE SET active=1";
-                case MYSQL -> "INSERT INTO links(discord_id, mc_uuid, active, created_at) VALUES(?,?,1,?) " +
-                        "ON DUPLICATE KEY UPDATE active=VALUES(active)";
-            };
-            try (PreparedStatement ps = c.prepareStatement(sql)) {
-                ps.setLong(1, discordId);
-                ps.setString(2, profileUuid.toString());
-                ps.setLong(3, now);
-                ps.executeUpdate();
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+            rememberProfile(profileUuid, name, platform);
+        });
     }
 
     @Override
     public Optional<Long> linkedAt(UUID profileUUID) {
         String sql = "SELECT created_at FROM links WHERE mc_uuid = ? AND active = 1 LIMIT 1";
-        try (Connection c = ds.getConnection();
+        try (Connection c = Reads.connection(ds, profileUUID);
              PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setString(1, profileUUID.toString());
+            codec.bindUuid(ps, 1, profileUUID);
             try (ResultSet rs = ps.executeQuery()) {
                 if (!rs.next()) return Optional.empty();
                 long v = rs.getLong("created_at");
@@ -163,47 +195,78 @@ public class JdbcAccountsRepo implements AccountsRepo {
     }
 
 
-    private PreparedStatement upsertProfileSql(Connection c) throws Exception {
-        return switch (dialect) {
-            case POSTGRES, SQLITE -> c.prepareStatement(
-                    "INSERT INTO mc_profiles(mc_uuid,name,updated_at) VALUES(?,?,?) " +
-                            "ON CONFLICT(mc_uuid) DO UPDATE SET name=COALESCE(EXCLUDED.name, mc_profiles.name), updated_at=EXCLUDED.updated_at");
-            case MYSQL -> c.prepareStatement(
-                    "INSERT INTO mc_profiles(mc_uuid,name,updated_at) VALUES(?,?,?) " +
-                            "ON DUPLICATE KEY UPDATE name=VALUES(name), updated_at=VALUES(updated_at)");
+    private interface SqlWork { void run() throws Exception; }
+
+    /** Local transaction; inside a {@link ua.beengoo.logdo2.api.ports.UnitOfWork} it simply joins the outer one. */
+    private static void inTransaction(Connection c, SqlWork work) throws Exception {
+        boolean auto = c.getAutoCommit();
+        c.setAutoCommit(false);
+        try {
+            work.run();
+            c.commit();
+        } catch (Exception e) {
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(auto);
+        }
+    }
+
+    /** Ensures the mc_profiles row exists; null values keep what is stored. */
+    private void upsertProfile(Connection c, UUID profileUuid, String name, String platform, String lastIp, long now) throws Exception {
+        String sql = switch (dialect) {
+            case POSTGRES, SQLITE -> "INSERT INTO mc_profiles(mc_uuid,name,platform,last_ip,updated_at) VALUES(?,?,?,?,?) " +
+                    "ON CONFLICT(mc_uuid) DO UPDATE SET name=COALESCE(EXCLUDED.name, mc_profiles.name)," +
+                    "platform=COALESCE(EXCLUDED.platform, mc_profiles.platform)," +
+                    "last_ip=COALESCE(EXCLUDED.last_ip, mc_profiles.last_ip), updated_at=EXCLUDED.updated_at";
+            case MYSQL -> "INSERT INTO mc_profiles(mc_uuid,name,platform,last_ip,updated_at) VALUES(?,?,?,?,?) " +
+                    "ON DUPLICATE KEY UPDATE name=COALESCE(VALUES(name), name), platform=COALESCE(VALUES(platform), platform)," +
+                    "last_ip=COALESCE(VALUES(last_ip), last_ip), updated_at=VALUES(updated_at)";
         };
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            codec.bindUuid(ps, 1, profileUuid);
+            ps.setString(2, name);
+            ps.setString(3, Platforms.normalize(platform));
+            codec.bindIp(ps, 4, lastIp);
+            ps.setLong(5, now);
+            ps.executeUpdate();
+        }
     }
 
-    private PreparedStatement upsertAccountSql(Connection c) throws Exception {
-        return switch (dialect) {
-            case POSTGRES, SQLITE -> c.prepareStatement(
-                    "INSERT INTO discord_accounts(discord_id,username,global_name,email,avatar_hash,updated_at) VALUES(?,?,?,?,?,?) " +
-                            "ON CONFLICT(discord_id) DO UPDATE SET username=COALESCE(EXCLUDED.username, discord_accounts.username)," +
-                            "global_name=COALESCE(EXCLUDED.global_name, discord_accounts.global_name)," +
-                            "email=COALESCE(EXCLUDED.email, discord_accounts.email)," +
-                            "avatar_hash=COALESCE(EXCLUDED.avatar_hash, discord_accounts.avatar_hash)," +
-                            "updated_at=EXCLUDED.updated_at");
-            case MYSQL -> c.prepareStatement(
-                    "INSERT INTO discord_accounts(discord_id,username,global_name,email,avatar_hash,updated_at) VALUES(?,?,?,?,?,?) " +
-                            "ON DUPLICATE KEY UPDATE username=VALUES(username), global_name=VALUES(global_name), email=VALUES(email)," +
-                            "avatar_hash=VALUES(avatar_hash), updated_at=VALUES(updated_at)");
+    /** Ensures the discord_accounts row exists without touching stored user details. */
+    private void upsertAccount(Connection c, long discordId, long now) throws Exception {
+        String sql = switch (dialect) {
+            case POSTGRES, SQLITE -> "INSERT INTO discord_accounts(discord_id,updated_at) VALUES(?,?) " +
+                    "ON CONFLICT(discord_id) DO NOTHING";
+            case MYSQL -> "INSERT INTO discord_accounts(discord_id,updated_at) VALUES(?,?) " +
+                    "ON DUPLICATE KEY UPDATE discord_id=discord_id";
         };
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setLong(1, discordId);
+            ps.setLong(2, now);
+            ps.executeUpdate();
+        }
+    }
+
+    private void rememberProfile(UUID profileUuid, String name, String platform) {
+        if (name != null) dedup.written("mc_profiles", profileUuid, "name", name);
+        if (platform != null) dedup.written("mc_profiles", profileUuid, "platform", platform);
     }
 
     @Override
     public boolean isLinked(UUID profileUuid) {
-        try (Connection c = ds.getConnection();
+        try (Connection c = Reads.connection(ds, profileUuid);
              PreparedStatement ps = c.prepareStatement("SELECT 1 FROM links WHERE mc_uuid=? AND active=1 LIMIT 1")) {
-            ps.setString(1, profileUuid.toString());
+            codec.bindUuid(ps, 1, profileUuid);
             try (ResultSet rs = ps.executeQuery()) { return rs.next(); }
         } catch (Exception e) { throw new RuntimeException(e); }
     }
 
     @Override
     public Optional<Long> findDiscordForProfile(UUID profileUuid) {
-        try (Connection c = ds.getConnection();
+        try (Connection c = Reads.connection(ds, profileUuid);
              PreparedStatement ps = c.prepareStatement("SELECT discord_id FROM links WHERE mc_uuid=? AND active=1 LIMIT 1")) {
-            ps.setString(1, profileUuid.toString());
+            codec.bindUuid(ps, 1, profileUuid);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) return Optional.of(rs.getLong(1));
                 return Optional.empty();
@@ -214,8 +277,8 @@ public class JdbcAccountsRepo implements AccountsRepo {
     @Override
     public Optional<Long> findAnyDiscordForProfile(UUID profileUuid) {
         String sql = "SELECT discord_id FROM links WHERE mc_uuid=? ORDER BY active DESC LIMIT 1";
-        try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setString(1, profileUuid.toString());
+        try (Connection c = Reads.connection(ds, profileUuid); PreparedStatement ps = c.prepareStatement(sql)) {
+            codec.bindUuid(ps, 1, profileUuid);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) return Optional.of(rs.getLong(1));
                 return Optional.empty();
@@ -226,11 +289,11 @@ public class JdbcAccountsRepo implements AccountsRepo {
     @Override
     public Set<UUID> findProfilesForDiscord(long discordId) {
         Set<UUID> out = new HashSet<>();
-        try (Connection c = ds.getConnection();
+        try (Connection c = Reads.connection(ds, discordId);
              PreparedStatement ps = c.prepareStatement("SELECT mc_uuid FROM links WHERE discord_id=? AND active=1")) {
             ps.setLong(1, discordId);
             try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) out.add(UUID.fromString(rs.getString(1)));
+                while (rs.next()) out.add(codec.uuid(rs, 1));
             }
         } catch (Exception e) { throw new RuntimeException(e); }
         return out;
@@ -241,10 +304,10 @@ public class JdbcAccountsRepo implements AccountsRepo {
         String sql = "SELECT COUNT(1) FROM links l JOIN mc_profiles p ON p.mc_uuid = l.mc_uuid " +
                 "WHERE l.discord_id=? " +
                 (includeReserved ? "" : "AND l.active=1 ") +
-                "AND UPPER(p.platform)=UPPER(?)";
-        try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+                "AND p.platform=?";
+        try (Connection c = Reads.connection(ds, discordId); PreparedStatement ps = c.prepareStatement(sql)) {
             ps.setLong(1, discordId);
-            ps.setString(2, platform);
+            ps.setString(2, Platforms.normalize(platform));
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) return rs.getInt(1);
                 return 0;
@@ -2,6 +2,7 @@ package ua.beengoo.logdo2.plugin.adapters.jdbc;
 
 import ua.beengoo.logdo2.api.ports.BanProgressRepo;
 import ua.beengoo.logdo2.plugin.db.DatabaseManager;
+import ua.beengoo.logdo2.plugin.db.KeyCodec;
 
 import javax.sql.DataSource;
 import java.sql.*;
@@ -10,45 +11,24 @@ import java.util.Optional;
 public class JdbcBanProgressRepo implements BanProgressRepo {
     private final DataSource ds;
     private final DatabaseManager.Dialect dialect;
+    private final KeyCodec codec;
 
     public JdbcBanProgressRepo(DataSource ds, DatabaseManager.Dialect dialect) {
-        this.ds = ds;
-        this.dialect = dialect;
-        ensureTable();
+        this(ds, dialect, KeyCodec.TEXT);
     }
 
-    private void ensureTable() {
-        String sql = switch (dialect) {
-            case POSTGRES, SQLITE -> """
-                CREATE TABLE IF NOT EXISTS ban_progress (
-                  ip             TEXT PRIMARY KEY,
-                  attempts       INTEGER NOT NULL,
-                  last_attempt   BIGINT  NOT NULL,
-                  last_ban_until BIGINT  NOT NULL
-                )
-            """;
-            case MYSQL -> """
-                CREATE TABLE IF NOT EXISTS ban_progress (
-                  ip             VARCHAR(45) PRIMARY KEY,
-                  attempts       INT     NOT NULL,
-                  last_attempt   BIGINT  NOT NULL,
-                  last_ban_until BIGINT  NOT NULL
-                ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci
-            """;
-        };
-        try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
-            st.execute(sql);
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to ensure ban_progress table: " + e.getMessage(), e);
-        }
+    public JdbcBanProgressRepo(DataSource ds, DatabaseManager.Dialect dialect, KeyCodec codec) {
+        this.ds = ds;
+        this.dialect = dialect;
+        this.codec = codec;
     }
 
     @Override
     public Optional<Record> findByIp(String ip) {
         String q = "SELECT attempts, last_attempt, last_ban_until FROM ban_progress WHERE ip=?";
-        try (Connection c = ds.getConnection();
+        try (Connection c = Reads.connection(ds, ip);
              PreparedStatement ps = c.prepareStatement(q)) {
-            ps.setString(1, ip);
+            codec.bindIp(ps, 1, ip);
             try (ResultSet rs = ps.executeQuery()) {
                 if (!rs.next()) return Optional.empty();
                 return Optional.of(new Record(ip, rs.getInt(1), rs.getLong(2), rs.getLong(3)));
@@ -60,23 +40,17 @@ public class JdbcBanProgressRepo implements BanProgressRepo {
 
     @Override
     public void upsert(String ip, int attempts, long lastAttemptEpochSec, long lastBanUntilEpochSec) {
-        String upsert = """
-            INSERT INTO ban_progress(ip, attempts, last_attempt, last_ban_until)
-            VALUES(?,?,?,?)
-            ON CONFLICT(ip) DO UPDATE SET
-              attempts=EXCLUDED.attempts,
-              last_attempt=EXCLUDED.last_attempt,
-              last_ban_until=EXCLUDED.last_ban_until
-        """;
-        try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(upsert)) {
-            ps.setString(1, ip);
-            ps.setInt(2, attempts);
-            ps.setLong(3, lastAttemptEpochSec);
-            ps.setLong(4, lastBanUntilEpochSec);
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            // Fallback для MySQL
-            String mysql = """
+        // Picked by dialect: a failed statement would abort an enclosing Postgres transaction
+        String upsert = switch (dialect) {
+            case POSTGRES, SQLITE -> """
+                INSERT INTO ban_progress(ip, attempts, last_attempt, last_ban_until)
+                VALUES(?,?,?,?)
+                ON CONFLICT(ip) DO UPDATE SET
+                  attempts=EXCLUDED.attempts,
+                  last_attempt=EXCLUDED.last_attempt,
+                  last_ban_until=EXCLUDED.last_ban_until
+            """;
+            case MYSQL -> """
                 INSERT INTO ban_progress(ip, attempts, last_attempt, last_ban_until)
                 VALUES(?,?,?,?)
                 ON DUPLICATE KEY UPDATE
@@ -84,26 +58,30 @@ public class JdbcBanProgressRepo implements BanProgressRepo {
                   last_attempt=VALUES(last_attempt),
                   last_ban_until=VALUES(last_ban_until)
             """;
-            try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(mysql)) {
-                ps.setString(1, ip);
+        };
+        Writes.run(ds, () -> {
+            try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(upsert)) {
+                codec.bindIp(ps, 1, ip);
                 ps.setInt(2, attempts);
                 ps.setLong(3, lastAttemptEpochSec);
                 ps.setLong(4, lastBanUntilEpochSec);
                 ps.executeUpdate();
-            } catch (SQLException e2) {
-                throw new RuntimeException(e2);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
             }
-        }
+        }, ip);
     }
 
     @Override
     public void reset(String ip) {
-        try (Connection c = ds.getConnection();
-             PreparedStatement ps = c.prepareStatement("DELETE FROM ban_progress WHERE ip=?")) {
-            ps.setString(1, ip);
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        Writes.run(ds, () -> {
+            try (Connection c = ds.getConnection();
+                 PreparedStatement ps = c.prepareStatement("DELETE FROM ban_progress WHERE ip=?")) {
+                codec.bindIp(ps, 1, ip);
+                ps.executeUpdate();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }, ip);
     }
 }
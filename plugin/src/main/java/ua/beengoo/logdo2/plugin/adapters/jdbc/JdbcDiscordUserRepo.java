@@ -7,14 +7,21 @@ import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 
 public class JdbcDiscordUserRepo implements DiscordUserRepo {
     private final DataSource ds;
     private final DatabaseManager.Dialect dialect;
+    private final WriteDedup dedup;
 
     public JdbcDiscordUserRepo(DataSource ds, DatabaseManager.Dialect dialect) {
-        this.ds = ds; this.dialect = dialect;
+        this(ds, dialect, WriteDedup.disabled());
+    }
+
+    public JdbcDiscordUserRepo(DataSource ds, DatabaseManager.Dialect dialect, WriteDedup dedup) {
+        this.ds = ds; this.dialect = dialect; this.dedup = dedup;
     }
 
     @Override
@@ -39,6 +46,8 @@ public class JdbcDiscordUserRepo implements DiscordUserRepo {
 
     @Override
     public void upsertUser(long discordId, String username, String globalName, String email, String avatarHash) {
+        List<String> profile = Arrays.asList(username, globalName, email, avatarHash);
+        if (dedup.unchanged("discord_accounts", discordId, "profile", profile)) return;
         long now = Instant.now().getEpochSecond();
         String sql = switch (dialect) {
             case POSTGRES, SQLITE -> """
@@ -56,25 +65,30 @@ public class JdbcDiscordUserRepo implements DiscordUserRepo {
                   email=VALUES(email), avatar_hash=VALUES(avatar_hash), updated_at=VALUES(updated_at)
                  """;
         };
-        try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setLong(1, discordId);
-            ps.setString(2, username);
-            ps.setString(3, globalName);
-            ps.setString(4, email);
-            ps.setString(5, avatarHash);
-            ps.setLong(6, now);
-            ps.executeUpdate();
-        } catch (Exception e) { throw new RuntimeException(e); }
+        Writes.run(ds, () -> {
+            try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, discordId);
+                ps.setString(2, username);
+                ps.setString(3, globalName);
+                ps.setString(4, email);
+                ps.setString(5, avatarHash);
+                ps.setLong(6, now);
+                ps.executeUpdate();
+                dedup.written("discord_accounts", discordId, "profile", profile);
+            } catch (Exception e) { throw new RuntimeException(e); }
+        }, discordId);
     }
 
     @Override
     public void setCommandsInstalled(long discordId, boolean installed) {
         String sql = "UPDATE discord_accounts SET commands_installed=?, updated_at=? WHERE discord_id=?";
-        try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setInt(1, installed ? 1 : 0);
-            ps.setLong(2, Instant.now().getEpochSecond());
-            ps.setLong(3, discordId);
-            ps.executeUpdate();
-        } catch (Exception e) { throw new RuntimeException(e); }
+        Writes.run(ds, () -> {
+            try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setInt(1, installed ? 1 : 0);
+                ps.setLong(2, Instant.now().getEpochSecond());
+                ps.setLong(3, discordId);
+                ps.executeUpdate();
+            } catch (Exception e) { throw new RuntimeException(e); }
+        }, discordId);
     }
 }
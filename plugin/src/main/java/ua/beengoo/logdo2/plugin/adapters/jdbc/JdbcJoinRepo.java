@@ -0,0 +1,184 @@
+package ua.beengoo.logdo2.plugin.adapters.jdbc;
+
+import ua.beengoo.logdo2.api.ports.JoinRepo;
+import ua.beengoo.logdo2.plugin.db.DatabaseManager;
+import ua.beengoo.logdo2.plugin.db.KeyCodec;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.UUID;
+
+public class JdbcJoinRepo implements JoinRepo {
+    private static final String ACTIVE_DISCORD =
+            "(SELECT l.discord_id FROM links l WHERE l.mc_uuid = mc_profiles.mc_uuid AND l.active=1 LIMIT 1)";
+
+    private final DataSource ds;
+    private final DatabaseManager.Dialect dialect;
+    private final WriteDedup dedup;
+    private final KeyCodec codec;
+
+    public JdbcJoinRepo(DataSource ds, DatabaseManager.Dialect dialect) {
+        this(ds, dialect, WriteDedup.disabled());
+    }
+
+    public JdbcJoinRepo(DataSource ds, DatabaseManager.Dialect dialect, WriteDedup dedup) {
+        this(ds, dialect, dedup, KeyCodec.TEXT);
+    }
+
+    public JdbcJoinRepo(DataSource ds, DatabaseManager.Dialect dialect, WriteDedup dedup, KeyCodec codec) {
+        this.ds = ds;
+        this.dialect = dialect;
+        this.dedup = dedup;
+        this.codec = codec;
+    }
+
+    @Override
+    public Row resolveJoin(UUID profileUuid, String name, String platform) {
+        long now = Instant.now().getEpochSecond();
+        // Rejoin with the same name/platform: read only
+        boolean unchanged = dedup.unchanged("mc_profiles", profileUuid, "name", name)
+                && dedup.unchanged("mc_profiles", profileUuid, "platform", platform);
+        if (unchanged) return select(profileUuid);
+        return Writes.get(ds, () -> {
+            try (Connection c = ds.getConnection()) {
+                Row row = switch (dialect) {
+                    case POSTGRES, SQLITE -> upsertReturning(c, profileUuid, name, platform, now);
+                    case MYSQL -> upsertThenSelect(c, profileUuid, name, platform, now);
+                };
+                dedup.written("mc_profiles", profileUuid, "name", name);
+                dedup.written("mc_profiles", profileUuid, "platform", platform);
+                return row;
+            } catch (Exception e) { throw new RuntimeException(e); }
+        }, profileUuid);
+    }
+
+    @Override
+    public Row resolveExistingJoin(UUID profileUuid, String name, String platform) {
+        long now = Instant.now().getEpochSecond();
+        boolean unchanged = dedup.unchanged("mc_profiles", profileUuid, "name", name)
+                && dedup.unchanged("mc_profiles", profileUuid, "platform", platform);
+        if (unchanged) return select(profileUuid);
+        return Writes.get(ds, () -> {
+            try (Connection c = ds.getConnection()) {
+                Row row = switch (dialect) {
+                    case POSTGRES, SQLITE -> updateReturning(c, profileUuid, name, platform, now);
+                    case MYSQL -> updateThenSelect(c, profileUuid, name, platform, now);
+                };
+                if (row == null) return new Row(null, null); // no profile row, and none is created
+                dedup.written("mc_profiles", profileUuid, "name", name);
+                dedup.written("mc_profiles", profileUuid, "platform", platform);
+                return row;
+            } catch (Exception e) { throw new RuntimeException(e); }
+        }, profileUuid);
+    }
+
+    /** @return null when there is no profile row */
+    private Row updateReturning(Connection c, UUID uuid, String name, String platform, long now) throws SQLException {
+        String sql = "UPDATE mc_profiles SET name=?, platform=?, updated_at=? WHERE mc_uuid=? RETURNING last_ip, " + ACTIVE_DISCORD;
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setString(1, name);
+            ps.setString(2, Platforms.normalize(platform));
+            ps.setLong(3, now);
+            codec.bindUuid(ps, 4, uuid);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? readRow(rs) : null;
+            }
+        }
+    }
+
+    /** @return null when there is no profile row */
+    private Row updateThenSelect(Connection c, UUID uuid, String name, String platform, long now) throws SQLException {
+        return inTransaction(c, () -> {
+            try (PreparedStatement ps = c.prepareStatement(
+                    "UPDATE mc_profiles SET name=?, platform=?, updated_at=? WHERE mc_uuid=?")) {
+                ps.setString(1, name);
+                ps.setString(2, Platforms.normalize(platform));
+                ps.setLong(3, now);
+                codec.bindUuid(ps, 4, uuid);
+                if (ps.executeUpdate() == 0) return null;
+            }
+            return select(c, uuid);
+        });
+    }
+
+    private Row select(UUID uuid) {
+        try (Connection c = ds.getConnection()) {
+            return select(c, uuid);
+        } catch (Exception e) { throw new RuntimeException(e); }
+    }
+
+    private Row select(Connection c, UUID uuid) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT last_ip, " + ACTIVE_DISCORD + " FROM mc_profiles WHERE mc_uuid=?")) {
+            codec.bindUuid(ps, 1, uuid);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? readRow(rs) : new Row(null, null);
+            }
+        }
+    }
+
+    /** Postgres / SQLite 3.35+: the upsert itself returns the row, link looked up by a correlated subquery. */
+    private Row upsertReturning(Connection c, UUID uuid, String name, String platform, long now) throws SQLException {
+        String sql = """
+            INSERT INTO mc_profiles(mc_uuid,name,platform,updated_at)
+            VALUES(?,?,?,?)
+            ON CONFLICT(mc_uuid) DO UPDATE SET name=EXCLUDED.name, platform=EXCLUDED.platform, updated_at=EXCLUDED.updated_at
+            RETURNING last_ip, %s
+        """.formatted(ACTIVE_DISCORD);
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            codec.bindUuid(ps, 1, uuid);
+            ps.setString(2, name);
+            ps.setString(3, Platforms.normalize(platform));
+            ps.setLong(4, now);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? readRow(rs) : new Row(null, null);
+            }
+        }
+    }
+
+    /** MySQL has no RETURNING: upsert, then read the row back on the same connection and transaction. */
+    private Row upsertThenSelect(Connection c, UUID uuid, String name, String platform, long now) throws SQLException {
+        String sql = """
+            INSERT INTO mc_profiles(mc_uuid,name,platform,updated_at)
+            VALUES(?,?,?,?)
+            ON DUPLICATE KEY UPDATE name=VALUES(name), platform=VALUES(platform), updated_at=VALUES(updated_at)
+        """;
+        return inTransaction(c, () -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                codec.bindUuid(ps, 1, uuid);
+                ps.setString(2, name);
+                ps.setString(3, Platforms.normalize(platform));
+                ps.setLong(4, now);
+                ps.executeUpdate();
+            }
+            return select(c, uuid);
+        });
+    }
+
+    private interface SqlWork<T> { T run() throws SQLException; }
+
+    /** Local transaction; inside a {@link ua.beengoo.logdo2.api.ports.UnitOfWork} it simply joins the outer one. */
+    private static <T> T inTransaction(Connection c, SqlWork<T> work) throws SQLException {
+        boolean auto = c.getAutoCommit();
+        c.setAutoCommit(false);
+        try {
+            T result = work.run();
+            c.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(auto);
+        }
+    }
+
+    private Row readRow(ResultSet rs) throws SQLException {
+        String lastIp = codec.ip(rs, 1);
+        long discordId = rs.getLong(2);
+        return new Row(rs.wasNull() ? null : discordId, lastIp);
+    }
+}
@@ -2,6 +2,7 @@ package ua.beengoo.logdo2.plugin.adapters.jdbc;
 
 import ua.beengoo.logdo2.api.ports.ProfileRepo;
 import ua.beengoo.logdo2.plugin.db.DatabaseManager;
+import ua.beengoo.logdo2.plugin.db.KeyCodec;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
@@ -14,30 +15,31 @@ import java.util.UUID;
 public class JdbcProfileRepo implements ProfileRepo {
     private final DataSource ds;
     private final DatabaseManager.Dialect dialect;
+    private final WriteDedup dedup;
+    private final KeyCodec codec;
 
     public JdbcProfileRepo(DataSource ds, DatabaseManager.Dialect dialect) {
-        this.ds = ds;
-        this.dialect = dialect;
-        ensurePlatformColumn();
+        this(ds, dialect, WriteDedup.disabled());
     }
 
-    private void ensurePlatformColumn() {
-        String alter = switch (dialect) {
-            case POSTGRES, SQLITE -> "ALTER TABLE mc_profiles ADD COLUMN platform TEXT";
-            case MYSQL -> "ALTER TABLE mc_profiles ADD COLUMN platform VARCHAR(16)";
-        };
-        try (Connection c = ds.getConnection(); var st = c.createStatement()) {
-            st.execute(alter);
-        } catch (Exception ignored) { /* вже існує — ок */ }
+    public JdbcProfileRepo(DataSource ds, DatabaseManager.Dialect dialect, WriteDedup dedup) {
+        this(ds, dialect, dedup, KeyCodec.TEXT);
+    }
+
+    public JdbcProfileRepo(DataSource ds, DatabaseManager.Dialect dialect, WriteDedup dedup, KeyCodec codec) {
+        this.ds = ds;
+        this.dialect = dialect;
+        this.dedup = dedup;
+        this.codec = codec;
     }
 
     @Override
     public Optional<UUID> findUuidByName(String name) {
-        String sql = "SELECT mc_uuid FROM mc_profiles WHERE LOWER(name)=LOWER(?) LIMIT 1";
-        try (var c = ds.getConnection(); var ps = c.prepareStatement(sql)) {
+        String sql = "SELECT mc_uuid FROM mc_profiles WHERE name_lower=LOWER(?) LIMIT 1";
+        try (var c = Reads.connection(ds); var ps = c.prepareStatement(sql)) {
             ps.setString(1, name);
             try (var rs = ps.executeQuery()) {
-                if (rs.next()) return Optional.of(UUID.fromString(rs.getString(1)));
+                if (rs.next()) return Optional.of(codec.uuid(rs, 1));
                 return Optional.empty();
             }
         } catch (Exception e) { throw new RuntimeException(e); }
@@ -46,8 +48,8 @@ public class JdbcProfileRepo implements ProfileRepo {
     @Override
     public Optional<String> findNameByUuid(UUID uuid) {
         String sql = "SELECT name FROM mc_profiles WHERE mc_uuid=? LIMIT 1";
-        try (var c = ds.getConnection(); var ps = c.prepareStatement(sql)) {
-            ps.setString(1, uuid.toString());
+        try (var c = Reads.connection(ds, uuid); var ps = c.prepareStatement(sql)) {
+            codec.bindUuid(ps, 1, uuid);
             try (var rs = ps.executeQuery()) {
                 if (rs.next()) return Optional.ofNullable(rs.getString(1));
                 return Optional.empty();
@@ -58,8 +60,8 @@ public class JdbcProfileRepo implements ProfileRepo {
     @Override
     public Optional<String> findPlatform(UUID uuid) {
         String sql = "SELECT platform FROM mc_profiles WHERE mc_uuid=? LIMIT 1";
-        try (var c = ds.getConnection(); var ps = c.prepareStatement(sql)) {
-            ps.setString(1, uuid.toString());
+        try (var c = Reads.connection(ds, uuid); var ps = c.prepareStatement(sql)) {
+            codec.bindUuid(ps, 1, uuid);
             try (var rs = ps.executeQuery()) {
                 if (rs.next()) return Optional.ofNullable(rs.getString(1));
                 return Optional.empty();
@@ -69,11 +71,11 @@ public class JdbcProfileRepo implements ProfileRepo {
 
     @Override
     public Optional<String> findLastConfirmedIp(UUID profileUuid) {
-        try (Connection c = ds.getConnection();
+        try (Connection c = Reads.connection(ds, profileUuid);
              PreparedStatement ps = c.prepareStatement("SELECT last_ip FROM mc_profiles WHERE mc_uuid=?")) {
-            ps.setString(1, profileUuid.toString());
+            codec.bindUuid(ps, 1, profileUuid);
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) return Optional.ofNullable(rs.getString(1));
+                if (rs.next()) return Optional.ofNullable(codec.ip(rs, 1));
                 return Optional.empty();
             }
         } catch (Exception e) { throw new RuntimeException(e); }
@@ -81,6 +83,8 @@ public class JdbcProfileRepo implements ProfileRepo {
 
     @Override
     public void updateLastConfirmedIp(UUID profileUuid, String ip) {
+        // Never deduplicated: another writer (or an admin edit) may have changed it, and a skipped write
+        // here would let a stale IP pass the confirmation check
         long now = Instant.now().getEpochSecond();
         String sql = switch (dialect) {
             case POSTGRES, SQLITE -> """
@@ -94,17 +98,20 @@ public class JdbcProfileRepo implements ProfileRepo {
                 ON DUPLICATE KEY UPDATE last_ip=VALUES(last_ip), updated_at=VALUES(updated_at)
             """;
         };
-        try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setString(1, profileUuid.toString());
-            ps.setString(2, null);
-            ps.setString(3, ip);
-            ps.setLong(4, now);
-            ps.executeUpdate();
-        } catch (Exception e) { throw new RuntimeException(e); }
+        Writes.run(ds, () -> {
+            try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+                codec.bindUuid(ps, 1, profileUuid);
+                ps.setString(2, null);
+                codec.bindIp(ps, 3, ip);
+                ps.setLong(4, now);
+                ps.executeUpdate();
+            } catch (Exception e) { throw new RuntimeException(e); }
+        }, profileUuid);
     }
 
     @Override
     public void upsertName(UUID profileUuid, String playerName) {
+        if (dedup.unchanged("mc_profiles", profileUuid, "name", playerName)) return;
         long now = Instant.now().getEpochSecond();
         String sql = switch (dialect) {
             case POSTGRES, SQLITE -> """
@@ -118,16 +125,20 @@ public class JdbcProfileRepo implements ProfileRepo {
                 ON DUPLICATE KEY UPDATE name=VALUES(name), updated_at=VALUES(updated_at)
             """;
         };
-        try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setString(1, profileUuid.toString());
-            ps.setString(2, playerName);
-            ps.setLong(3, now);
-            ps.executeUpdate();
-        } catch (Exception e) { throw new RuntimeException(e); }
+        Writes.run(ds, () -> {
+            try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+                codec.bindUuid(ps, 1, profileUuid);
+                ps.setString(2, playerName);
+                ps.setLong(3, now);
+                ps.executeUpdate();
+                dedup.written("mc_profiles", profileUuid, "name", playerName);
+            } catch (Exception e) { throw new RuntimeException(e); }
+        }, profileUuid);
     }
 
     @Override
     public void updatePlatform(UUID profileUuid, String platform) {
+        if (dedup.unchanged("mc_profiles", profileUuid, "platform", platform)) return;
         long now = Instant.now().getEpochSecond();
         String sql = switch (dialect) {
             case POSTGRES, SQLITE -> """
@@ -141,11 +152,14 @@ public class JdbcProfileRepo implements ProfileRepo {
                 ON DUPLICATE KEY UPDATE platform=VALUES(platform), updated_at=VALUES(updated_at)
             """;
         };
-        try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setString(1, profileUuid.toString());
-            ps.setString(2, platform);
-            ps.setLong(3, now);
-            ps.executeUpdate();
-        } catch (Exception e) { throw new RuntimeException(e); }
+        Writes.run(ds, () -> {
+            try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+                codec.bindUuid(ps, 1, profileUuid);
+                ps.setString(2, Platforms.normalize(platform));
+                ps.setLong(3, now);
+                ps.executeUpdate();
+                dedup.written("mc_profiles", profileUuid, "platform", platform);
+            } catch (Exception e) { throw new RuntimeException(e); }
+        }, profileUuid);
     }
 }
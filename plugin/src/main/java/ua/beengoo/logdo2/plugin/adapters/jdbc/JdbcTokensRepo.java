@@ -45,16 +45,18 @@ public class JdbcTokensRepo implements TokensRepo {
             """;
         };
 
-        try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setLong(1, discordId);
-            ps.setBytes(2, access);
-            ps.setBytes(3, refresh);
-            ps.setString(4, tokenType);
-            ps.setString(5, scope);
-            ps.setLong(6, expiresAt.getEpochSecond());
-            ps.setLong(7, now);
-            ps.executeUpdate();
-        } catch (Exception e) { throw new RuntimeException(e); }
+        Writes.run(ds, () -> {
+            try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, discordId);
+                ps.setBytes(2, access);
+                ps.setBytes(3, refresh);
+                ps.setString(4, tokenType);
+                ps.setString(5, scope);
+                ps.setLong(6, expiresAt.getEpochSecond());
+                ps.setLong(7, now);
+                ps.executeUpdate();
+            } catch (Exception e) { throw new RuntimeException(e); }
+        }, discordId);
     }
 
     @Override
@@ -0,0 +1,12 @@
+package ua.beengoo.logdo2.plugin.adapters.jdbc;
+
+import java.util.Locale;
+
+/** Platform values are stored upper-case ("JAVA"/"BEDROCK") so lookups can compare them with a plain index. */
+final class Platforms {
+    private Platforms() {}
+
+    static String normalize(String platform) {
+        return platform == null ? null : platform.toUpperCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,17 @@
+package ua.beengoo.logdo2.plugin.adapters.jdbc;
+
+import ua.beengoo.logdo2.plugin.db.TransactionalDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/** Connections for pure lookups, which {@link TransactionalDataSource#readConnection} may serve from a replica. */
+final class Reads {
+    private Reads() {}
+
+    /** @param keys the rows the lookup reads (profile UUID, Discord ID, IP); none = may read any row */
+    static Connection connection(DataSource ds, Object... keys) throws SQLException {
+        return ds instanceof TransactionalDataSource tx ? tx.readConnection(keys) : ds.getConnection();
+    }
+}
@@ -0,0 +1,301 @@
+package ua.beengoo.logdo2.plugin.adapters.jdbc;
+
+import lombok.extern.slf4j.Slf4j;
+import ua.beengoo.logdo2.api.ports.JoinRepo;
+import ua.beengoo.logdo2.api.ports.ProfileRepo;
+import ua.beengoo.logdo2.plugin.db.DatabaseManager;
+import ua.beengoo.logdo2.plugin.db.KeyCodec;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Write-behind queue for profile name/platform updates.
+ * Updates are merged per UUID and flushed every {@code flushMillis} (or once {@code maxRows} are pending)
+ * as one multi-row upsert. Updates queued by {@link #resolveExistingJoin} never create a row: they are
+ * flushed as an {@code UPDATE ... WHERE mc_uuid IN (...)}, so a profile deleted meanwhile stays deleted.
+ * Reads see pending values first. Last-IP writes are security relevant and go straight through.
+ * {@link #close()} drains whatever is left.
+ */
+@Slf4j
+public class WriteBehindProfileRepo implements ProfileRepo, JoinRepo, AutoCloseable {
+    private static final String ACTIVE_DISCORD =
+            "(SELECT l.discord_id FROM links l WHERE l.mc_uuid = mc_profiles.mc_uuid AND l.active=1 LIMIT 1)";
+
+    private final ProfileRepo delegate;
+    private final DataSource ds;
+    private final DatabaseManager.Dialect dialect;
+    private final int maxRows;
+    private final WriteDedup dedup;
+    private final KeyCodec codec;
+    private final int maxUpdateRows;
+    private final Map<UUID, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "LogDO2-write-behind");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public WriteBehindProfileRepo(ProfileRepo delegate, DataSource ds, DatabaseManager.Dialect dialect,
+                                  long flushMillis, int maxRows) {
+        this(delegate, ds, dialect, flushMillis, maxRows, WriteDedup.disabled());
+    }
+
+    public WriteBehindProfileRepo(ProfileRepo delegate, DataSource ds, DatabaseManager.Dialect dialect,
+                                  long flushMillis, int maxRows, WriteDedup dedup) {
+        this(delegate, ds, dialect, flushMillis, maxRows, dedup, KeyCodec.TEXT);
+    }
+
+    public WriteBehindProfileRepo(ProfileRepo delegate, DataSource ds, DatabaseManager.Dialect dialect,
+                                  long flushMillis, int maxRows, WriteDedup dedup, KeyCodec codec) {
+        this.delegate = delegate;
+        this.dedup = dedup;
+        this.codec = codec;
+        this.ds = ds;
+        this.dialect = dialect;
+        this.maxRows = Math.clamp(maxRows, 1, 249); // 4 binds per row, under SQLite's 999 default
+        this.maxUpdateRows = Math.min(this.maxRows, 199); // 5 binds per row
+        long period = Math.max(10L, flushMillis);
+        flusher.scheduleWithFixedDelay(this::flushQuietly, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Non-null fields overwrite; null means "not changed".
+     * @param existingOnly update the row only if it exists; any merged upsert makes the entry an upsert
+     */
+    record Pending(String name, String platform, boolean existingOnly) {
+        Pending(String name, String platform) {
+            this(name, platform, false);
+        }
+
+        Pending merge(Pending newer) {
+            return new Pending(newer.name != null ? newer.name : name,
+                    newer.platform != null ? newer.platform : platform,
+                    existingOnly && newer.existingOnly);
+        }
+    }
+
+    // ===== reads (pending first) =====
+
+    @Override
+    public Optional<String> findNameByUuid(UUID uuid) {
+        Pending p = pending.get(uuid);
+        if (p != null && p.name() != null) return Optional.of(p.name());
+        return delegate.findNameByUuid(uuid);
+    }
+
+    @Override
+    public Optional<String> findPlatform(UUID uuid) {
+        Pending p = pending.get(uuid);
+        if (p != null && p.platform() != null) return Optional.of(p.platform());
+        return delegate.findPlatform(uuid);
+    }
+
+    @Override
+    public Optional<UUID> findUuidByName(String name) {
+        for (var e : pending.entrySet()) {
+            if (e.getValue().name() != null && e.getValue().name().equalsIgnoreCase(name)) return Optional.of(e.getKey());
+        }
+        return delegate.findUuidByName(name);
+    }
+
+    @Override
+    public Optional<String> findLastConfirmedIp(UUID profileUuid) {
+        return delegate.findLastConfirmedIp(profileUuid);
+    }
+
+    // ===== writes =====
+
+    @Override
+    public void upsertName(UUID profileUuid, String playerName) {
+        enqueue(profileUuid, new Pending(playerName, null));
+    }
+
+    @Override
+    public void updatePlatform(UUID profileUuid, String platform) {
+        enqueue(profileUuid, new Pending(null, platform));
+    }
+
+    @Override
+    public void updateLastConfirmedIp(UUID profileUuid, String ip) {
+        delegate.updateLastConfirmedIp(profileUuid, ip);
+    }
+
+    /** Name/platform are queued; the join only reads. A profile row not written yet reads as a new player. */
+    @Override
+    public Row resolveJoin(UUID profileUuid, String name, String platform) {
+        enqueue(profileUuid, new Pending(name, platform));
+        Row row = select(profileUuid);
+        return row != null ? row : new Row(null, null);
+    }
+
+    @Override
+    public Row resolveExistingJoin(UUID profileUuid, String name, String platform) {
+        Row row = select(profileUuid);
+        if (row == null) return new Row(null, null);
+        enqueue(profileUuid, new Pending(name, platform, true));
+        return row;
+    }
+
+    /** @return null when there is no profile row */
+    private Row select(UUID profileUuid) {
+        String sql = "SELECT last_ip, " + ACTIVE_DISCORD + " FROM mc_profiles WHERE mc_uuid=?";
+        try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+            codec.bindUuid(ps, 1, profileUuid);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+                String lastIp = codec.ip(rs, 1);
+                long discordId = rs.getLong(2);
+                return new Row(rs.wasNull() ? null : discordId, lastIp);
+            }
+        } catch (Exception e) { throw new RuntimeException(e); }
+    }
+
+    int pendingCount() { return pending.size(); }
+
+    private void enqueue(UUID uuid, Pending update) {
+        // Values already in the database are not queued again, unless they revert a queued change
+        Pending queued = pending.get(uuid);
+        boolean skipName = (queued == null || queued.name() == null)
+                && dedup.unchanged("mc_profiles", uuid, "name", update.name());
+        boolean skipPlatform = (queued == null || queued.platform() == null)
+                && dedup.unchanged("mc_profiles", uuid, "platform", update.platform());
+        String name = skipName ? null : update.name();
+        String platform = skipPlatform ? null : update.platform();
+        if (name == null && platform == null) return;
+        update = new Pending(name, platform, update.existingOnly());
+        pending.merge(uuid, update, Pending::merge);
+        if (pending.size() >= maxRows && flushQueued.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushQueued.set(false);
+                flushQuietly();
+            });
+        }
+    }
+
+    // ===== flushing =====
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            // Entries stay queued and are retried on the next tick
+            log.warn("Write-behind flush failed ({} pending): {}", pending.size(), e.getMessage());
+        }
+    }
+
+    /** Write everything queued so far: upserts {@code maxRows} per statement, existing-only updates apart. */
+    synchronized void flush() throws Exception {
+        while (!pending.isEmpty()) {
+            List<Map.Entry<UUID, Pending>> upserts = new ArrayList<>();
+            List<Map.Entry<UUID, Pending>> updates = new ArrayList<>();
+            for (var e : pending.entrySet()) {
+                var entry = Map.entry(e.getKey(), e.getValue());
+                if (entry.getValue().existingOnly()) {
+                    if (updates.size() < maxUpdateRows) updates.add(entry);
+                } else if (upserts.size() < maxRows) {
+                    upserts.add(entry);
+                }
+                if (upserts.size() == maxRows && updates.size() == maxUpdateRows) break;
+            }
+            if (!upserts.isEmpty()) {
+                writeBatch(upserts);
+                for (var e : upserts) {
+                    if (e.getValue().name() != null) dedup.written("mc_profiles", e.getKey(), "name", e.getValue().name());
+                    if (e.getValue().platform() != null) dedup.written("mc_profiles", e.getKey(), "platform", e.getValue().platform());
+                }
+            }
+            // Not remembered by dedup: the UPDATE does not say which of its rows still existed
+            if (!updates.isEmpty()) updateBatch(updates);
+            // Keep entries that changed while the batch was in flight
+            for (var e : upserts) pending.remove(e.getKey(), e.getValue());
+            for (var e : updates) pending.remove(e.getKey(), e.getValue());
+        }
+    }
+
+    private void writeBatch(List<Map.Entry<UUID, Pending>> batch) {
+        long now = Instant.now().getEpochSecond();
+        String values = String.join(",", java.util.Collections.nCopies(batch.size(), "(?,?,?,?)"));
+        // Null fields keep the stored value, so name-only and platform-only updates share one statement
+        String sql = switch (dialect) {
+            case POSTGRES, SQLITE -> "INSERT INTO mc_profiles(mc_uuid,name,platform,updated_at) VALUES " + values
+                    + " ON CONFLICT(mc_uuid) DO UPDATE SET name=COALESCE(EXCLUDED.name, mc_profiles.name),"
+                    + " platform=COALESCE(EXCLUDED.platform, mc_profiles.platform), updated_at=EXCLUDED.updated_at";
+            case MYSQL -> "INSERT INTO mc_profiles(mc_uuid,name,platform,updated_at) VALUES " + values
+                    + " ON DUPLICATE KEY UPDATE name=COALESCE(VALUES(name), name),"
+                    + " platform=COALESCE(VALUES(platform), platform), updated_at=VALUES(updated_at)";
+        };
+        Writes.run(ds, () -> {
+            try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+                int i = 1;
+                for (var e : batch) {
+                    codec.bindUuid(ps, i++, e.getKey());
+                    ps.setString(i++, e.getValue().name());
+                    ps.setString(i++, Platforms.normalize(e.getValue().platform()));
+                    ps.setLong(i++, now);
+                }
+                ps.executeUpdate();
+            } catch (Exception e) { throw new RuntimeException(e); }
+        }, batch.stream().map(Map.Entry::getKey).toArray());
+    }
+
+    /** Rows that are gone (e.g. purged since the join) are not recreated. */
+    private void updateBatch(List<Map.Entry<UUID, Pending>> batch) {
+        long now = Instant.now().getEpochSecond();
+        String in = String.join(",", java.util.Collections.nCopies(batch.size(), "?"));
+        // Per-row values by key; null fields keep the stored value, as in the upsert
+        String sql = "UPDATE mc_profiles SET name=" + perRow("name", batch.size())
+                + ", platform=" + perRow("platform", batch.size())
+                + ", updated_at=? WHERE mc_uuid IN (" + in + ")";
+        Writes.run(ds, () -> {
+            try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+                int i = 1;
+                for (var e : batch) {
+                    codec.bindUuid(ps, i++, e.getKey());
+                    ps.setString(i++, e.getValue().name());
+                }
+                for (var e : batch) {
+                    codec.bindUuid(ps, i++, e.getKey());
+                    ps.setString(i++, Platforms.normalize(e.getValue().platform()));
+                }
+                ps.setLong(i++, now);
+                for (var e : batch) codec.bindUuid(ps, i++, e.getKey());
+                ps.executeUpdate();
+            } catch (Exception e) { throw new RuntimeException(e); }
+        }, batch.stream().map(Map.Entry::getKey).toArray());
+    }
+
+    private static String perRow(String column, int rows) {
+        return "CASE mc_uuid " + ("WHEN ? THEN COALESCE(?, " + column + ") ").repeat(rows) + "ELSE " + column + " END";
+    }
+
+    /** Stop the timer and drain the queue; call before the pool is closed. */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Write-behind drain failed, {} profile updates lost", pending.size(), e);
+        }
+    }
+}
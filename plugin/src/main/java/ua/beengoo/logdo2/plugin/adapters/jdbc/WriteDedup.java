@@ -0,0 +1,56 @@
+package ua.beengoo.logdo2.plugin.adapters.jdbc;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.time.Duration;
+
+/**
+ * Remembers the last value this server wrote per row/column so identical upserts can be skipped.
+ * Entries expire after the touch interval; the next identical write then goes through and refreshes
+ * {@code updated_at}. Repos that delete or overwrite rows behind the upserts must call {@link #forget}.
+ */
+public class WriteDedup {
+    private static final Object NULL = new Object();
+
+    private final Cache<Key, Object> written; // null = disabled
+
+    private record Key(String table, Object id, String column) {}
+
+    public WriteDedup(long maximumSize, Duration touchInterval) {
+        this.written = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(touchInterval)
+                .build();
+    }
+
+    private WriteDedup() {
+        this.written = null;
+    }
+
+    public static WriteDedup disabled() {
+        return new WriteDedup();
+    }
+
+    /** @return true when {@code value} is what this server last wrote and the touch interval has not passed */
+    boolean unchanged(String table, Object id, String column, Object value) {
+        if (written == null) return false;
+        Object last = written.getIfPresent(new Key(table, id, column));
+        return last != null && last.equals(value == null ? NULL : value);
+    }
+
+    void written(String table, Object id, String column, Object value) {
+        if (written != null) written.put(new Key(table, id, column), value == null ? NULL : value);
+    }
+
+    /** Drop every remembered column of a row, e.g. after it was deleted. */
+    void forget(String table, Object id) {
+        if (written == null) return;
+        written.asMap().keySet().removeIf(k -> k.table().equals(table) && k.id().equals(id));
+    }
+
+    /** Drop everything, e.g. after a rollback undid writes that were already remembered. */
+    public void clear() {
+        if (written != null) written.invalidateAll();
+    }
+}
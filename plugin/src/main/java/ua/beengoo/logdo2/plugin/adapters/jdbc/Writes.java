@@ -0,0 +1,23 @@
+package ua.beengoo.logdo2.plugin.adapters.jdbc;
+
+import ua.beengoo.logdo2.plugin.db.TransactionalDataSource;
+
+import javax.sql.DataSource;
+import java.util.function.Supplier;
+
+/** Runs repo writes through {@link TransactionalDataSource#write}, so SQLite writer mode can queue them. */
+final class Writes {
+    private Writes() {}
+
+    /** @param keys the rows the write touches (profile UUID, Discord ID, IP); none = may touch any row */
+    static void run(DataSource ds, Runnable work, Object... keys) {
+        get(ds, () -> {
+            work.run();
+            return null;
+        }, keys);
+    }
+
+    static <T> T get(DataSource ds, Supplier<T> work, Object... keys) {
+        return ds instanceof TransactionalDataSource tx ? tx.write(work, keys) : work.get();
+    }
+}
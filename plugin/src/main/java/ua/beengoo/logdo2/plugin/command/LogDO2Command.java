@@ -13,11 +13,13 @@ import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.command.*;
 import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import ua.beengoo.logdo2.api.events.LogDO2ReloadEvent;
 import ua.beengoo.logdo2.api.ports.*;
 import ua.beengoo.logdo2.plugin.config.Config;
+import ua.beengoo.logdo2.plugin.db.JdbcMetrics;
 import ua.beengoo.logdo2.plugin.i18n.YamlMessages;
 import ua.beengoo.logdo2.plugin.util.AuditLogger;
 
@@ -27,12 +29,13 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 @Slf4j
 public class LogDO2Command implements CommandExecutor, TabCompleter {
     private static final DateTimeFormatter LOOKUP_DT = DateTimeFormatter.ofPattern("dd-MM-yy hh:mm a", Locale.ENGLISH);
-    private static final List<String> SUBS = List.of("help", "link", "logout", "forgive", "bypass", "reload");
+    private static final List<String> SUBS = List.of("help", "link", "logout", "forgive", "bypass", "reload", "dbstats");
     private static final MiniMessage MINI = MiniMessage.miniMessage();
     private final AccountsRepo accountsRepo;
     private final ProfileRepo profileRepo;
@@ -41,13 +44,18 @@ public class LogDO2Command implements CommandExecutor, TabCompleter {
     private final MessagesPort msg;
     private final AuditLogger audit;
     private final JDA jda;
+    private final Plugin plugin;
+    private final Executor io;
+    private JdbcMetrics jdbcMetrics; // null = statement stats disabled
+    private volatile LoginStatePort loginState; // loaded on the command thread, see dispatch()
 
     public LogDO2Command(AccountsRepo accountsRepo,
                          ProfileRepo profileRepo,
                          BanProgressRepo banProgressRepo,
                          DiscordUserRepo discordUserRepo,
                          MessagesPort msg,
-                         AuditLogger audit, JDA jda) {
+                         AuditLogger audit, JDA jda,
+                         Plugin plugin, Executor io) {
         this.accountsRepo = accountsRepo;
         this.profileRepo = profileRepo;
         this.banProgressRepo = banProgressRepo;
@@ -55,8 +63,12 @@ public class LogDO2Command implements CommandExecutor, TabCompleter {
         this.msg = msg;
         this.audit = audit;
         this.jda = jda;
+        this.plugin = plugin;
+        this.io = io;
     }
 
+    public void setJdbcMetrics(JdbcMetrics jdbcMetrics) { this.jdbcMetrics = jdbcMetrics; }
+
     @Override
     public boolean onCommand(@NotNull CommandSender sender,
                              @NotNull Command command,
@@ -66,13 +78,15 @@ public class LogDO2Command implements CommandExecutor, TabCompleter {
             sendHelp(sender);
             return true;
         }
+        // Everything except reload talks to the database or Discord; keep it off the calling thread
         switch (args[0].toLowerCase()) {
-            case "link"    -> handleLink(sender, args);
-            case "logout"  -> handleLogout(sender, args);
-            case "forgive" -> handleForgive(sender, args);
+            case "link"    -> dispatch(sender, "logdo2.admin.link", args, this::handleLink);
+            case "logout"  -> dispatch(sender, "logdo2.admin.logout", args, this::handleLogout);
+            case "forgive" -> dispatch(sender, "logdo2.admin.forgive", args, this::handleForgive);
             case "reload"  -> handleReload(sender);
-            case "bypass"  -> handleBypass(sender, args);
-            case "lookup"  -> handleLookup(sender, args);
+            case "bypass"  -> dispatch(sender, "logdo2.admin.bypass", args, this::handleBypass);
+            case "lookup"  -> dispatch(sender, "logdo2.admin.lookup", args, this::handleLookup);
+            case "dbstats" -> handleDbStats(sender, args);
             default        -> sendHelp(sender);
         }
         if (audit != null) {
@@ -84,6 +98,77 @@ public class LogDO2Command implements CommandExecutor, TabCompleter {
         return true;
     }
 
+    private interface Handler { void handle(Reply sender, String[] args, Names names); }
+
+    /**
+     * Runs a handler on the I/O executor. What it needs from Bukkit (permission, sender, player names) is read
+     * here on the command thread; only repository and Discord work happens off it.
+     */
+    private void dispatch(CommandSender sender, String permission, String[] args, Handler handler) {
+        if (!sender.hasPermission(permission)) { noPerm(sender); return; }
+        if (loginState == null) loginState = Bukkit.getServicesManager().load(LoginStatePort.class);
+        Reply reply = new Reply(sender);
+        Names names = Names.of(args);
+        io.execute(() -> handler.handle(reply, args, names));
+    }
+
+    /**
+     * The command sender as seen from the I/O thread: its identity is read up front and messages go back
+     * on its own scheduler, the player's entity scheduler or the global region for the console.
+     */
+    private final class Reply {
+        private final CommandSender sender;
+        private final String name;
+        private final UUID playerUuid; // null for the console
+
+        Reply(CommandSender sender) {
+            this.sender = sender;
+            this.name = sender.getName();
+            this.playerUuid = sender instanceof Player p ? p.getUniqueId() : null;
+        }
+
+        String getName() { return name; }
+        UUID playerUuid() { return playerUuid; }
+
+        void sendMessage(String legacy) {
+            deliver(() -> sender.sendMessage(legacy));
+        }
+
+        void sendMessages(List<Component> lines) {
+            deliver(() -> lines.forEach(sender::sendMessage));
+        }
+
+        private void deliver(Runnable action) {
+            try {
+                if (sender instanceof Player p) p.getScheduler().execute(plugin, action, null, 0L);
+                else Bukkit.getGlobalRegionScheduler().execute(plugin, action);
+            } catch (Throwable ignored) {
+                // Region schedulers unavailable (non-Folia fallback)
+                Bukkit.getScheduler().runTask(plugin, action);
+            }
+        }
+    }
+
+    /** Bukkit's view of the name arguments, read on the command thread: online players, then the name cache. */
+    private record Names(Map<String, UUID> online, Map<String, UUID> cached) {
+        static Names of(String[] args) {
+            Map<String, UUID> online = new HashMap<>();
+            Map<String, UUID> cached = new HashMap<>();
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+                if (isUuid(arg)) continue;
+                Player p = Bukkit.getPlayerExact(arg);
+                if (p != null) {
+                    online.put(arg, p.getUniqueId());
+                    continue;
+                }
+                OfflinePlayer op = Bukkit.getOfflinePlayerIfCached(arg);
+                if (op != null) cached.put(arg, op.getUniqueId());
+            }
+            return new Names(online, cached);
+        }
+    }
+
     private void sendHelp(CommandSender s) {
         s.sendMessage("§6=== LogDO2 Help ===");
         s.sendMessage("§e/logdo2 link <player_uuid> <discord_id> §7— link player to Discord ID");
@@ -93,10 +178,10 @@ public class LogDO2Command implements CommandExecutor, TabCompleter {
         s.sendMessage("§e/logdo2 bypass <player_name|player_uuid> §7— allow profile to ignore per-Discord limit");
         s.sendMessage("§e/logdo2 lookup <player_name|player_uuid|discord_id> §7— get everything we know about player/member");
         s.sendMessage("§e/logdo2 reload §7— reload config & messages");
+        s.sendMessage("§e/logdo2 dbstats [reset] §7— SQL statements per flow and the slowest statement shapes");
     }
 
-    private void handleLookup(CommandSender sender, String[] args) {
-        if (!sender.hasPermission("logdo2.admin.lookup")) { noPerm(sender); return; }
+    private void handleLookup(Reply sender, String[] args, Names names) {
         if (args.length < 2) { usage(sender, "lookup <player_name|player_uuid|discord_id>"); return; }
 
         String target = args[1];
@@ -135,7 +220,7 @@ public class LogDO2Command implements CommandExecutor, TabCompleter {
             }
         } else {
             // treat as player name — do not send messages here, just resolve
-            resolvedUuid = resolveUuid(target); // may be null
+            resolvedUuid = resolveUuid(target, names); // may be null
             if (resolvedUuid != null) {
                 resolvedName = target;
                 discordForProfile = accountsRepo.findAnyDiscordForProfile(resolvedUuid);
@@ -240,8 +325,8 @@ public class LogDO2Command implements CommandExecutor, TabCompleter {
         outComponents.add(Component.text("--- End of Lookup ---").color(NamedTextColor.DARK_GRAY));
 
         // Single send: if player -> components, else console -> plain text
-        if (sender instanceof Player p) {
-            for (Component c : outComponents) p.sendMessage(c);
+        if (sender.playerUuid() != null) {
+            sender.sendMessages(outComponents);
         } else {
             sender.sendMessage(outPlain.toString());
         }
@@ -335,17 +420,16 @@ public class LogDO2Command implements CommandExecutor, TabCompleter {
     }
 
 
-    private void handleBypass(CommandSender sender, String[] args) {
-        if (!sender.hasPermission("logdo2.admin.bypass")) { noPerm(sender); return; }
+    private void handleBypass(Reply sender, String[] args, Names names) {
         UUID targetUuid;
         if (args.length >= 2) {
-            targetUuid = resolveUuid(args[1]);
+            targetUuid = resolveUuid(args[1], names);
             if (targetUuid == null) {
                 sender.sendMessage("§cUnknown player: " + args[1]);
                 return;
             }
-        } else if (sender instanceof Player p) {
-            targetUuid = p.getUniqueId();
+        } else if (sender.playerUuid() != null) {
+            targetUuid = sender.playerUuid();
         } else {
             usage(sender, "bypass <player_name|player_uuid>");
             return;
@@ -366,11 +450,18 @@ public class LogDO2Command implements CommandExecutor, TabCompleter {
     }
 
     private ua.beengoo.logdo2.api.ports.LoginStatePort getLoginState() {
-        return org.bukkit.Bukkit.getServicesManager().load(ua.beengoo.logdo2.api.ports.LoginStatePort.class);
+        return loginState;
+    }
+
+    /** Links were removed behind LoginService's back: drop the cached gate verdict and the online owner. */
+    private void invalidateVerdict(UUID uuid) {
+        var st = getLoginState();
+        if (st == null) return;
+        st.invalidateVerdict(uuid);
+        st.updateOnlineOwner(uuid, null); // only unlinks call this
     }
 
-    private void handleLink(CommandSender sender, String[] args) {
-        if (!sender.hasPermission("logdo2.admin.link")) { noPerm(sender); return; }
+    private void handleLink(Reply sender, String[] args, Names names) {
         if (args.length < 3) { usage(sender, "link <player_uuid> <discord_id>"); return; }
 
         final UUID puuid;
@@ -394,16 +485,16 @@ public class LogDO2Command implements CommandExecutor, TabCompleter {
         ));
     }
 
-    private void handleLogout(CommandSender sender, String[] args) {
-        if (!sender.hasPermission("logdo2.admin.logout")) { noPerm(sender); return; }
+    private void handleLogout(Reply sender, String[] args, Names names) {
         if (args.length < 2) { usage(sender, "logout <player_name|player_uuid|discord_id> [player_name|player_uuid]"); return; }
 
         // Case A: two params -> discord + player => unlink only that mapping
         if (args.length >= 3 && isNumeric(args[1])) {
             long discordId = Long.parseLong(args[1]);
-            UUID uuid = resolveUuid(args[2]);
+            UUID uuid = resolveUuid(args[2], names);
             if (uuid == null) { sender.sendMessage("§cUnknown player: " + args[2]); return; }
             accountsRepo.unlinkByDiscordAndProfile(discordId, uuid);
+            invalidateVerdict(uuid);
             kickIfOnline(uuid, msg.mc("admin.logout_kick"));
             sender.sendMessage("§aUnlinked Discord " + discordId + " from player " + uuid + ".");
             if (audit != null) audit.log("admin", "logout_pair", java.util.Map.of(
@@ -418,9 +509,10 @@ public class LogDO2Command implements CommandExecutor, TabCompleter {
         String target = args[1];
 
         // name → uuid (offline ok)
-        UUID uuidByName = resolveUuid(target);
+        UUID uuidByName = resolveUuid(target, names);
         if (uuidByName != null) {
             accountsRepo.unlinkByProfile(uuidByName);
+            invalidateVerdict(uuidByName);
             kickIfOnline(uuidByName, msg.mc("admin.logout_kick"));
             sender.sendMessage("§aUnlinked player §e" + target + " §7(" + uuidByName + ")");
             if (audit != null) audit.log("admin", "logout_profile", java.util.Map.of(
@@ -434,6 +526,7 @@ public class LogDO2Command implements CommandExecutor, TabCompleter {
         try {
             UUID puuid = UUID.fromString(target);
             accountsRepo.unlinkByProfile(puuid);
+            invalidateVerdict(puuid);
             kickIfOnline(puuid, msg.mc("admin.logout_kick"));
             sender.sendMessage("§aUnlinked player " + puuid + ".");
             if (audit != null) audit.log("admin", "logout_profile", java.util.Map.of(
@@ -447,8 +540,10 @@ public class LogDO2Command implements CommandExecutor, TabCompleter {
         if (isNumeric(target)) {
             long did = Long.parseLong(target);
             // Kick any online players linked to this Discord
-            for (UUID u : accountsRepo.findProfilesForDiscord(did)) kickIfOnline(u, msg.mc("admin.logout_kick"));
+            Set<UUID> linked = accountsRepo.findProfilesForDiscord(did);
+            for (UUID u : linked) kickIfOnline(u, msg.mc("admin.logout_kick"));
             accountsRepo.unlinkByDiscord(did);
+            for (UUID u : linked) invalidateVerdict(u);
             sender.sendMessage("§aUnlinked all players for Discord " + did + ".");
             if (audit != null) audit.log("admin", "logout_discord", java.util.Map.of(
                     "sender", sender.getName(),
@@ -460,13 +555,35 @@ public class LogDO2Command implements CommandExecutor, TabCompleter {
         sender.sendMessage("§cCan't resolve target. Use player name/uuid or discord id.");
     }
 
-    private static void kickIfOnline(UUID uuid, String reason) {
-        Player p = Bukkit.getPlayer(uuid);
-        if (p != null && p.isOnline()) p.kick(MINI.deserialize(reason));
+    /** Called from the I/O executor; the kick itself must run on the player's thread. */
+    private void kickIfOnline(UUID uuid, String reason) {
+        runPlayer(uuid, p -> {
+            if (p.isOnline()) p.kick(MINI.deserialize(reason));
+        });
+    }
+
+    /** Looks the player up on the global region, then runs the action on the player's own scheduler. */
+    private void runPlayer(UUID uuid, java.util.function.Consumer<Player> action) {
+        try {
+            Bukkit.getGlobalRegionScheduler().execute(plugin, () -> {
+                Player p = Bukkit.getPlayer(uuid);
+                if (p == null) return;
+                try {
+                    p.getScheduler().execute(plugin, () -> action.accept(p), null, 0L);
+                } catch (Throwable ignored) {
+                    // If player scheduler is not available, run action immediately (Paper non-Folia)
+                    action.accept(p);
+                }
+            });
+        } catch (Throwable ignored) {
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                Player p = Bukkit.getPlayer(uuid);
+                if (p != null) action.accept(p);
+            });
+        }
     }
 
-    private void handleForgive(CommandSender sender, String[] args) {
-        if (!sender.hasPermission("logdo2.admin.forgive")) { noPerm(sender); return; }
+    private void handleForgive(Reply sender, String[] args, Names names) {
         if (args.length < 2) { usage(sender, "forgive <ip>"); return; }
         String ip = args[1];
 
@@ -487,6 +604,21 @@ public class LogDO2Command implements CommandExecutor, TabCompleter {
         ));
     }
 
+    private void handleDbStats(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("logdo2.admin.dbstats")) { noPerm(sender); return; }
+        if (jdbcMetrics == null) {
+            sender.sendMessage("§cStatement stats are disabled (database.metrics.enabled)");
+            return;
+        }
+        if (args.length > 1 && args[1].equalsIgnoreCase("reset")) {
+            jdbcMetrics.reset();
+            sender.sendMessage("§aStatement stats reset.");
+            return;
+        }
+        sender.sendMessage("§6=== LogDO2 SQL by flow ===");
+        for (String line : jdbcMetrics.report(10)) sender.sendMessage("§7" + line);
+    }
+
     private void handleReload(CommandSender sender) {
         if (!sender.hasPermission("logdo2.admin.reload")) { noPerm(sender); return; }
         Config.reload();
@@ -500,27 +632,23 @@ public class LogDO2Command implements CommandExecutor, TabCompleter {
 
     // ==== utils ====
     private static void noPerm(CommandSender s) { s.sendMessage("§cYou don't have permission."); }
-    private static void usage(CommandSender s, String u) { s.sendMessage("§cUsage: /logdo2 " + u); }
+    private static void usage(Reply s, String u) { s.sendMessage("§cUsage: /logdo2 " + u); }
     private static boolean isNumeric(String s) { try { Long.parseLong(s); return true; } catch (Exception e) { return false; } }
 
-    private UUID resolveUuid(String nameOrUuid) {
+    private UUID resolveUuid(String nameOrUuid, Names names) {
         // direct UUID
         try { return UUID.fromString(nameOrUuid); } catch (IllegalArgumentException ignore) {}
 
         // Online player by name
-        Player p = Bukkit.getPlayerExact(nameOrUuid);
-        if (p != null) return p.getUniqueId();
+        UUID online = names.online().get(nameOrUuid);
+        if (online != null) return online;
 
         // DB (our profiles table)
         var id = profileRepo.findUuidByName(nameOrUuid);
         if (id.isPresent()) return id.get();
 
         // Offline cache (Paper/Bukkit)
-        for (OfflinePlayer op : Bukkit.getOfflinePlayers()) {
-            if (op.getName() != null && op.getName().equalsIgnoreCase(nameOrUuid))
-                return op.getUniqueId();
-        }
-        return null;
+        return names.cached().get(nameOrUuid);
     }
 
     private static boolean isValidIp(String ip) {
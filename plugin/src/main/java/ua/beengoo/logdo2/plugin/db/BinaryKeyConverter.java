@@ -0,0 +1,188 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Converts {@code mc_profiles}, {@code links} and {@code ban_progress} from text UUID/IP columns to
+ * binary ones ({@link KeyCodec#BINARY}) and records the format in {@code logdo2_meta}.
+ * Runs at startup, before any join is served: rows are copied in batches into {@code *_bin} tables,
+ * which then replace the originals. SQLite and Postgres do this in one transaction; MySQL commits DDL
+ * implicitly, so an interrupted MySQL conversion leaves {@code *_bin} tables that the next attempt drops.
+ * There is no way back to text.
+ */
+@Slf4j
+final class BinaryKeyConverter {
+    static final String FORMAT_KEY = "key_format";
+    private static final int BATCH = 500;
+
+    private final DataSource ds;
+    private final DatabaseManager.Dialect dialect;
+
+    BinaryKeyConverter(DataSource ds, DatabaseManager.Dialect dialect) {
+        this.ds = ds;
+        this.dialect = dialect;
+    }
+
+    /** @return the codec matching the database, converting it first when {@code wantBinary} asks for it */
+    KeyCodec ensure(boolean wantBinary) {
+        try (Connection c = ds.getConnection()) {
+            boolean binary = "binary".equals(readFormat(c));
+            if (binary && !wantBinary) {
+                log.warn("Database already stores UUIDs/IPs as binary; database.binaryKeys=false is ignored");
+            }
+            if (!binary && wantBinary) {
+                convert(c);
+                binary = true;
+            }
+            return binary ? KeyCodec.BINARY : KeyCodec.TEXT;
+        } catch (SQLException e) {
+            throw new RuntimeException("Binary key conversion failed: " + e.getMessage(), e);
+        }
+    }
+
+    private static String readFormat(Connection c) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT meta_value FROM logdo2_meta WHERE meta_key=?")) {
+            ps.setString(1, FORMAT_KEY);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : "text";
+            }
+        }
+    }
+
+    private void convert(Connection c) throws SQLException {
+        long started = System.nanoTime();
+        log.info("Converting UUID/IP columns to binary...");
+        c.setAutoCommit(false);
+        try (Statement st = c.createStatement()) {
+            for (String t : List.of("links_bin", "mc_profiles_bin", "ban_progress_bin")) st.execute("DROP TABLE IF EXISTS " + t);
+            for (String ddl : createTables()) st.execute(ddl);
+
+            int profiles = copy(c, "SELECT mc_uuid, name, last_ip, platform, updated_at FROM mc_profiles",
+                    "INSERT INTO mc_profiles_bin(mc_uuid, name, last_ip, platform, updated_at) VALUES(?,?,?,?,?)",
+                    (rs, ps) -> {
+                        ps.setBytes(1, KeyCodec.uuidBytes(UUID.fromString(rs.getString(1))));
+                        ps.setString(2, rs.getString(2));
+                        KeyCodec.BINARY.bindIp(ps, 3, rs.getString(3));
+                        ps.setString(4, rs.getString(4));
+                        ps.setLong(5, rs.getLong(5));
+                    });
+            int links = copy(c, "SELECT discord_id, mc_uuid, active, created_at FROM links",
+                    "INSERT INTO links_bin(discord_id, mc_uuid, active, created_at) VALUES(?,?,?,?)",
+                    (rs, ps) -> {
+                        ps.setLong(1, rs.getLong(1));
+                        ps.setBytes(2, KeyCodec.uuidBytes(UUID.fromString(rs.getString(2))));
+                        ps.setInt(3, rs.getInt(3));
+                        ps.setLong(4, rs.getLong(4));
+                    });
+            int bans = copy(c, "SELECT ip, attempts, last_attempt, last_ban_until FROM ban_progress",
+                    "INSERT INTO ban_progress_bin(ip, attempts, last_attempt, last_ban_until) VALUES(?,?,?,?)",
+                    (rs, ps) -> {
+                        KeyCodec.BINARY.bindIp(ps, 1, rs.getString(1));
+                        ps.setInt(2, rs.getInt(2));
+                        ps.setLong(3, rs.getLong(3));
+                        ps.setLong(4, rs.getLong(4));
+                    });
+
+            st.execute("DROP TABLE links");
+            st.execute("DROP TABLE mc_profiles");
+            st.execute("DROP TABLE ban_progress");
+            for (String ddl : renameAndIndex()) st.execute(ddl);
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO logdo2_meta(meta_key, meta_value) VALUES(?, 'binary')")) {
+                ps.setString(1, FORMAT_KEY);
+                ps.executeUpdate();
+            }
+            c.commit();
+            log.info("Converted {} profiles, {} links and {} ban records to binary keys in {} ms",
+                    profiles, links, bans, (System.nanoTime() - started) / 1_000_000);
+        } catch (SQLException | RuntimeException e) {
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(true);
+        }
+    }
+
+    private interface RowCopy { void bind(ResultSet from, PreparedStatement to) throws SQLException; }
+
+    private static int copy(Connection c, String select, String insert, RowCopy row) throws SQLException {
+        int n = 0;
+        try (Statement st = c.createStatement(); PreparedStatement ps = c.prepareStatement(insert)) {
+            st.setFetchSize(BATCH);
+            try (ResultSet rs = st.executeQuery(select)) {
+                while (rs.next()) {
+                    row.bind(rs, ps);
+                    ps.addBatch();
+                    if (++n % BATCH == 0) ps.executeBatch();
+                }
+            }
+            if (n % BATCH != 0) ps.executeBatch();
+        }
+        return n;
+    }
+
+    // ===== per-dialect DDL (same shape as V1..V3, binary key columns) =====
+
+    private List<String> createTables() {
+        return switch (dialect) {
+            case SQLITE -> List.of(
+                    "CREATE TABLE mc_profiles_bin (mc_uuid BLOB PRIMARY KEY, name TEXT, last_ip BLOB, platform TEXT, " +
+                            "updated_at BIGINT NOT NULL, name_lower TEXT GENERATED ALWAYS AS (LOWER(name)) VIRTUAL)",
+                    "CREATE TABLE links_bin (discord_id INTEGER NOT NULL, mc_uuid BLOB NOT NULL, " +
+                            "active INTEGER NOT NULL DEFAULT 1, created_at BIGINT NOT NULL, PRIMARY KEY (discord_id, mc_uuid), " +
+                            "FOREIGN KEY (discord_id) REFERENCES discord_accounts(discord_id) ON DELETE CASCADE, " +
+                            "FOREIGN KEY (mc_uuid) REFERENCES mc_profiles_bin(mc_uuid) ON DELETE CASCADE)",
+                    "CREATE TABLE ban_progress_bin (ip BLOB PRIMARY KEY, attempts INTEGER NOT NULL, " +
+                            "last_attempt BIGINT NOT NULL, last_ban_until BIGINT NOT NULL)");
+            case POSTGRES -> List.of(
+                    "CREATE TABLE mc_profiles_bin (mc_uuid BYTEA PRIMARY KEY, name TEXT, last_ip BYTEA, platform TEXT, " +
+                            "updated_at BIGINT NOT NULL, name_lower TEXT GENERATED ALWAYS AS (LOWER(name)) STORED)",
+                    "CREATE TABLE links_bin (discord_id BIGINT NOT NULL, mc_uuid BYTEA NOT NULL, " +
+                            "active INTEGER NOT NULL DEFAULT 1, created_at BIGINT NOT NULL, PRIMARY KEY (discord_id, mc_uuid), " +
+                            "FOREIGN KEY (discord_id) REFERENCES discord_accounts(discord_id) ON DELETE CASCADE, " +
+                            "FOREIGN KEY (mc_uuid) REFERENCES mc_profiles_bin(mc_uuid) ON DELETE CASCADE)",
+                    "CREATE TABLE ban_progress_bin (ip BYTEA PRIMARY KEY, attempts INTEGER NOT NULL, " +
+                            "last_attempt BIGINT NOT NULL, last_ban_until BIGINT NOT NULL)");
+            // Index names are per table in MySQL, so the final ones can be declared here
+            case MYSQL -> List.of(
+                    "CREATE TABLE mc_profiles_bin (mc_uuid BINARY(16) PRIMARY KEY, name VARCHAR(64), last_ip VARBINARY(16), " +
+                            "platform VARCHAR(16), updated_at BIGINT NOT NULL, " +
+                            "name_lower VARCHAR(64) GENERATED ALWAYS AS (LOWER(name)) STORED, " +
+                            "INDEX idx_profiles_name_lower (name_lower)" +
+                            ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci",
+                    "CREATE TABLE links_bin (discord_id BIGINT NOT NULL, mc_uuid BINARY(16) NOT NULL, " +
+                            "active TINYINT(1) NOT NULL DEFAULT 1, created_at BIGINT NOT NULL, PRIMARY KEY (discord_id, mc_uuid), " +
+                            "INDEX idx_links_mc_active (mc_uuid, active), INDEX idx_links_discord_active (discord_id, active), " +
+                            "FOREIGN KEY (discord_id) REFERENCES discord_accounts(discord_id) ON DELETE CASCADE, " +
+                            "FOREIGN KEY (mc_uuid) REFERENCES mc_profiles_bin(mc_uuid) ON DELETE CASCADE" +
+                            ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci",
+                    "CREATE TABLE ban_progress_bin (ip VARBINARY(16) PRIMARY KEY, attempts INT NOT NULL, " +
+                            "last_attempt BIGINT NOT NULL, last_ban_until BIGINT NOT NULL, " +
+                            "INDEX idx_ban_progress_until (last_ban_until)" +
+                            ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci");
+        };
+    }
+
+    private List<String> renameAndIndex() {
+        return switch (dialect) {
+            case SQLITE, POSTGRES -> List.of(
+                    "ALTER TABLE mc_profiles_bin RENAME TO mc_profiles",
+                    "ALTER TABLE links_bin RENAME TO links",
+                    "ALTER TABLE ban_progress_bin RENAME TO ban_progress",
+                    "CREATE INDEX idx_profiles_name_lower ON mc_profiles(name_lower)",
+                    "CREATE INDEX idx_links_mc_active ON links(mc_uuid, active)",
+                    "CREATE INDEX idx_links_discord_active ON links(discord_id, active)",
+                    "CREATE INDEX idx_ban_progress_until ON ban_progress(last_ban_until)");
+            case MYSQL -> List.of(
+                    "RENAME TABLE mc_profiles_bin TO mc_profiles, links_bin TO links, ban_progress_bin TO ban_progress");
+        };
+    }
+}
@@ -7,14 +7,24 @@ import org.bukkit.plugin.Plugin;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 public class DatabaseManager {
     public enum Dialect { SQLITE, MYSQL, POSTGRES }
 
     private final Plugin plugin;
     private HikariDataSource ds;
+    private HikariDataSource readDs; // SQLite writer mode only; ds is then the single write connection
+    private TransactionalDataSource tx;
+    private ReplicaRouter replicas;
+    private SqliteMaintenance maintenance;
+    private HikariDataSource checkpointDs; // SQLite writer mode: the connection maintenance checkpoints the WAL on
     private Dialect dialect;
+    private KeyCodec keyCodec = KeyCodec.TEXT;
+    private JdbcMetrics metrics; // null = not measured
 
     public DatabaseManager(Plugin plugin) { this.plugin = plugin; }
 
@@ -33,8 +43,17 @@ public class DatabaseManager {
         cfg.setKeepaliveTime(30_000);
         cfg.setConnectionTimeout(15_000);
 
-        this.ds = new HikariDataSource(cfg);
         this.dialect = detectDialect(url, driver);
+        if (plugin.getConfig().getBoolean("database.metrics.enabled", true)) {
+            this.metrics = new JdbcMetrics(plugin.getConfig().getLong("database.metrics.slowQueryMillis", 250L));
+        }
+
+        if (this.dialect == Dialect.SQLITE && plugin.getConfig().getBoolean("database.sqlite.writerMode", true)) {
+            startSqliteWriterMode(url);
+        } else {
+            this.ds = new HikariDataSource(cfg);
+            this.tx = new TransactionalDataSource(measured(ds));
+        }
 
         if (this.dialect == Dialect.SQLITE) {
             // вмикаємо FK
@@ -43,18 +62,132 @@ public class DatabaseManager {
             } catch (Exception ignored) {}
         }
 
-        runMigrations();
-        plugin.getLogger().info("DB ready (" + dialect + ")");
+        startReplicas(user, pass, maxPool);
+
+        int applied = new MigrationRunner(ds, dialect, plugin::getResource).migrate();
+        this.keyCodec = new BinaryKeyConverter(ds, dialect).ensure(plugin.getConfig().getBoolean("database.binaryKeys", false));
+        if (dialect == Dialect.SQLITE && plugin.getConfig().getBoolean("database.sqlite.maintenance.enabled", true)) {
+            startSqliteMaintenance(url);
+        }
+        plugin.getLogger().info("DB ready (" + dialect + ", schema V" + MigrationRunner.latestVersion()
+                + (applied > 0 ? ", " + applied + " migration(s) applied" : "")
+                + (keyCodec.binary() ? ", binary keys" : "")
+                + (readDs != null ? ", WAL single writer" : "")
+                + (replicas != null ? ", " + replicas.statsLine() : "") + ")");
+    }
+
+    /** Optional read replicas (same credentials) for pure lookups; MySQL/Postgres only. */
+    private void startReplicas(String user, String pass, int maxPool) {
+        List<String> urls = plugin.getConfig().getStringList("database.replicas");
+        if (urls.isEmpty()) return;
+        if (dialect == Dialect.SQLITE) {
+            plugin.getLogger().warning("database.replicas is ignored for SQLite");
+            return;
+        }
+        List<Map.Entry<String, DataSource>> pools = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            HikariConfig cfg = new HikariConfig();
+            cfg.setJdbcUrl(urls.get(i));
+            if (!user.isBlank()) cfg.setUsername(user);
+            if (!pass.isBlank()) cfg.setPassword(pass);
+            cfg.setPoolName("LogDO2-replica-" + (i + 1));
+            cfg.setMaximumPoolSize(maxPool);
+            cfg.setKeepaliveTime(30_000);
+            cfg.setConnectionTimeout(1_000); // an unreachable replica falls back to the primary, so fail fast
+            cfg.setInitializationFailTimeout(-1); // start even if a replica is down
+            cfg.setReadOnly(true);
+            pools.add(Map.entry("replica-" + (i + 1), measured(new HikariDataSource(cfg))));
+        }
+        this.replicas = new ReplicaRouter(pools, ReplicaRouter.probeFor(dialect),
+                plugin.getConfig().getLong("database.replicaLag.maxMillis", 2000L),
+                plugin.getConfig().getLong("database.replicaLag.checkMillis", 1000L));
+        tx.useReplicas(replicas);
+    }
+
+    /**
+     * WAL journal with one write connection, fed by the {@link SqliteWriteQueue} thread, and a read-only pool.
+     * Readers never block the writer and vice versa; writers no longer fight over the file lock.
+     */
+    private void startSqliteWriterMode(String url) {
+        int busyTimeout = plugin.getConfig().getInt("database.sqlite.busyTimeoutMillis", 5000);
+
+        HikariConfig write = sqliteConfig(url, "LogDO2-sqlite-write", 1, busyTimeout);
+        write.addDataSourceProperty("journal_mode", "WAL");
+        // WAL + NORMAL: a power loss may drop the last commits, but never corrupts the file
+        write.addDataSourceProperty("synchronous", "NORMAL");
+        write.addDataSourceProperty("foreign_keys", "true");
+        this.ds = new HikariDataSource(write); // opens the file first, so WAL is on before any reader connects
+
+        int readers = Math.max(1, plugin.getConfig().getInt("database.sqlite.readPoolSize", 4));
+        HikariConfig read = sqliteConfig(url, "LogDO2-sqlite-read", readers, busyTimeout);
+        read.setConnectionInitSql("PRAGMA query_only=1");
+        this.readDs = new HikariDataSource(read);
+
+        this.tx = new TransactionalDataSource(measured(readDs), measured(ds), plugin.getConfig().getInt("database.sqlite.maxBatch", 64));
+    }
+
+    /** Starts after the migrations, so its first VACUUM never races a schema change. */
+    private void startSqliteMaintenance(String url) {
+        if (readDs != null) {
+            // The read pool is query_only; checkpoints get their own connection instead of the writer's
+            HikariConfig cfg = sqliteConfig(url, "LogDO2-sqlite-checkpoint", 1,
+                    plugin.getConfig().getInt("database.sqlite.busyTimeoutMillis", 5000));
+            cfg.setMinimumIdle(0);
+            this.checkpointDs = new HikariDataSource(cfg);
+        }
+        this.maintenance = new SqliteMaintenance(tx, checkpointDs, new SqliteMaintenance.Settings(
+                plugin.getConfig().getLong("database.sqlite.maintenance.quietJoinsPerMinute", 2L),
+                plugin.getConfig().getLong("database.sqlite.maintenance.optimizeIntervalMinutes", 60L),
+                plugin.getConfig().getInt("database.sqlite.maintenance.vacuumPagesPerStep", 256)),
+                () -> JdbcFlow.runs(JdbcFlow.JOIN));
+        maintenance.start(plugin.getConfig().getLong("database.sqlite.maintenance.checkSeconds", 60L));
+    }
+
+    private static HikariConfig sqliteConfig(String url, String poolName, int size, int busyTimeout) {
+        HikariConfig cfg = new HikariConfig();
+        cfg.setJdbcUrl(url);
+        cfg.setPoolName(poolName);
+        cfg.setMaximumPoolSize(size);
+        cfg.setKeepaliveTime(30_000);
+        cfg.setConnectionTimeout(15_000);
+        // sqlite-jdbc reads these driver properties as connection pragmas
+        cfg.addDataSourceProperty("busy_timeout", String.valueOf(busyTimeout));
+        return cfg;
     }
 
     public void stop() {
+        if (maintenance != null) {
+            maintenance.close();
+            plugin.getLogger().info("SQLite maintenance: " + maintenance.statsLine());
+        }
+        if (checkpointDs != null) checkpointDs.close();
+        if (tx != null) tx.close(); // commits queued writes while the write connection is still open
+        if (replicas != null) {
+            plugin.getLogger().info("Read replicas: " + replicas.statsLine());
+            replicas.close();
+        }
+        if (readDs != null) readDs.close();
         if (ds != null) ds.close();
     }
 
-    public DataSource dataSource() { return ds; }
+    /** Pool view that joins the calling thread's {@link #unitOfWork()} transaction, if any. */
+    public DataSource dataSource() { return tx; }
+
+    public TransactionalDataSource unitOfWork() { return tx; }
 
     public Dialect dialect() { return dialect; }
 
+    /** Storage format of profile UUIDs and IPs; pass it to every repo that touches those columns. */
+    public KeyCodec keyCodec() { return keyCodec; }
+
+    /** Statement stats of everything behind {@link #dataSource()}; null when disabled. */
+    public JdbcMetrics metrics() { return metrics; }
+
+    /** Migrations and key conversion use the raw pools, so only runtime statements are counted. */
+    private DataSource measured(DataSource pool) {
+        return metrics != null ? metrics.wrap(pool) : pool;
+    }
+
     private static Dialect detectDialect(String url, String driverHint) {
         String u = (url == null ? "" : url).toLowerCase(Locale.ROOT);
         String d = (driverHint == null ? "" : driverHint).toLowerCase(Locale.ROOT);
@@ -63,28 +196,4 @@ public class DatabaseManager {
         if (u.startsWith("jdbc:postgresql:") || d.contains("postgres")) return Dialect.POSTGRES;
         throw new IllegalStateException("Unknown database dialect for url=" + url);
     }
-
-    private void runMigrations() {
-        String path = switch (dialect) {
-            case SQLITE   -> "db/migration/sqlite/V1__init.sql";
-            case POSTGRES -> "db/migration/postgres/V1__init.sql";
-            case MYSQL    -> "db/migration/mysql/V1__init.sql";
-        };
-        try (var in = java.util.Objects.requireNonNull(
-                plugin.getResource(path), "Migration file not found: " + path
-        )) {
-            String sql = new java.io.BufferedReader(new java.io.InputStreamReader(in, java.nio.charset.StandardCharsets.UTF_8))
-                    .lines().collect(java.util.stream.Collectors.joining("\n"));
-            try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
-
-                for (String stmt : sql.split(";\\s*\\n")) {
-                    String s = stmt.trim();
-                    if (s.isEmpty()) continue;
-                    st.execute(s);
-                }
-            }
-        } catch (Exception ex) {
-            throw new RuntimeException("Migration failed (" + path + "): " + ex.getMessage(), ex);
-        }
-    }
 }
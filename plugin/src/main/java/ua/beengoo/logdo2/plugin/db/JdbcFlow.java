@@ -0,0 +1,77 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Names the LogDO2 flow the current thread's statements belong to, for {@link JdbcMetrics}.
+ * Set at the entry points (listeners, web endpoint, Discord handlers); the I/O executor and the SQLite
+ * writer carry it over to their threads. Untagged statements count as {@link #LOOKUP}.
+ */
+public final class JdbcFlow {
+    public static final String JOIN = "join";
+    public static final String PRELOGIN = "prelogin";
+    public static final String OAUTH_CALLBACK = "oauth_callback";
+    public static final String IP_CONFIRM = "ip_confirm";
+    public static final String SLASH_LOGIN = "slash_login";
+    public static final String LOOKUP = "lookup";
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+    private static final Map<String, LongAdder> RUNS = new ConcurrentHashMap<>();
+
+    private JdbcFlow() {}
+
+    public static String current() {
+        String flow = CURRENT.get();
+        return flow != null ? flow : LOOKUP;
+    }
+
+    public static void run(String flow, Runnable work) {
+        call(flow, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    public static <T> T call(String flow, Supplier<T> work) {
+        if (CURRENT.get() == null) RUNS.computeIfAbsent(flow, f -> new LongAdder()).increment();
+        return within(flow, work);
+    }
+
+    private static <T> T within(String flow, Supplier<T> work) {
+        String outer = CURRENT.get();
+        CURRENT.set(flow);
+        try {
+            return work.get();
+        } finally {
+            if (outer == null) CURRENT.remove();
+            else CURRENT.set(outer);
+        }
+    }
+
+    /** {@code task} tagged with the caller's flow, for handing to another thread. */
+    public static Runnable propagate(Runnable task) {
+        String flow = CURRENT.get();
+        return flow == null ? task : () -> within(flow, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    public static <T> Supplier<T> propagate(Supplier<T> work) {
+        String flow = CURRENT.get();
+        return flow == null ? work : () -> within(flow, work);
+    }
+
+    /** How often each flow was entered (outermost only; carried-over parts are not counted again). */
+    static long runs(String flow) {
+        LongAdder runs = RUNS.get(flow);
+        return runs == null ? 0 : runs.sum();
+    }
+
+    static void resetRuns() {
+        RUNS.clear();
+    }
+}
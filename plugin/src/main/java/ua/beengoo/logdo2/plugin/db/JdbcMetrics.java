@@ -0,0 +1,198 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Statement counts, rows and latency per SQL shape and {@link JdbcFlow}, collected by proxies around the
+ * pools. Statements slower than the threshold are logged by shape (placeholders only, never values).
+ */
+@Slf4j
+public final class JdbcMetrics {
+    private static final int MAX_KEYS = 2048; // flow + shape pairs; later ones are pooled under OTHER
+    private static final String OTHER = "(other)";
+    private static final Pattern SPACE = Pattern.compile("\\s+");
+    private static final Pattern VALUE_ROWS = Pattern.compile("(\\(\\?(?:, ?\\?)*\\))(?:, ?\\(\\?(?:, ?\\?)*\\))+");
+
+    public record Stat(String flow, String shape, long count, long rows, long totalMicros, long maxMicros) {}
+
+    private record Key(String flow, String shape) {}
+
+    private static final class Counter {
+        final LongAdder count = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+    }
+
+    private final Map<Key, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, String> shapes = new ConcurrentHashMap<>();
+    private final long slowNanos;
+
+    /** @param slowMillis log statements at least this slow; 0 turns the log off */
+    public JdbcMetrics(long slowMillis) {
+        this.slowNanos = slowMillis * 1_000_000L;
+    }
+
+    /** Every connection, statement and result set obtained through the returned pool is measured. */
+    public DataSource wrap(DataSource ds) {
+        return proxy(DataSource.class, (m, args) -> {
+            Object result = invoke(ds, m, args);
+            return result instanceof Connection c && m.getName().equals("getConnection") ? connection(c) : result;
+        });
+    }
+
+    /** Sorted by total time, slowest first. */
+    public List<Stat> snapshot() {
+        List<Stat> out = new ArrayList<>(counters.size());
+        counters.forEach((k, c) -> out.add(new Stat(k.flow(), k.shape(), c.count.sum(), c.rows.sum(),
+                c.nanos.sum() / 1000, c.maxNanos.get() / 1000)));
+        out.sort(Comparator.comparingLong(Stat::totalMicros).reversed());
+        return out;
+    }
+
+    /** Per-flow totals (statements per run where the flow is tagged), then the {@code top} costliest shapes. */
+    public List<String> report(int top) {
+        List<Stat> stats = snapshot();
+        Map<String, long[]> byFlow = new TreeMap<>();
+        for (Stat s : stats) {
+            long[] t = byFlow.computeIfAbsent(s.flow(), f -> new long[3]);
+            t[0] += s.count();
+            t[1] += s.rows();
+            t[2] += s.totalMicros();
+        }
+        List<String> lines = new ArrayList<>();
+        byFlow.forEach((flow, t) -> {
+            long runs = JdbcFlow.runs(flow);
+            lines.add(String.format(Locale.ROOT, "%s: %d stmts, %d rows, %.1f ms%s", flow, t[0], t[1], t[2] / 1000.0,
+                    runs > 0 ? String.format(Locale.ROOT, " | %d runs, %.1f stmts/run, %.2f ms/run",
+                            runs, (double) t[0] / runs, t[2] / 1000.0 / runs) : ""));
+        });
+        for (Stat s : stats.subList(0, Math.min(top, stats.size()))) {
+            lines.add(String.format(Locale.ROOT, "  [%s] %dx, avg %.2f ms, max %.2f ms, %d rows: %s", s.flow(), s.count(),
+                    s.totalMicros() / 1000.0 / Math.max(1, s.count()), s.maxMicros() / 1000.0, s.rows(), s.shape()));
+        }
+        return lines;
+    }
+
+    public void reset() {
+        counters.clear();
+        JdbcFlow.resetRuns();
+    }
+
+    /** Whitespace collapsed and multi-row VALUES lists folded, so batch sizes share one entry. */
+    static String shape(String sql) {
+        if (sql == null) return "(batch)";
+        String s = SPACE.matcher(sql.strip()).replaceAll(" ");
+        return VALUE_ROWS.matcher(s).replaceAll("$1, ...");
+    }
+
+    // ===== recording =====
+
+    private Counter record(String sql, long nanos) {
+        String flow = JdbcFlow.current();
+        String shape = sql == null ? shape(null) : shapes.computeIfAbsent(sql, JdbcMetrics::shape);
+        if (shapes.size() > MAX_KEYS) shapes.clear(); // raw SQL is only a cache key
+        Key key = new Key(flow, shape);
+        Counter c = counters.get(key);
+        if (c == null) {
+            if (counters.size() >= MAX_KEYS) key = new Key(flow, OTHER);
+            c = counters.computeIfAbsent(key, k -> new Counter());
+        }
+        c.count.increment();
+        c.nanos.add(nanos);
+        c.maxNanos.accumulateAndGet(nanos, Math::max);
+        if (slowNanos > 0 && nanos >= slowNanos) {
+            log.warn("Slow SQL in {} ({} ms): {}", flow, nanos / 1_000_000, shape);
+        }
+        return c;
+    }
+
+    private Connection connection(Connection c) {
+        return proxy(Connection.class, (m, args) -> {
+            Object result = invoke(c, m, args);
+            return switch (m.getName()) {
+                case "prepareStatement" -> statement(PreparedStatement.class, (Statement) result, (String) args[0]);
+                case "prepareCall" -> statement(CallableStatement.class, (Statement) result, (String) args[0]);
+                case "createStatement" -> statement(Statement.class, (Statement) result, null);
+                default -> result;
+            };
+        });
+    }
+
+    private <S extends Statement> S statement(Class<S> type, Statement st, String preparedSql) {
+        Counter[] last = new Counter[1];
+        return proxy(type, (m, args) -> {
+            String name = m.getName();
+            if (!name.startsWith("execute")) {
+                Object result = invoke(st, m, args);
+                // Results of a plain execute() are fetched afterwards
+                return name.equals("getResultSet") && result instanceof ResultSet rs && last[0] != null
+                        ? resultSet(rs, last[0]) : result;
+            }
+            String sql = preparedSql != null ? preparedSql
+                    : args != null && args.length > 0 && args[0] instanceof String s ? s : null;
+            long started = System.nanoTime();
+            Object result;
+            try {
+                result = invoke(st, m, args);
+            } finally {
+                last[0] = record(sql, System.nanoTime() - started);
+            }
+            Counter counter = last[0];
+            if (result instanceof ResultSet rs) return resultSet(rs, counter);
+            if (result instanceof Integer n) counter.rows.add(Math.max(0, n));
+            else if (result instanceof Long n) counter.rows.add(Math.max(0, n));
+            else if (result instanceof int[] counts) for (int n : counts) counter.rows.add(Math.max(0, n));
+            else if (result instanceof long[] counts) for (long n : counts) counter.rows.add(Math.max(0, n));
+            else if (Boolean.FALSE.equals(result)) counter.rows.add(Math.max(0, st.getUpdateCount()));
+            return result;
+        });
+    }
+
+    private static ResultSet resultSet(ResultSet rs, Counter counter) {
+        return proxy(ResultSet.class, (m, args) -> {
+            Object result = invoke(rs, m, args);
+            if (m.getName().equals("next") && Boolean.TRUE.equals(result)) counter.rows.increment();
+            return result;
+        });
+    }
+
+    // ===== proxies =====
+
+    private interface Handler {
+        Object handle(Method m, Object[] args) throws Throwable;
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (p, m, args) -> handler.handle(m, args)));
+    }
+
+    private static Object invoke(Object target, Method m, Object[] args) throws Throwable {
+        try {
+            return m.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
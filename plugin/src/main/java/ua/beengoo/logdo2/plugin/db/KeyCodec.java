@@ -0,0 +1,99 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * How profile UUIDs and IP addresses are stored: canonical text, or raw bytes (16-byte UUIDs,
+ * 4/16-byte IPs) once {@link BinaryKeyConverter} has converted the database. Repos bind and read
+ * those columns only through this class.
+ */
+public final class KeyCodec {
+    public static final KeyCodec TEXT = new KeyCodec(false);
+    public static final KeyCodec BINARY = new KeyCodec(true);
+
+    /** Dotted IPv4 or anything with a colon (IPv6); getByName never resolves these through DNS. */
+    private static final Pattern IP_LITERAL = Pattern.compile("(\\d{1,3}\\.){3}\\d{1,3}|[0-9A-Fa-f.]*:[0-9A-Fa-f:.]*");
+
+    private final boolean binary;
+
+    private KeyCodec(boolean binary) {
+        this.binary = binary;
+    }
+
+    public boolean binary() { return binary; }
+
+    public void bindUuid(PreparedStatement ps, int index, UUID uuid) throws SQLException {
+        if (binary) ps.setBytes(index, uuidBytes(uuid));
+        else ps.setString(index, uuid.toString());
+    }
+
+    public UUID uuid(ResultSet rs, int index) throws SQLException {
+        if (binary) {
+            byte[] b = rs.getBytes(index);
+            return b == null ? null : uuidFromBytes(b);
+        }
+        String s = rs.getString(index);
+        return s == null ? null : UUID.fromString(s);
+    }
+
+    public void bindIp(PreparedStatement ps, int index, String ip) throws SQLException {
+        if (binary) ps.setBytes(index, ip == null ? null : ipBytes(ip));
+        else ps.setString(index, ip);
+    }
+
+    public String ip(ResultSet rs, int index) throws SQLException {
+        if (binary) {
+            byte[] b = rs.getBytes(index);
+            return b == null ? null : ipFromBytes(b);
+        }
+        return rs.getString(index);
+    }
+
+    // ===== formats =====
+
+    static byte[] uuidBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    static UUID uuidFromBytes(byte[] b) {
+        if (b.length != 16) throw new IllegalArgumentException("UUID must be 16 bytes, got " + b.length);
+        ByteBuffer buf = ByteBuffer.wrap(b);
+        return new UUID(buf.getLong(), buf.getLong());
+    }
+
+    /** Placeholder the listeners use when a player's address is not available. */
+    static final String UNKNOWN_IP = "unknown";
+
+    /**
+     * 4 bytes for IPv4 (including IPv4-mapped IPv6), 16 for IPv6. Only literals are parsed, never host names;
+     * anything else (the {@value #UNKNOWN_IP} placeholder) is stored as zero bytes.
+     */
+    static byte[] ipBytes(String ip) {
+        if (!IP_LITERAL.matcher(ip).matches()) return new byte[0];
+        try {
+            return InetAddress.getByName(ip).getAddress();
+        } catch (UnknownHostException e) {
+            return new byte[0];
+        }
+    }
+
+    /** Same text form as {@code InetAddress#getHostAddress()}, which is what the join flow compares against. */
+    static String ipFromBytes(byte[] b) {
+        if (b.length == 0) return UNKNOWN_IP;
+        try {
+            return InetAddress.getByAddress(b).getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("IP must be 4 or 16 bytes, got " + b.length, e);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies {@code db/migration/<dialect>/V{n}__*.sql} in order, each once and in its own transaction,
+ * and records it in {@code schema_version} with a SHA-256 checksum. A released script must never change:
+ * a checksum mismatch stops startup. Databases created before {@code schema_version} existed are
+ * baselined at V1. MySQL commits DDL implicitly, so a MySQL script that fails halfway is not rolled back.
+ * <p>
+ * Servers sharing a database migrate one at a time: the run holds a cross-process lock ({@code GET_LOCK} on
+ * MySQL, a session advisory lock on Postgres) and reads {@code schema_version} only once it has it. On SQLite
+ * the whole run is one {@code BEGIN IMMEDIATE} transaction, so it is also all or nothing there.
+ */
+@Slf4j
+final class MigrationRunner {
+    /** Every script, oldest first. Append new ones; never edit or reorder released ones. */
+    static final List<String> SCRIPTS = List.of(
+            "V1__init.sql",
+            "V2__ban_progress.sql",
+            "V3__lookup_indexes.sql",
+            "V4__meta.sql",
+            "V5__incremental_vacuum.sql"
+    );
+
+    private static final Pattern NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+    private static final String MYSQL_LOCK = "logdo2_migrate";
+    private static final long POSTGRES_LOCK = 0x4C6F67444F32L; // "LogDO2"
+    private static final int LOCK_WAIT_SECONDS = 600;
+
+    private final DataSource ds;
+    private final DatabaseManager.Dialect dialect;
+    private final Function<String, InputStream> resources;
+
+    MigrationRunner(DataSource ds, DatabaseManager.Dialect dialect, Function<String, InputStream> resources) {
+        this.ds = ds;
+        this.dialect = dialect;
+        this.resources = resources;
+    }
+
+    record Script(int version, String description, String path, String sql, String checksum) {}
+
+    static int latestVersion() {
+        return SCRIPTS.size();
+    }
+
+    /** @return how many scripts were applied; 0 when the schema was already current */
+    int migrate() {
+        List<Script> scripts = load();
+        try (Connection c = ds.getConnection()) {
+            lock(c);
+            int count;
+            try {
+                count = migrateLocked(c, scripts);
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    unlock(c, false);
+                } catch (SQLException u) {
+                    e.addSuppressed(u);
+                }
+                throw e;
+            }
+            unlock(c, true);
+            return count;
+        } catch (SQLException e) {
+            throw new RuntimeException("Migration failed: " + e.getMessage(), e);
+        }
+    }
+
+    /** Another server may have migrated while this one waited for the lock, so everything is read here. */
+    private int migrateLocked(Connection c, List<Script> scripts) throws SQLException {
+        Map<Integer, String> applied = readApplied(c);
+        if (applied == null) {
+            createVersionTable(c);
+            applied = new HashMap<>();
+            if (probe(c, "SELECT 1 FROM mc_profiles WHERE 1=0")) {
+                baseline(c, scripts.getFirst());
+                applied.put(1, scripts.getFirst().checksum());
+            }
+        }
+        int newest = applied.keySet().stream().mapToInt(Integer::intValue).max().orElse(0);
+        if (newest > scripts.size()) {
+            log.warn("Database schema is at V{}, newer than this build knows (V{}); was it opened by a newer LogDO2?",
+                    newest, scripts.size());
+        }
+
+        int count = 0;
+        for (Script s : scripts) {
+            String checksum = applied.get(s.version());
+            if (checksum == null) {
+                apply(c, s);
+                count++;
+            } else if (!checksum.equals(s.checksum())) {
+                throw new IllegalStateException("Migration " + s.path() + " was changed after it was applied"
+                        + " (checksum " + checksum + " in schema_version, " + s.checksum() + " now)");
+            }
+        }
+        return count;
+    }
+
+    // ===== lock =====
+
+    private void lock(Connection c) throws SQLException {
+        switch (dialect) {
+            case MYSQL -> {
+                if (!mysqlLock(c, 0)) {
+                    log.info("Waiting for another server to finish migrating the database");
+                    if (!mysqlLock(c, LOCK_WAIT_SECONDS)) {
+                        throw new IllegalStateException("Timed out after " + LOCK_WAIT_SECONDS
+                                + " s waiting for another server's migration (MySQL lock " + MYSQL_LOCK + ")");
+                    }
+                }
+            }
+            case POSTGRES -> {
+                if (!queryBoolean(c, "SELECT pg_try_advisory_lock(?)", POSTGRES_LOCK)) {
+                    log.info("Waiting for another server to finish migrating the database");
+                    queryBoolean(c, "SELECT pg_advisory_lock(?) IS NOT NULL", POSTGRES_LOCK);
+                }
+            }
+            case SQLITE -> {
+                // Takes the write lock now (waiting up to the busy timeout), not at the first write
+                try (Statement st = c.createStatement()) {
+                    st.execute("BEGIN IMMEDIATE");
+                }
+            }
+        }
+    }
+
+    /** Releases the lock; on SQLite commits the run, or rolls all of it back after a failure. */
+    private void unlock(Connection c, boolean success) throws SQLException {
+        switch (dialect) {
+            case MYSQL -> {
+                try (PreparedStatement ps = c.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+                    ps.setString(1, MYSQL_LOCK);
+                    ps.executeQuery().close();
+                }
+            }
+            case POSTGRES -> queryBoolean(c, "SELECT pg_advisory_unlock(?)", POSTGRES_LOCK);
+            case SQLITE -> {
+                try (Statement st = c.createStatement()) {
+                    st.execute(success ? "COMMIT" : "ROLLBACK");
+                }
+            }
+        }
+    }
+
+    /** GET_LOCK answers 1 when granted, 0 on timeout and NULL on error. */
+    private static boolean mysqlLock(Connection c, int waitSeconds) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            ps.setString(1, MYSQL_LOCK);
+            ps.setInt(2, waitSeconds);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getInt(1) == 1;
+            }
+        }
+    }
+
+    private static boolean queryBoolean(Connection c, String sql, long key) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setLong(1, key);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    // ===== steps =====
+
+    /** @return version -> checksum, or null when {@code schema_version} does not exist yet */
+    private static Map<Integer, String> readApplied(Connection c) {
+        Map<Integer, String> out = new HashMap<>();
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT version, checksum FROM schema_version")) {
+            while (rs.next()) out.put(rs.getInt(1), rs.getString(2));
+            return out;
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    private static void createVersionTable(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                    "version INTEGER PRIMARY KEY, " +
+                    "description VARCHAR(200) NOT NULL, " +
+                    "checksum VARCHAR(64) NOT NULL, " +
+                    "installed_at BIGINT NOT NULL, " +
+                    "execution_ms BIGINT NOT NULL)");
+        }
+    }
+
+    /**
+     * Pre-versioning install: V1 ran on every startup, and repos added the platform column and
+     * {@code ban_progress} themselves. Add the column if it is missing and record V1 without running it.
+     */
+    private void baseline(Connection c, Script v1) throws SQLException {
+        if (!probe(c, "SELECT platform FROM mc_profiles WHERE 1=0")) {
+            try (Statement st = c.createStatement()) {
+                st.execute(dialect == DatabaseManager.Dialect.MYSQL
+                        ? "ALTER TABLE mc_profiles ADD COLUMN platform VARCHAR(16)"
+                        : "ALTER TABLE mc_profiles ADD COLUMN platform TEXT");
+            }
+        }
+        record(c, v1, 0);
+        log.info("Existing database baselined at V1");
+    }
+
+    private void apply(Connection c, Script s) throws SQLException {
+        long started = System.nanoTime();
+        if (dialect == DatabaseManager.Dialect.SQLITE) {
+            // Already inside the run's transaction
+            try (Statement st = c.createStatement()) {
+                for (String stmt : statements(s.sql())) st.execute(stmt);
+                record(c, s, (System.nanoTime() - started) / 1_000_000);
+            } catch (SQLException e) {
+                throw new SQLException("Migration " + s.path() + " failed: " + e.getMessage(), e);
+            }
+            log.info("Applied migration {} in {} ms", s.path(), (System.nanoTime() - started) / 1_000_000);
+            return;
+        }
+        c.setAutoCommit(false);
+        try (Statement st = c.createStatement()) {
+            for (String stmt : statements(s.sql())) st.execute(stmt);
+            record(c, s, (System.nanoTime() - started) / 1_000_000);
+            c.commit();
+        } catch (SQLException e) {
+            c.rollback();
+            throw new SQLException("Migration " + s.path() + " failed: " + e.getMessage(), e);
+        } finally {
+            c.setAutoCommit(true);
+        }
+        log.info("Applied migration {} in {} ms", s.path(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private static void record(Connection c, Script s, long executionMs) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(
+                "INSERT INTO schema_version(version, description, checksum, installed_at, execution_ms) VALUES(?,?,?,?,?)")) {
+            ps.setInt(1, s.version());
+            ps.setString(2, s.description());
+            ps.setString(3, s.checksum());
+            ps.setLong(4, Instant.now().getEpochSecond());
+            ps.setLong(5, executionMs);
+            ps.executeUpdate();
+        }
+    }
+
+    private static boolean probe(Connection c, String sql) {
+        try (Statement st = c.createStatement(); ResultSet ignored = st.executeQuery(sql)) {
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // ===== scripts =====
+
+    private List<Script> load() {
+        String dir = "db/migration/" + dialect.name().toLowerCase(Locale.ROOT) + "/";
+        List<Script> out = new ArrayList<>(SCRIPTS.size());
+        for (String name : SCRIPTS) {
+            Matcher m = NAME.matcher(name);
+            if (!m.matches() || Integer.parseInt(m.group(1)) != out.size() + 1) {
+                throw new IllegalStateException("Migration scripts must be named V1__x.sql, V2__y.sql, ... in order: " + name);
+            }
+            String path = dir + name;
+            String sql;
+            try (InputStream in = Objects.requireNonNull(resources.apply(path), "Migration file not found: " + path)) {
+                sql = new String(in.readAllBytes(), StandardCharsets.UTF_8).replace("\r", "");
+            } catch (java.io.IOException e) {
+                throw new RuntimeException(e);
+            }
+            out.add(new Script(out.size() + 1, m.group(2), path, sql, sha256(sql)));
+        }
+        return out;
+    }
+
+    /** One statement per {@code ;} at the end of a line; {@code --} comment lines are dropped. */
+    static List<String> statements(String sql) {
+        StringBuilder body = new StringBuilder();
+        for (String line : sql.split("\n")) {
+            if (!line.strip().startsWith("--")) body.append(line).append('\n');
+        }
+        List<String> out = new ArrayList<>();
+        for (String stmt : body.toString().split(";\\s*\\n")) {
+            String s = stmt.strip();
+            if (s.endsWith(";")) s = s.substring(0, s.length() - 1).strip();
+            if (!s.isEmpty()) out.add(s);
+        }
+        return out;
+    }
+
+    private static String sha256(String sql) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(sql.getBytes(StandardCharsets.UTF_8)));
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
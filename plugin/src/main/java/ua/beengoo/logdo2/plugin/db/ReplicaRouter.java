@@ -0,0 +1,184 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read replicas for pure lookups. Each replica's lag is probed every {@code checkMillis} on its own connection;
+ * a replica is used only while its lag is within {@code maxLagMillis} and it has had time to receive this
+ * server's latest write of the rows being looked up. Otherwise, or when it cannot be reached, the caller reads from the primary.
+ */
+@Slf4j
+final class ReplicaRouter implements AutoCloseable {
+    static final long UNKNOWN = Long.MAX_VALUE;
+
+    /** Replication lag of the server behind {@code c} in milliseconds, {@link #UNKNOWN} when replication is broken. */
+    interface LagProbe {
+        long lagMillis(Connection c) throws SQLException;
+    }
+
+    private static final class Replica {
+        final String name;
+        final DataSource pool;
+        volatile long lagMillis = UNKNOWN;
+
+        Replica(String name, DataSource pool) {
+            this.name = name;
+            this.pool = pool;
+        }
+    }
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final LagProbe probe;
+    private final long maxLagMillis;
+    private final long checkMillis;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong replicaReads = new AtomicLong();
+    private final AtomicLong primaryFallbacks = new AtomicLong();
+    private final ScheduledExecutorService checker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "LogDO2-replica-lag");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** @param pools replica name (for logs) to its pool, in order of preference */
+    ReplicaRouter(List<Map.Entry<String, DataSource>> pools, LagProbe probe, long maxLagMillis, long checkMillis) {
+        for (var e : pools) replicas.add(new Replica(e.getKey(), e.getValue()));
+        this.probe = probe;
+        this.maxLagMillis = maxLagMillis;
+        this.checkMillis = Math.max(100L, checkMillis);
+        checkLag();
+        checker.scheduleWithFixedDelay(this::checkLag, this.checkMillis, this.checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A connection to a caught-up replica, or null when the primary must answer.
+     * @param lastWriteMillis when this server last committed a write the lookup depends on
+     */
+    Connection connection(long lastWriteMillis) {
+        long sinceWrite = System.currentTimeMillis() - lastWriteMillis;
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica r = replicas.get((start + i) % replicas.size());
+            long lag = r.lagMillis;
+            // The lag was measured up to checkMillis ago, so allow for that much on top
+            if (lag > maxLagMillis || sinceWrite <= lag + checkMillis) continue;
+            try {
+                Connection c = r.pool.getConnection();
+                replicaReads.incrementAndGet();
+                return c;
+            } catch (SQLException e) {
+                markLag(r, UNKNOWN, e.getMessage());
+            }
+        }
+        primaryFallbacks.incrementAndGet();
+        return null;
+    }
+
+    /** Writes older than this never keep a usable replica from being read. */
+    long horizonMillis() {
+        return maxLagMillis + checkMillis;
+    }
+
+    void checkLag() {
+        JdbcFlow.run("replica_lag", this::probeAll);
+    }
+
+    private void probeAll() {
+        for (Replica r : replicas) {
+            try (Connection c = r.pool.getConnection()) {
+                markLag(r, probe.lagMillis(c), null);
+            } catch (SQLException | RuntimeException e) {
+                markLag(r, UNKNOWN, e.getMessage());
+            }
+        }
+    }
+
+    private void markLag(Replica r, long lag, String error) {
+        boolean wasUsable = r.lagMillis <= maxLagMillis;
+        boolean usable = lag <= maxLagMillis;
+        r.lagMillis = lag;
+        if (wasUsable && !usable) {
+            log.warn("Read replica {} unusable ({}), reading from the primary",
+                    r.name, error != null ? error : lag == UNKNOWN ? "replication stopped" : "lag " + lag + " ms");
+        } else if (!wasUsable && usable) {
+            log.info("Read replica {} in use (lag {} ms)", r.name, lag);
+        }
+    }
+
+    /** One line for logs: reads served by replicas vs. sent to the primary. */
+    String statsLine() {
+        StringBuilder sb = new StringBuilder("replica reads=").append(replicaReads.get())
+                .append(" primary fallbacks=").append(primaryFallbacks.get());
+        for (Replica r : replicas) {
+            sb.append(' ').append(r.name).append('=').append(r.lagMillis == UNKNOWN ? "down" : r.lagMillis + "ms");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        checker.shutdownNow();
+        for (Replica r : replicas) {
+            try {
+                // The pool may sit behind a measuring proxy
+                if (r.pool.isWrapperFor(AutoCloseable.class)) r.pool.unwrap(AutoCloseable.class).close();
+            } catch (Exception e) {
+                log.warn("Failed to close read replica {}: {}", r.name, e.getMessage());
+            }
+        }
+    }
+
+    /** Native lag queries; both need only a plain login on the replica (MySQL: REPLICATION CLIENT). */
+    static LagProbe probeFor(DatabaseManager.Dialect dialect) {
+        return switch (dialect) {
+            case MYSQL -> ReplicaRouter::mysqlLag;
+            case POSTGRES -> ReplicaRouter::postgresLag;
+            case SQLITE -> c -> { throw new SQLException("SQLite has no read replicas"); };
+        };
+    }
+
+    private static long mysqlLag(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            ResultSet rs;
+            String column;
+            try {
+                rs = st.executeQuery("SHOW REPLICA STATUS");
+                column = "Seconds_Behind_Source";
+            } catch (SQLException e) {
+                rs = st.executeQuery("SHOW SLAVE STATUS"); // before 8.0.22
+                column = "Seconds_Behind_Master";
+            }
+            try (rs) {
+                if (!rs.next()) return 0; // not a replica: nothing to lag behind
+                long seconds = rs.getLong(column);
+                return rs.wasNull() ? UNKNOWN : seconds * 1000 + 999; // whole seconds, rounded up
+            }
+        }
+    }
+
+    private static long postgresLag(Connection c) throws SQLException {
+        String sql = """
+            SELECT CASE WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+                        ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000 END
+        """;
+        try (Statement st = c.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+            rs.next();
+            double millis = rs.getDouble(1);
+            return rs.wasNull() ? UNKNOWN : (long) millis;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Background purge of rows nothing reads any more: expired {@code ban_progress}, stale reserved links and
+ * orphan profiles / Discord accounts. Each table is walked in primary-key order, {@code chunkSize} keys at a
+ * time; every chunk is deleted by its key range in its own short transaction (on the SQLite writer when that
+ * is on), so no statement holds locks for long. The delete re-checks the policy, so rows touched meanwhile stay.
+ */
+@Slf4j
+public final class RetentionJobs implements AutoCloseable {
+
+    /** Told about deleted rows after each chunk commits, so in-memory copies can drop them. */
+    public interface Listener {
+        default void reservedLinkPurged(long discordId, UUID profileUuid) {}
+        default void profilePurged(UUID profileUuid) {}
+    }
+
+    /**
+     * @param banProgress              purge ban rows whose ban ended and whose attempts would be reset anyway
+     * @param reservedLinkMaxAgeSec    inactive links older than this; 0 keeps them
+     * @param orphanProfileMaxAgeSec   unlinked profiles not updated for this long; 0 keeps them
+     * @param orphanDiscordMaxAgeSec   unlinked Discord accounts (with their tokens) not updated for this long; 0 keeps them
+     */
+    public record Settings(boolean banProgress, long reservedLinkMaxAgeSec, long orphanProfileMaxAgeSec,
+                           long orphanDiscordMaxAgeSec, int chunkSize, long chunkPauseMillis) {}
+
+    private enum Policy {
+        BAN_PROGRESS("ban_progress", "ban_progress", "ip",
+                "last_ban_until < ? AND last_attempt < ?"),
+        RESERVED_LINKS("reserved links", "links", "discord_id, mc_uuid",
+                "active = 0 AND created_at < ?"),
+        ORPHAN_PROFILES("orphan profiles", "mc_profiles", "mc_uuid",
+                "updated_at < ? AND NOT EXISTS (SELECT 1 FROM links WHERE links.mc_uuid = mc_profiles.mc_uuid)"),
+        ORPHAN_DISCORD_ACCOUNTS("orphan discord accounts", "discord_accounts", "discord_id",
+                "updated_at < ? AND NOT EXISTS (SELECT 1 FROM links WHERE links.discord_id = discord_accounts.discord_id)");
+
+        final String label;
+        final String table;
+        final String key;
+        final String where;
+        final int keyColumns;
+
+        Policy(String label, String table, String key, String where) {
+            this.label = label;
+            this.table = table;
+            this.key = key;
+            this.where = where;
+            this.keyColumns = key.split(",").length;
+        }
+
+        /** {@code (a, b) op (?, ?)} for composite keys; row values work on all three dialects. */
+        String compare(String op) {
+            return keyColumns == 1 ? key + " " + op + " ?" : "(" + key + ") " + op + " (?, ?)";
+        }
+    }
+
+    private final TransactionalDataSource tx;
+    private final DatabaseManager.Dialect dialect;
+    private final KeyCodec codec;
+    private final Settings settings;
+    private final LongSupplier banTrackWindowSec;
+    private final List<Listener> listeners = new ArrayList<>();
+    private final Map<Policy, AtomicLong> totals = new LinkedHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "LogDO2-retention");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private volatile boolean closed;
+
+    /** @param banTrackWindowSec read on every run, so a config reload applies; 0 keeps ban rows forever */
+    public RetentionJobs(TransactionalDataSource tx, DatabaseManager.Dialect dialect, KeyCodec codec,
+                         Settings settings, LongSupplier banTrackWindowSec) {
+        this.tx = tx;
+        this.dialect = dialect;
+        this.codec = codec;
+        this.settings = settings;
+        this.banTrackWindowSec = banTrackWindowSec;
+        for (Policy p : Policy.values()) totals.put(p, new AtomicLong());
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /** First run after {@code initialDelayMinutes}, then every {@code intervalMinutes}. */
+    public void start(long initialDelayMinutes, long intervalMinutes) {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                runOnce();
+            } catch (RuntimeException e) {
+                log.warn("Retention run failed, retrying next interval", e);
+            }
+        }, initialDelayMinutes, Math.max(1L, intervalMinutes), TimeUnit.MINUTES);
+    }
+
+    /** One pass over every enabled policy; returns the rows deleted per policy. */
+    Map<String, Integer> runOnce() {
+        long started = System.nanoTime();
+        long now = System.currentTimeMillis() / 1000;
+        Map<String, Integer> purged = new LinkedHashMap<>();
+        JdbcFlow.run("retention", () -> {
+            long window = banTrackWindowSec.getAsLong();
+            if (settings.banProgress() && window > 0) purge(purged, Policy.BAN_PROGRESS, now, now - window);
+            // Links first, so profiles whose last reserved link just went can follow in the same run
+            if (settings.reservedLinkMaxAgeSec() > 0) {
+                purge(purged, Policy.RESERVED_LINKS, now - settings.reservedLinkMaxAgeSec());
+            }
+            if (settings.orphanProfileMaxAgeSec() > 0) {
+                purge(purged, Policy.ORPHAN_PROFILES, now - settings.orphanProfileMaxAgeSec());
+            }
+            if (settings.orphanDiscordMaxAgeSec() > 0) {
+                purge(purged, Policy.ORPHAN_DISCORD_ACCOUNTS, now - settings.orphanDiscordMaxAgeSec());
+            }
+        });
+        int rows = purged.values().stream().mapToInt(Integer::intValue).sum();
+        long ms = (System.nanoTime() - started) / 1_000_000;
+        if (rows > 0) log.info("Retention purged {} in {} ms", describe(purged), ms);
+        else log.debug("Retention found nothing to purge ({} ms)", ms);
+        return purged;
+    }
+
+    /** Totals since startup, for logs. */
+    public String statsLine() {
+        StringBuilder sb = new StringBuilder();
+        for (var e : totals.entrySet()) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(e.getKey().label).append('=').append(e.getValue().get());
+        }
+        return sb.toString();
+    }
+
+    /** Stops after the chunk in progress. */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        try {
+            if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) log.warn("Retention run did not stop in time");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void purge(Map<String, Integer> purged, Policy p, long... params) {
+        int total = 0;
+        Object[] after = null;
+        while (!closed) {
+            List<Object[]> keys = scan(p, after, params);
+            if (keys.isEmpty()) break;
+            Object[] from = keys.getFirst();
+            Object[] to = keys.getLast();
+            total += tx.inTransaction(() -> deleteRange(p, from, to, params));
+            if (keys.size() < settings.chunkSize()) break;
+            after = to;
+            if (!pause()) break;
+        }
+        totals.get(p).addAndGet(total);
+        purged.put(p.label, total);
+    }
+
+    /** The next chunk of matching keys after {@code after}, in key order; a plain read, no locks held. */
+    private List<Object[]> scan(Policy p, Object[] after, long[] params) {
+        String sql = "SELECT " + p.key + " FROM " + p.table
+                + " WHERE " + (after != null ? p.compare(">") + " AND " : "") + p.where
+                + " ORDER BY " + p.key + " LIMIT ?";
+        List<Object[]> keys = new ArrayList<>(settings.chunkSize());
+        try (Connection c = tx.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+            int i = 1;
+            if (after != null) i = bindKey(ps, i, after);
+            for (long param : params) ps.setLong(i++, param);
+            ps.setInt(i, settings.chunkSize());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Object[] key = new Object[p.keyColumns];
+                    for (int k = 0; k < key.length; k++) key[k] = rs.getObject(k + 1);
+                    keys.add(key);
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return keys;
+    }
+
+    /**
+     * Locks the rows of the range that still match, then deletes them. The SELECT tells the listeners exactly
+     * which rows went; MySQL/Postgres lock them so nothing can revive them in between, SQLite has one writer.
+     */
+    private int deleteRange(Policy p, Object[] from, Object[] to, long[] params) {
+        String range = p.compare(">=") + " AND " + p.compare("<=") + " AND " + p.where;
+        String select = "SELECT " + p.key + " FROM " + p.table + " WHERE " + range
+                + (dialect == DatabaseManager.Dialect.SQLITE ? "" : " FOR UPDATE");
+        String delete = "DELETE FROM " + p.table + " WHERE " + range;
+        try (Connection c = tx.getConnection()) {
+            List<Runnable> notify = new ArrayList<>();
+            List<Object> keys = new ArrayList<>(); // for read-your-writes on replicas
+            try (PreparedStatement ps = c.prepareStatement(select)) {
+                bindRange(ps, from, to, params);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        if (p == Policy.RESERVED_LINKS) {
+                            long discordId = rs.getLong(1);
+                            UUID uuid = codec.uuid(rs, 2);
+                            keys.add(discordId);
+                            keys.add(uuid);
+                            for (Listener l : listeners) notify.add(() -> l.reservedLinkPurged(discordId, uuid));
+                        } else if (p == Policy.ORPHAN_PROFILES) {
+                            UUID uuid = codec.uuid(rs, 1);
+                            keys.add(uuid);
+                            for (Listener l : listeners) notify.add(() -> l.profilePurged(uuid));
+                        }
+                    }
+                }
+            }
+            int deleted;
+            try (PreparedStatement ps = c.prepareStatement(delete)) {
+                bindRange(ps, from, to, params);
+                deleted = ps.executeUpdate();
+            }
+            if (!keys.isEmpty()) tx.afterCommit(() -> tx.wrote(keys.toArray()));
+            notify.forEach(tx::afterCommit);
+            return deleted;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void bindRange(PreparedStatement ps, Object[] from, Object[] to, long[] params) throws SQLException {
+        int i = bindKey(ps, 1, from);
+        i = bindKey(ps, i, to);
+        for (long param : params) ps.setLong(i++, param);
+    }
+
+    /** Keys go back exactly as read, so text and binary UUID/IP columns need no decoding. */
+    private static int bindKey(PreparedStatement ps, int i, Object[] key) throws SQLException {
+        for (Object part : key) ps.setObject(i++, part);
+        return i;
+    }
+
+    private boolean pause() {
+        if (settings.chunkPauseMillis() <= 0) return true;
+        try {
+            Thread.sleep(settings.chunkPauseMillis()); // lets joins and logins reach the database between chunks
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static String describe(Map<String, Integer> purged) {
+        StringBuilder sb = new StringBuilder();
+        for (var e : purged.entrySet()) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(e.getKey()).append('=').append(e.getValue());
+        }
+        return sb.toString();
+    }
+}
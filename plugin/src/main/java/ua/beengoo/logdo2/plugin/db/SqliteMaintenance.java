@@ -0,0 +1,216 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Low-priority upkeep of the SQLite file, done while the server is quiet (at most {@code quietJoinsPerMinute}
+ * joins per minute since the previous check):
+ * <ul>
+ *   <li>a passive WAL checkpoint on its own connection: copies committed pages into the database file without
+ *       waiting for readers or the writer, so the WAL stays short and the writer's auto-checkpoint rarely fires;</li>
+ *   <li>{@code PRAGMA optimize} every {@code optimizeIntervalMinutes}, which re-analyzes only tables whose size
+ *       changed a lot, i.e. after bulk changes such as a retention purge;</li>
+ *   <li>{@code PRAGMA incremental_vacuum} in steps of {@code vacuumPagesPerStep}, each a separate write so queued
+ *       logins get the writer in between.</li>
+ * </ul>
+ * Incremental vacuum needs {@code auto_vacuum=INCREMENTAL}; a file created without it is converted once by a full
+ * {@code VACUUM}, which rewrites the file and holds writers off meanwhile, so it only ever runs in a quiet window.
+ * Optimize and vacuum postponed by a busy server run anyway once they are {@link #MAX_DEFER_MILLIS} late.
+ */
+@Slf4j
+final class SqliteMaintenance implements AutoCloseable {
+    static final long MAX_DEFER_MILLIS = TimeUnit.HOURS.toMillis(6);
+    private static final int MAX_VACUUM_STEPS = 64; // per check; the rest waits for the next one
+    private static final int ANALYSIS_LIMIT = 400;  // rows sampled per index by ANALYZE
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    record Settings(long quietJoinsPerMinute, long optimizeIntervalMinutes, int vacuumPagesPerStep) {}
+
+    private final TransactionalDataSource tx;
+    private final DataSource checkpointPool; // null = not in WAL mode
+    private final Settings settings;
+    private final LongSupplier joins;
+    private final AtomicLong checkpoints = new AtomicLong();
+    private final AtomicLong framesCheckpointed = new AtomicLong();
+    private final AtomicLong optimizes = new AtomicLong();
+    private final AtomicLong pagesVacuumed = new AtomicLong();
+    private final AtomicLong busyChecks = new AtomicLong();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "LogDO2-sqlite-maintenance");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private long lastJoins;
+    private long lastCheck;
+    private long lastOptimize;
+    private long lastVacuum;
+    private boolean incremental; // auto_vacuum=INCREMENTAL; until then vacuum steps would free nothing
+    private long nextConversion; // after a failed conversion (e.g. busy, no disk space for the copy)
+
+    /**
+     * @param checkpointPool a connection that may checkpoint and vacuum (not query_only); null without WAL,
+     *                       {@code tx} is then used, whose plain connections can write
+     * @param joins          running count of joins, e.g. {@link JdbcFlow#runs} of {@link JdbcFlow#JOIN}
+     */
+    SqliteMaintenance(TransactionalDataSource tx, DataSource checkpointPool, Settings settings, LongSupplier joins) {
+        this.tx = tx;
+        this.checkpointPool = checkpointPool;
+        this.settings = settings;
+        this.joins = joins;
+        this.lastJoins = joins.getAsLong();
+        this.lastCheck = this.lastOptimize = this.lastVacuum = System.currentTimeMillis();
+    }
+
+    void start(long checkSeconds) {
+        long every = Math.max(10L, checkSeconds);
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                check();
+            } catch (RuntimeException e) {
+                log.warn("SQLite maintenance failed, retrying next check", e);
+            }
+        }, every, every, TimeUnit.SECONDS);
+    }
+
+    void check() {
+        long now = System.currentTimeMillis();
+        boolean quiet = quiet(now);
+        if (!quiet) busyChecks.incrementAndGet();
+        JdbcFlow.run("maintenance", () -> {
+            if (quiet && !incremental && now >= nextConversion) convertToIncremental(now);
+            if (quiet && checkpointPool != null) checkpoint();
+            if (now - lastOptimize >= TimeUnit.MINUTES.toMillis(settings.optimizeIntervalMinutes())
+                    && (quiet || now - lastOptimize >= MAX_DEFER_MILLIS)) {
+                optimize();
+                lastOptimize = now;
+            }
+            if (incremental && (quiet || now - lastVacuum >= MAX_DEFER_MILLIS)) {
+                vacuum();
+                lastVacuum = now;
+            }
+        });
+    }
+
+    /** Join rate since the previous check; a reset counter (/logdo2 dbstats reset) counts from zero. */
+    private boolean quiet(long now) {
+        long total = joins.getAsLong();
+        long delta = total >= lastJoins ? total - lastJoins : total;
+        long elapsed = Math.max(1L, now - lastCheck);
+        lastJoins = total;
+        lastCheck = now;
+        return delta * 60_000L / elapsed <= settings.quietJoinsPerMinute();
+    }
+
+    /** Once per file: a no-op check when it is already incremental. */
+    private void convertToIncremental(long now) {
+        DataSource target = checkpointPool != null ? checkpointPool : tx;
+        try (Connection c = target.getConnection(); Statement st = c.createStatement()) {
+            if (autoVacuum(st) == AUTO_VACUUM_INCREMENTAL) {
+                incremental = true;
+                return;
+            }
+            long started = System.nanoTime();
+            log.info("Converting the SQLite file to incremental auto-vacuum (one full VACUUM)");
+            st.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            st.execute("VACUUM"); // outside any transaction; the setting only takes effect through it
+            incremental = autoVacuum(st) == AUTO_VACUUM_INCREMENTAL;
+            log.info("SQLite VACUUM done in {} ms", (System.nanoTime() - started) / 1_000_000);
+        } catch (SQLException e) {
+            nextConversion = now + MAX_DEFER_MILLIS;
+            log.warn("Incremental auto-vacuum conversion failed, retrying in {} h: {}",
+                    TimeUnit.MILLISECONDS.toHours(MAX_DEFER_MILLIS), e.getMessage());
+        }
+    }
+
+    private static int autoVacuum(Statement st) throws SQLException {
+        try (ResultSet rs = st.executeQuery("PRAGMA auto_vacuum")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private void checkpoint() {
+        try (Connection c = checkpointPool.getConnection(); Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA wal_checkpoint(PASSIVE)")) {
+            rs.next();
+            int walFrames = rs.getInt(2);
+            int copied = rs.getInt(3);
+            checkpoints.incrementAndGet();
+            if (copied > 0) framesCheckpointed.addAndGet(copied);
+            log.debug("WAL checkpoint: {} of {} frames in the database file", copied, walFrames);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void optimize() {
+        tx.write(() -> {
+            try (Connection c = tx.getConnection(); Statement st = c.createStatement()) {
+                st.execute("PRAGMA analysis_limit=" + ANALYSIS_LIMIT);
+                st.execute("PRAGMA optimize");
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+            return null;
+        });
+        optimizes.incrementAndGet();
+    }
+
+    private void vacuum() {
+        int step = Math.max(1, settings.vacuumPagesPerStep());
+        for (int i = 0; i < MAX_VACUUM_STEPS && freePages() > 0; i++) {
+            int freed = tx.write(() -> {
+                // One result row per page freed; the pragma only runs as far as it is stepped
+                try (Connection c = tx.getConnection(); Statement st = c.createStatement();
+                     ResultSet rs = st.executeQuery("PRAGMA incremental_vacuum(" + step + ")")) {
+                    int n = 0;
+                    while (rs.next()) n++;
+                    return n;
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            pagesVacuumed.addAndGet(freed);
+            if (freed == 0) break;
+        }
+    }
+
+    private int freePages() {
+        try (Connection c = tx.getConnection(); Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA freelist_count")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Totals since startup, for logs. */
+    String statsLine() {
+        return "checkpoints=" + checkpoints.get() + " (" + framesCheckpointed.get() + " frames)"
+                + " optimize=" + optimizes.get()
+                + " vacuumed pages=" + pagesVacuumed.get()
+                + " incremental=" + incremental
+                + " busy checks=" + busyChecks.get();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) log.warn("SQLite maintenance did not stop in time");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
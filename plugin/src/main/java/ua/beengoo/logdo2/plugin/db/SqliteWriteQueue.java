@@ -0,0 +1,155 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The single SQLite writer: callers queue their write and wait; one thread takes up to {@code maxBatch}
+ * queued writes, runs each under its own savepoint on the write connection and commits them together
+ * (group commit, one WAL sync per batch). A failing write rolls back to its savepoint and only its caller
+ * sees the exception; a failing commit fails the whole batch. After-commit hooks run on this thread.
+ */
+@Slf4j
+final class SqliteWriteQueue implements AutoCloseable {
+    private static final class Task<T> {
+        final Supplier<T> work;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        T value;
+        RuntimeException failure;
+        List<Runnable> afterCommit = List.of();
+
+        Task(Supplier<T> work) { this.work = work; }
+
+        void complete() {
+            if (failure != null) result.completeExceptionally(failure);
+            else result.complete(value);
+        }
+    }
+
+    private final DataSource writePool;
+    private final TransactionalDataSource owner;
+    private final int maxBatch;
+    private final BlockingQueue<Task<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    SqliteWriteQueue(DataSource writePool, TransactionalDataSource owner, int maxBatch) {
+        this.writePool = writePool;
+        this.owner = owner;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.thread = new Thread(this::loop, "LogDO2-sqlite-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Queues {@code work} and waits for its batch to commit; its exception is rethrown here. */
+    <T> T submit(Supplier<T> work) {
+        if (Thread.currentThread() == thread) {
+            // Hooks run after the batch is unbound; waiting on our own queue would never return
+            throw new IllegalStateException("Write submitted from an after-commit hook");
+        }
+        if (closed) throw new IllegalStateException("SQLite writer is closed");
+        Task<T> task = new Task<>(JdbcFlow.propagate(work));
+        queue.add(task);
+        if (closed && queue.remove(task)) throw new IllegalStateException("SQLite writer is closed");
+        try {
+            return task.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException r) throw r;
+            if (e.getCause() instanceof Error err) throw err;
+            throw e;
+        }
+    }
+
+    /** Commits what is queued, then stops the thread. */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) log.error("SQLite writer did not finish, {} writes still queued", queue.size());
+    }
+
+    private void loop() {
+        List<Task<?>> batch = new ArrayList<>(maxBatch);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Task<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+                runBatch(batch);
+            } catch (InterruptedException e) {
+                // only close() stops the loop, once the queue is empty
+            } catch (Throwable t) {
+                log.error("SQLite writer failed a batch of {}", batch.size(), t);
+                RuntimeException failure = t instanceof RuntimeException r ? r : new RuntimeException(t);
+                for (Task<?> task : batch) task.result.completeExceptionally(failure);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void runBatch(List<Task<?>> batch) throws SQLException {
+        Connection real = writePool.getConnection();
+        try {
+            real.setAutoCommit(false);
+            try {
+                for (Task<?> task : batch) run(real, task);
+                real.commit();
+            } catch (SQLException | RuntimeException e) {
+                RuntimeException failure = e instanceof RuntimeException r ? r : new RuntimeException(e);
+                try {
+                    real.rollback();
+                } catch (SQLException ex) {
+                    failure.addSuppressed(ex);
+                }
+                owner.rolledBack(failure);
+                for (Task<?> task : batch) {
+                    if (task.failure == null) task.failure = failure;
+                    task.afterCommit = List.of();
+                }
+            }
+        } finally {
+            TransactionalDataSource.release(real);
+        }
+        for (Task<?> task : batch) {
+            TransactionalDataSource.runAfterCommit(task.afterCommit);
+            task.complete();
+        }
+    }
+
+    private <T> void run(Connection real, Task<T> task) throws SQLException {
+        Savepoint savepoint = real.setSavepoint();
+        TransactionalDataSource.Tx tx = owner.bind(real);
+        try {
+            task.value = task.work.get();
+            if (tx.rollbackOnly) throw new IllegalStateException("Unit of work was marked rollback-only");
+            real.releaseSavepoint(savepoint);
+            task.afterCommit = tx.afterCommit;
+        } catch (RuntimeException e) {
+            real.rollback(savepoint);
+            real.releaseSavepoint(savepoint);
+            task.failure = e;
+            owner.rolledBack(e);
+        } finally {
+            owner.unbind();
+        }
+    }
+}
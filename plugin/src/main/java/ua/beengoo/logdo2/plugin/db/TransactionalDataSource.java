@@ -0,0 +1,331 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import lombok.extern.slf4j.Slf4j;
+import ua.beengoo.logdo2.api.ports.UnitOfWork;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Pool wrapper that is also the JDBC {@link UnitOfWork}.
+ * Inside {@link #inTransaction} every {@link #getConnection()} on that thread returns the same pooled
+ * connection, so the repos need no changes. Their {@code close()}, {@code commit()} and
+ * {@code setAutoCommit()} calls are ignored there, and their {@code rollback()} marks the unit rollback-only.
+ * <p>
+ * In SQLite writer mode plain connections come from a read-only pool, and units of work plus repo
+ * {@link #write writes} run on the single {@link SqliteWriteQueue} thread, which binds its batch
+ * transaction here the same way.
+ * <p>
+ * With read replicas, {@link #readConnection} serves pure lookups from a caught-up replica; everything
+ * else, including reads inside a unit of work or write, stays on the primary. Writes name the rows they
+ * touch (profile UUID, Discord ID, IP), so only lookups of those rows wait for replication.
+ */
+@Slf4j
+public class TransactionalDataSource implements DataSource, UnitOfWork, AutoCloseable {
+    private final DataSource pool;
+    private final SqliteWriteQueue writer; // null = writes use the pool like reads
+    private final ThreadLocal<Tx> current = new ThreadLocal<>();
+    private final List<Runnable> rollbackListeners = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Boolean> writing = new ThreadLocal<>();
+    private volatile ReplicaRouter replicas; // null = reads use the pool
+    private volatile long lastWriteMillis;        // any write; lookups that name no key wait for all of them
+    private volatile long lastUnkeyedWriteMillis; // writes that did not say which rows they touched
+    private final Map<Object, Long> keyWrites = new ConcurrentHashMap<>();
+    private volatile long lastKeyPrune;
+
+    static final class Tx {
+        final Connection real;
+        Connection shared;
+        final List<Runnable> afterCommit = new ArrayList<>();
+        boolean rollbackOnly;
+
+        Tx(Connection real) { this.real = real; }
+    }
+
+    public TransactionalDataSource(DataSource pool) {
+        this.pool = pool;
+        this.writer = null;
+    }
+
+    /**
+     * SQLite writer mode.
+     * @param readPool  read-only connections for everything outside a write
+     * @param writePool one connection, used only by the writer thread
+     */
+    public TransactionalDataSource(DataSource readPool, DataSource writePool, int maxBatch) {
+        this.pool = readPool;
+        this.writer = new SqliteWriteQueue(writePool, this, maxBatch);
+    }
+
+    void useReplicas(ReplicaRouter router) {
+        this.replicas = router;
+    }
+
+    /** Called after every rollback, e.g. to drop caches that may hold uncommitted reads. */
+    public void onRollback(Runnable listener) {
+        rollbackListeners.add(listener);
+    }
+
+    /**
+     * Runs a repo write: inline inside a unit of work or without a writer, otherwise on the writer thread
+     * (waiting for its group commit).
+     * @param keys the rows it touches, for read-your-writes on replicas; none = possibly any row
+     */
+    public <T> T write(Supplier<T> work, Object... keys) {
+        if (current.get() != null || writing.get() != null) return touching(work, keys);
+        writing.set(Boolean.TRUE);
+        try {
+            return writer != null ? writer.submit(() -> touching(work, keys)) : touching(work, keys);
+        } finally {
+            writing.remove();
+        }
+    }
+
+    /** Stamps the keys once the surrounding transaction commits; a failure outside one may have committed part. */
+    private <T> T touching(Supplier<T> work, Object[] keys) {
+        try {
+            return work.get();
+        } finally {
+            afterCommit(() -> wrote(keys));
+        }
+    }
+
+    /** Records a committed write of these rows; none = possibly any row. */
+    void wrote(Object... keys) {
+        long now = System.currentTimeMillis();
+        lastWriteMillis = now;
+        if (keys.length == 0) {
+            lastUnkeyedWriteMillis = now;
+            return;
+        }
+        ReplicaRouter router = replicas;
+        if (router == null) return;
+        for (Object key : keys) {
+            if (key != null) keyWrites.put(key, now);
+        }
+        // Older stamps cannot hold back a usable replica any more
+        long horizon = router.horizonMillis();
+        if (now - lastKeyPrune >= horizon) {
+            lastKeyPrune = now;
+            keyWrites.values().removeIf(t -> now - t > horizon);
+        }
+    }
+
+    /**
+     * Connection for a pure lookup: a read replica that has caught up with this server's last write of the
+     * given rows (of any row when no key is given), when configured; otherwise the same as {@link #getConnection()}.
+     */
+    public Connection readConnection(Object... keys) throws SQLException {
+        Tx tx = current.get();
+        if (tx != null) return tx.shared;
+        ReplicaRouter router = replicas;
+        if (router != null && writing.get() == null) {
+            Connection c = router.connection(lastWriteOf(keys));
+            if (c != null) return c;
+        }
+        return pool.getConnection();
+    }
+
+    private long lastWriteOf(Object[] keys) {
+        if (keys.length == 0) return lastWriteMillis;
+        long last = lastUnkeyedWriteMillis;
+        for (Object key : keys) {
+            Long at = key != null ? keyWrites.get(key) : null;
+            if (at != null && at > last) last = at;
+        }
+        return last;
+    }
+
+    /** Stops the writer after the queued writes are committed; a no-op without one. */
+    @Override
+    public void close() {
+        if (writer != null) writer.close();
+    }
+
+    // ===== UnitOfWork =====
+
+    @Override
+    public <T> T inTransaction(Supplier<T> work) {
+        Tx outer = current.get();
+        if (outer != null) {
+            try {
+                return work.get();
+            } catch (RuntimeException | Error e) {
+                outer.rollbackOnly = true; // even if the caller swallows it
+                throw e;
+            }
+        }
+        if (writer != null) return write(work);
+
+        Tx tx;
+        try {
+            Connection real = pool.getConnection();
+            real.setAutoCommit(false);
+            tx = new Tx(real);
+            tx.shared = share(tx);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        current.set(tx);
+        T result;
+        try {
+            result = work.get();
+            if (tx.rollbackOnly) throw new IllegalStateException("Unit of work was marked rollback-only");
+            tx.real.commit();
+        } catch (RuntimeException | Error e) {
+            rollback(tx, e);
+            throw e;
+        } catch (SQLException e) {
+            RuntimeException wrapped = new RuntimeException(e);
+            rollback(tx, wrapped);
+            throw wrapped;
+        } finally {
+            current.remove();
+            release(tx.real);
+            lastWriteMillis = System.currentTimeMillis();
+        }
+        runAfterCommit(tx.afterCommit);
+        return result;
+    }
+
+    static void runAfterCommit(List<Runnable> actions) {
+        for (Runnable action : actions) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                log.warn("After-commit action failed", e);
+            }
+        }
+    }
+
+    @Override
+    public void afterCommit(Runnable action) {
+        Tx tx = current.get();
+        if (tx == null) action.run();
+        else tx.afterCommit.add(action);
+    }
+
+    private void rollback(Tx tx, Throwable cause) {
+        try {
+            tx.real.rollback();
+        } catch (SQLException e) {
+            cause.addSuppressed(e);
+        }
+        rolledBack(cause);
+    }
+
+    void rolledBack(Throwable cause) {
+        for (Runnable listener : rollbackListeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                cause.addSuppressed(e);
+            }
+        }
+    }
+
+    // ===== writer thread hooks =====
+
+    /** Makes {@code real} the calling thread's transaction until {@link #unbind()}. */
+    Tx bind(Connection real) {
+        Tx tx = new Tx(real);
+        tx.shared = share(tx);
+        current.set(tx);
+        return tx;
+    }
+
+    void unbind() {
+        current.remove();
+    }
+
+    static void release(Connection real) {
+        try {
+            real.setAutoCommit(true);
+        } catch (SQLException ignored) {
+            // the pool resets it on return anyway
+        }
+        try {
+            real.close();
+        } catch (SQLException e) {
+            log.warn("Failed to return connection to the pool: {}", e.getMessage());
+        }
+    }
+
+    /** The transaction's connection as handed to repos; they may close it as usual. */
+    private static Connection share(Tx tx) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close", "commit", "setAutoCommit":
+                            return null;
+                        case "getAutoCommit":
+                            return false;
+                        case "isClosed":
+                            return tx.real.isClosed();
+                        case "rollback":
+                            if (args == null) { // rollback(Savepoint) is a real partial rollback
+                                tx.rollbackOnly = true;
+                                return null;
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                    try {
+                        return method.invoke(tx.real, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    // ===== DataSource =====
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Tx tx = current.get();
+        return tx != null ? tx.shared : pool.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        Tx tx = current.get();
+        return tx != null ? tx.shared : pool.getConnection(username, password);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException { return pool.getLogWriter(); }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException { pool.setLogWriter(out); }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException { pool.setLoginTimeout(seconds); }
+
+    @Override
+    public int getLoginTimeout() throws SQLException { return pool.getLoginTimeout(); }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException { return pool.getParentLogger(); }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : pool.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || pool.isWrapperFor(iface);
+    }
+}
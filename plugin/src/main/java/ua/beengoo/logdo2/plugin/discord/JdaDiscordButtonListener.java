@@ -7,6 +7,7 @@ import org.jetbrains.annotations.NotNull;
 import ua.beengoo.logdo2.api.ports.MessagesPort;
 import ua.beengoo.logdo2.api.ports.ProfileRepo;
 import ua.beengoo.logdo2.core.service.LoginService;
+import ua.beengoo.logdo2.plugin.db.JdbcFlow;
 import ua.beengoo.logdo2.plugin.util.AuditLogger;
 
 import java.awt.*;
@@ -47,7 +48,7 @@ public class JdaDiscordButtonListener extends ListenerAdapter {
         try {
             switch (action) {
                 case "accept" -> {
-                    loginService.onDiscordIpConfirm(uuid, discordId);
+                    JdbcFlow.run(JdbcFlow.IP_CONFIRM, () -> loginService.onDiscordIpConfirm(uuid, discordId));
                     if (audit != null) audit.log("discord", "ip_confirm_accept", java.util.Map.of(
                             "discord", String.valueOf(discordId),
                             "player", uuid.toString()
@@ -55,7 +56,7 @@ public class JdaDiscordButtonListener extends ListenerAdapter {
                     updateEmbed(event, playerName, uuid, true);
                 }
                 case "reject" -> {
-                    loginService.onDiscordIpReject(uuid, discordId);
+                    JdbcFlow.run(JdbcFlow.IP_CONFIRM, () -> loginService.onDiscordIpReject(uuid, discordId));
                     if (audit != null) audit.log("discord", "ip_confirm_reject", java.util.Map.of(
                             "discord", String.valueOf(discordId),
                             "player", uuid.toString()
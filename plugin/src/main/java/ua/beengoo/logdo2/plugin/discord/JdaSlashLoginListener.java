@@ -5,6 +5,7 @@ import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import org.jetbrains.annotations.NotNull;
 import ua.beengoo.logdo2.api.ports.MessagesPort;
 import ua.beengoo.logdo2.core.service.LoginService;
+import ua.beengoo.logdo2.plugin.db.JdbcFlow;
 
 import java.util.logging.Logger;
 
@@ -34,7 +35,7 @@ public class JdaSlashLoginListener extends ListenerAdapter {
 
         boolean ok = false;
         try {
-            ok = loginService.onDiscordSlashLogin(code, did);
+            ok = JdbcFlow.call(JdbcFlow.SLASH_LOGIN, () -> loginService.onDiscordSlashLogin(code, did));
         } catch (Exception e) {
             log.warning("Slash /login error: " + e.getMessage());
         }
@@ -0,0 +1,137 @@
+package ua.beengoo.logdo2.plugin.listeners;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.potion.PotionEffect;
+import org.bukkit.potion.PotionEffectType;
+import ua.beengoo.logdo2.api.events.LogDO2ReloadEvent;
+import ua.beengoo.logdo2.api.events.LoginPhase;
+import ua.beengoo.logdo2.api.events.PlayerLoginPhaseEnterEvent;
+import ua.beengoo.logdo2.api.events.PlayerLoginPhaseExitEvent;
+import ua.beengoo.logdo2.plugin.props.GatePolicy;
+import ua.beengoo.logdo2.plugin.props.LogDO2PropertiesManager;
+import ua.beengoo.logdo2.plugin.runtime.FreezeManager;
+import ua.beengoo.logdo2.plugin.runtime.PlayerSession;
+import ua.beengoo.logdo2.plugin.runtime.PlayerSessions;
+import ua.beengoo.logdo2.plugin.runtime.VisibilityManager;
+
+/**
+ * Applies phase visuals (blindness, hidden players) and the attribute freeze only on
+ * LOGIN / IP_CONFIRM / NONE transitions. Steady-state events never touch potions, visibility or attributes.
+ * The applied phase is kept in the player's {@link PlayerSession}.
+ */
+public class PhaseVisualsListener implements Listener {
+    private final Plugin plugin;
+    private final PlayerSessions sessions;
+    private final VisibilityManager visibility;
+    private final FreezeManager freeze;
+
+    public PhaseVisualsListener(Plugin plugin, PlayerSessions sessions, VisibilityManager visibility, FreezeManager freeze) {
+        this.plugin = plugin;
+        this.sessions = sessions;
+        this.visibility = visibility;
+        this.freeze = freeze;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPhaseEnter(PlayerLoginPhaseEnterEvent e) {
+        Player p = e.getPlayer();
+        PlayerSession session = sessions.get(p.getUniqueId());
+        if (session == null) return; // not online
+        LoginPhase prev = session.swapVisualPhase(e.getPhase());
+        if (prev == e.getPhase()) return;
+        apply(p, prev == null ? null : policy(prev), policy(e.getPhase()));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPhaseExit(PlayerLoginPhaseExitEvent e) {
+        Player p = e.getPlayer();
+        PlayerSession session = sessions.get(p.getUniqueId());
+        // Ignore stale exits for a phase the player is no longer in
+        if (session == null || !session.clearVisualPhase(e.getPhase())) return;
+        apply(p, policy(e.getPhase()), null);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent e) {
+        // Players still in a hidePlayers phase must not see newcomers either
+        visibility.onJoin(e.getPlayer());
+    }
+
+    // Before PlayerListener closes the session at MONITOR
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onQuit(PlayerQuitEvent e) {
+        Player p = e.getPlayer();
+        PlayerSession session = sessions.get(p.getUniqueId());
+        LoginPhase prev = session == null ? null : session.swapVisualPhase(null);
+        visibility.onQuit(p.getUniqueId());
+        // Potion effects and fly speed are saved with the player, so do not let them outlive the session
+        if (prev != null && policy(prev).blindness) clearBlindness(p);
+        freeze.unfreeze(p);
+    }
+
+    @EventHandler
+    public void onReload(LogDO2ReloadEvent e) {
+        // Gate flags may have changed; re-apply to everyone currently in a phase
+        GatePolicy gates = LogDO2PropertiesManager.getINSTANCE().getGatePolicy();
+        for (PlayerSession session : sessions.all()) {
+            LoginPhase phase = session.visualPhase();
+            Player p = phase == null ? null : Bukkit.getPlayer(session.uuid());
+            if (p == null) continue;
+            GatePolicy.PhasePolicy now = gates.forPhase(phase);
+            boolean frozen = shouldFreeze(gates, now);
+            runOnPlayer(p, () -> {
+                if (now.blindness) applyBlindness(p); else clearBlindness(p);
+                if (now.hidePlayers) visibility.hideAllFrom(p); else visibility.showAllTo(p);
+                if (frozen) freeze.freeze(p); else freeze.unfreeze(p);
+            });
+        }
+    }
+
+    private void apply(Player p, GatePolicy.PhasePolicy from, GatePolicy.PhasePolicy to) {
+        boolean blindBefore = from != null && from.blindness;
+        boolean blindAfter = to != null && to.blindness;
+        boolean hiddenBefore = visibility.isHiding(p.getUniqueId());
+        boolean hiddenAfter = to != null && to.hidePlayers;
+
+        if (blindAfter && !blindBefore) applyBlindness(p);
+        else if (!blindAfter && blindBefore) clearBlindness(p);
+
+        if (hiddenAfter && !hiddenBefore) visibility.hideAllFrom(p);
+        else if (!hiddenAfter) visibility.showAllTo(p); // no-op unless we are hiding others from p
+
+        if (to != null && shouldFreeze(LogDO2PropertiesManager.getINSTANCE().getGatePolicy(), to)) freeze.freeze(p);
+        else freeze.unfreeze(p); // no-op unless frozen
+    }
+
+    private static boolean shouldFreeze(GatePolicy gates, GatePolicy.PhasePolicy phase) {
+        return gates.attributeFreeze && !phase.allows(GatePolicy.Action.MOVE);
+    }
+
+    private static GatePolicy.PhasePolicy policy(LoginPhase phase) {
+        return LogDO2PropertiesManager.getINSTANCE().getGatePolicy().forPhase(phase);
+    }
+
+    private void runOnPlayer(Player p, Runnable action) {
+        try {
+            p.getScheduler().execute(plugin, action, null, 0L);
+        } catch (Throwable ignored) {
+            // Player scheduler unavailable (non-Folia fallback); reload runs on the main thread
+            action.run();
+        }
+    }
+
+    private static void applyBlindness(Player p) {
+        p.addPotionEffect(new PotionEffect(PotionEffectType.BLINDNESS, PotionEffect.INFINITE_DURATION, 0, true, false));
+    }
+
+    private static void clearBlindness(Player p) {
+        p.removePotionEffect(PotionEffectType.BLINDNESS);
+    }
+}
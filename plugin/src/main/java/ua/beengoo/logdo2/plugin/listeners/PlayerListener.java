@@ -2,19 +2,26 @@ package ua.beengoo.logdo2.plugin.listeners;
 
 import io.papermc.paper.event.player.AsyncChatEvent;
 import net.kyori.adventure.text.minimessage.MiniMessage;
-import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.event.*;
 import org.bukkit.event.entity.EntityDamageEvent;
 import org.bukkit.event.inventory.InventoryOpenEvent;
 import org.bukkit.event.player.*;
 import org.bukkit.plugin.Plugin;
-import ua.beengoo.logdo2.api.events.PlayerIpCheckEvent;
+import ua.beengoo.logdo2.api.events.LoginPhase;
+import ua.beengoo.logdo2.api.events.PlayerLoginPhaseEnterEvent;
+import ua.beengoo.logdo2.api.events.PlayerLoginPhaseExitEvent;
 import ua.beengoo.logdo2.api.events.PlayerPostLoginCheckEvent;
 import ua.beengoo.logdo2.api.ports.LoginStatePort;
 import ua.beengoo.logdo2.core.service.LoginService;
-import ua.beengoo.logdo2.plugin.config.Config;
+import ua.beengoo.logdo2.plugin.db.JdbcFlow;
 import ua.beengoo.logdo2.plugin.integration.FloodgateHook;
+import ua.beengoo.logdo2.plugin.props.GatePolicy;
+import ua.beengoo.logdo2.plugin.props.GatePolicy.Action;
+import ua.beengoo.logdo2.plugin.props.LogDO2PropertiesManager;
+import ua.beengoo.logdo2.plugin.runtime.IpCheckDispatcher;
+import ua.beengoo.logdo2.plugin.runtime.PlayerSession;
+import ua.beengoo.logdo2.plugin.runtime.PlayerSessions;
 import ua.beengoo.logdo2.plugin.util.AuditLogger;
 
 import java.net.InetAddress;
@@ -28,14 +35,18 @@ public class PlayerListener implements Listener {
     private final Plugin plugin;
     private static final MiniMessage MINI = MiniMessage.miniMessage();
     private final AuditLogger audit;
-    private final java.util.Map<java.util.UUID, Phase> lastPhase = new java.util.concurrent.ConcurrentHashMap<>();
+    private final IpCheckDispatcher ipCheck;
+    private final PlayerSessions sessions;
 
-    public PlayerListener(LoginService loginService, FloodgateHook floodgate, LoginStatePort state, Plugin plugin, AuditLogger audit) {
+    public PlayerListener(LoginService loginService, FloodgateHook floodgate, LoginStatePort state, Plugin plugin,
+                          AuditLogger audit, IpCheckDispatcher ipCheck, PlayerSessions sessions) {
         this.loginService = loginService;
         this.floodgate = floodgate;
         this.state = state;
         this.plugin = plugin;
         this.audit = audit;
+        this.ipCheck = ipCheck;
+        this.sessions = sessions;
     }
 
     // === ENTRY POINT ===
@@ -60,18 +71,28 @@ public class PlayerListener implements Listener {
         reasonOpt.ifPresent(reason -> e.disallow(PlayerLoginEvent.Result.KICK_OTHER, MINI.deserialize(reason)));
     }
 
+    // onLogin may have registered the profile as online; undo that if a later listener denied the login.
+    // A session already online with this UUID owns the entry and releases it on its own quit
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onLoginResult(PlayerLoginEvent e) {
+        if (e.getResult() == PlayerLoginEvent.Result.ALLOWED || state == null) return;
+        if (sessions.get(e.getPlayer().getUniqueId()) != null) return;
+        state.releaseOnline(e.getPlayer().getUniqueId());
+    }
+
     @EventHandler(priority = EventPriority.HIGHEST)
     public void onJoin(PlayerJoinEvent e) {
         Player p = e.getPlayer();
-        String ip = getIp(p);
-        loginService.onPlayerJoin(p.getUniqueId(), p.getName(), ip, isBedrock(p));
-        // Apply visuals for current phase if any
-        refreshVisuals(p);
+        // Open the session first: onPlayerJoin fires phase events that expect it
+        PlayerSession session = sessions.open(p.getUniqueId(), readIp(p), detectBedrock(p));
+        String ip = session.ip();
+        // Phase visuals are applied by PhaseVisualsListener from the phase enter event
+        JdbcFlow.run(JdbcFlow.JOIN, () -> loginService.onPlayerJoin(p.getUniqueId(), p.getName(), ip, session.bedrock()));
         if (audit != null) audit.log("minecraft", "player_join", java.util.Map.of(
                 "name", p.getName(),
                 "uuid", p.getUniqueId().toString(),
                 "ip", ip,
-                "bedrock", String.valueOf(isBedrock(p))
+                "bedrock", String.valueOf(session.bedrock())
         ));
     }
 
@@ -98,20 +119,42 @@ public class PlayerListener implements Listener {
                 }
             }
         } catch (Throwable ignored) {}
+        if (state != null) {
+            state.clearResolving(p.getUniqueId());
+            state.releaseOnline(p.getUniqueId());
+            state.invalidateVerdict(p.getUniqueId());
+        }
+        sessions.close(p.getUniqueId());
+    }
+
+    // A phase transition is a state change: let PlayerIpCheckEvent listeners answer again
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPhaseEnter(PlayerLoginPhaseEnterEvent e) {
+        onPhaseChange(e.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPhaseExit(PlayerLoginPhaseExitEvent e) {
+        onPhaseChange(e.getPlayer());
+    }
+
+    private void onPhaseChange(Player p) {
+        ipCheck.invalidate(p.getUniqueId());
+        PlayerSession session = sessions.get(p.getUniqueId());
+        if (session != null) session.resetTitles();
     }
 
     // === BLOCKERS ===
     @EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
     public void onMove(PlayerMoveEvent e) {
+        // With attribute freeze the player cannot walk anyway; only block changes need the full check
+        if (LogDO2PropertiesManager.getINSTANCE().getGatePolicy().attributeFreeze && !movedBlock(e)) return;
         if (!isAllowed(e.getPlayer(), Action.MOVE)) e.setCancelled(true);
-        else refreshVisuals(e.getPlayer());
     }
 
     @EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
     public void onInteract(PlayerInteractEvent e) {
-        if (!isAllowed(e.getPlayer(), Action.INTERACT)) {
-            e.setCancelled(true);
-        } else refreshVisuals(e.getPlayer());
+        if (!isAllowed(e.getPlayer(), Action.INTERACT)) e.setCancelled(true);
     }
 
     @EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
@@ -125,26 +168,22 @@ public class PlayerListener implements Listener {
         String msg = e.getMessage();
         String root = extractRootCommand(msg);
         if (!isCommandAllowed(p, root)) e.setCancelled(true);
-        else refreshVisuals(p);
     }
 
     @EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
     public void onDrop(PlayerDropItemEvent e) {
         if (!isAllowed(e.getPlayer(), Action.DROP)) e.setCancelled(true);
-        else refreshVisuals(e.getPlayer());
     }
 
     @EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
     public void onInventory(InventoryOpenEvent e) {
         if (e.getPlayer() instanceof Player p && !isAllowed(p, Action.INVENTORY)) e.setCancelled(true);
-        else if (e.getPlayer() instanceof Player p) refreshVisuals(p);
     }
 
     @EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
     public void onDamage(EntityDamageEvent e) {
         if (!(e.getEntity() instanceof Player p)) return;
         if (!isAllowed(p, Action.DAMAGE)) e.setCancelled(true);
-        else refreshVisuals(p);
     }
 
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
@@ -152,42 +191,29 @@ public class PlayerListener implements Listener {
         // If fully allowed by service (i.e., not pending states), no gating applies
         String ip = getIp(p);
         boolean coreAllowed = loginService.isActionAllowed(p.getUniqueId(), ip);
-
-        PlayerIpCheckEvent event = new PlayerIpCheckEvent(p, ip, coreAllowed);
-        Bukkit.getPluginManager().callEvent(event);
-
-        boolean finalAllowed;
-        if (event.isAllowed() != coreAllowed) {
-            finalAllowed = event.isAllowed();
-        } else {
-            finalAllowed = coreAllowed;
-        }
+        boolean onChange = LogDO2PropertiesManager.getINSTANCE().getGatePolicy().ipCheckOnChange;
+        boolean finalAllowed = ipCheck.resolve(p, ip, coreAllowed, onChange);
 
         if (finalAllowed) return true;
 
         // Determine phase
-        Phase phase = getPhase(p);
+        LoginPhase phase = getPhase(p);
         logPhaseIfChanged(p, phase);
         if (phase == null) return true;
 
-        String base = (phase == Phase.LOGIN) ? "gates.login." : "gates.ipConfirm.";
-        String key = switch (action) {
-            case MOVE -> base + "move";
-            case INTERACT -> base + "interact";
-            case CHAT -> base + "chat";
-            case COMMANDS -> base + "commands";
-            case DROP -> base + "drop";
-            case INVENTORY -> base + "inventory";
-            case DAMAGE -> base + "damage";
-        };
-        boolean def = (action == Action.DAMAGE); // allow damage by default, block others
-        return plugin != null && Config.getFileConfiguration().getBoolean(key, def);
+        return policyFor(phase).allows(action);
     }
 
-    private Phase getPhase(Player p) {
+    private static GatePolicy.PhasePolicy policyFor(LoginPhase phase) {
+        return LogDO2PropertiesManager.getINSTANCE().getGatePolicy().forPhase(phase);
+    }
+
+    private LoginPhase getPhase(Player p) {
         if (state == null) return null;
-        if (state.isPendingLogin(p.getUniqueId())) return Phase.LOGIN;
-        if (state.isPendingIpConfirm(p.getUniqueId())) return Phase.IP_CONFIRM;
+        // Link state still loading: gate as strictly as an unlinked player
+        if (state.isResolving(p.getUniqueId())) return LoginPhase.LOGIN;
+        if (state.isPendingLogin(p.getUniqueId())) return LoginPhase.LOGIN;
+        if (state.isPendingIpConfirm(p.getUniqueId())) return LoginPhase.IP_CONFIRM;
         return null;
     }
 
@@ -196,20 +222,21 @@ public class PlayerListener implements Listener {
         String ip = getIp(p);
         if (loginService.isActionAllowed(p.getUniqueId(), ip)) return true;
 
-        Phase phase = getPhase(p);
+        LoginPhase phase = getPhase(p);
         logPhaseIfChanged(p, phase);
         if (phase == null) return true;
 
-        String base = (phase == Phase.LOGIN) ? "gates.login." : "gates.ipConfirm.";
-        boolean commandsToggle = plugin != null && Config.getFileConfiguration().getBoolean(base + "commands", false);
-        if (commandsToggle) return true; // all commands allowed in this phase
-
-        var list = (plugin != null) ? Config.getFileConfiguration().getStringList(base + "commandsAllowed") : java.util.List.<String>of();
         String cmd = (rootCmd == null ? "" : rootCmd).toLowerCase(java.util.Locale.ROOT);
-        for (String s : list) {
-            if (cmd.equalsIgnoreCase(s)) return true;
-        }
-        return false;
+        return policyFor(phase).allowsCommand(cmd);
+    }
+
+    private static boolean movedBlock(PlayerMoveEvent e) {
+        var from = e.getFrom();
+        var to = e.getTo();
+        // Falling is fine; horizontal or upward block changes are not
+        return from.getBlockX() != to.getBlockX()
+                || from.getBlockZ() != to.getBlockZ()
+                || to.getBlockY() > from.getBlockY();
     }
 
     private static String extractRootCommand(String message) {
@@ -220,15 +247,22 @@ public class PlayerListener implements Listener {
         return sp >= 0 ? m.substring(0, sp) : m;
     }
 
-    private enum Action { MOVE, INTERACT, CHAT, COMMANDS, DROP, INVENTORY, DAMAGE }
-    private enum Phase { LOGIN, IP_CONFIRM }
+    private String getIp(Player p) {
+        PlayerSession session = sessions.get(p.getUniqueId());
+        return session != null ? session.ip() : readIp(p);
+    }
 
-    private static String getIp(Player p) {
+    private static String readIp(Player p) {
         return Optional.ofNullable(p.getAddress())
                 .map(a -> a.getAddress().getHostAddress()).orElse("unknown");
     }
 
     private boolean isBedrock(Player p) {
+        PlayerSession session = sessions.get(p.getUniqueId());
+        return session != null ? session.bedrock() : detectBedrock(p);
+    }
+
+    private boolean detectBedrock(Player p) {
         try {
             return floodgate != null && floodgate.isPresent() && floodgate.isBedrock(p.getUniqueId());
         } catch (Throwable ignored) {
@@ -236,31 +270,11 @@ public class PlayerListener implements Listener {
         }
     }
 
-    // ===== visuals (blindness, hide players) =====
-    private void refreshVisuals(Player p) {
-        String ip = getIp(p);
-        boolean fullyAllowed = loginService.isActionAllowed(p.getUniqueId(), ip);
-        Phase phase = getPhase(p);
-        logPhaseIfChanged(p, phase);
-        if (fullyAllowed || phase == null) {
-            clearVisuals(p);
-            return;
-        }
-        String base = (phase == Phase.LOGIN) ? "gates.login." : "gates.ipConfirm.";
-        boolean blind = Config.getFileConfiguration().getBoolean(base + "blindness", false);
-        boolean hide = Config.getFileConfiguration().getBoolean(base + "hidePlayers", false);
-        if (blind) applyBlindness(p); else clearBlindness(p);
-        if (hide) hideOthers(p); else showOthers(p);
-    }
-
-    private void logPhaseIfChanged(Player p, Phase phase) {
-        java.util.UUID id = p.getUniqueId();
-        Phase prev;
-        if (phase == null) {
-            prev = lastPhase.remove(id);
-        } else {
-            prev = lastPhase.put(id, phase);
-        }
+    // ===== phase audit =====
+    private void logPhaseIfChanged(Player p, LoginPhase phase) {
+        PlayerSession session = sessions.get(p.getUniqueId());
+        if (session == null) return;
+        LoginPhase prev = session.swapAuditedPhase(phase);
         if (audit == null) return;
         if (prev != phase) {
             String prevStr = prev == null ? "NONE" : prev.name();
@@ -273,36 +287,4 @@ public class PlayerListener implements Listener {
             ));
         }
     }
-
-    private void applyBlindness(Player p) {
-        var type = org.bukkit.potion.PotionEffectType.BLINDNESS;
-        var current = p.getPotionEffect(type);
-        int ticks = 20 * 3600; // 1 hour, refreshed by events
-        if (current == null || current.getDuration() < ticks / 2) {
-            p.addPotionEffect(new org.bukkit.potion.PotionEffect(type, ticks, 0, true, false));
-        }
-    }
-
-    private void clearBlindness(Player p) {
-        p.removePotionEffect(org.bukkit.potion.PotionEffectType.BLINDNESS);
-    }
-
-    private void hideOthers(Player p) {
-        for (Player other : Bukkit.getOnlinePlayers()) {
-            if (other.equals(p)) continue;
-            p.hidePlayer(plugin, other);
-        }
-    }
-
-    private void showOthers(Player p) {
-        for (Player other : Bukkit.getOnlinePlayers()) {
-            if (other.equals(p)) continue;
-            p.showPlayer(plugin, other);
-        }
-    }
-
-    private void clearVisuals(Player p) {
-        clearBlindness(p);
-        showOthers(p);
-    }
 }
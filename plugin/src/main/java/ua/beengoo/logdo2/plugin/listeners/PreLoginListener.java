@@ -6,11 +6,15 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import ua.beengoo.logdo2.api.ports.BanProgressRepo;
+import ua.beengoo.logdo2.core.service.LoginService;
+import ua.beengoo.logdo2.plugin.db.JdbcFlow;
+import ua.beengoo.logdo2.plugin.integration.FloodgateHook;
 import ua.beengoo.logdo2.plugin.i18n.YamlMessages;
 import ua.beengoo.logdo2.plugin.util.AuditLogger;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class PreLoginListener implements Listener {
@@ -19,12 +23,17 @@ public class PreLoginListener implements Listener {
     private final YamlMessages msg;
     private static final MiniMessage MINI = MiniMessage.miniMessage();
     private final AuditLogger audit;
+    private final LoginService loginService;
+    private final FloodgateHook floodgate;
 
-    public PreLoginListener(BanProgressRepo bans, Logger log, YamlMessages msg, AuditLogger audit) {
+    public PreLoginListener(BanProgressRepo bans, Logger log, YamlMessages msg, AuditLogger audit,
+                            LoginService loginService, FloodgateHook floodgate) {
         this.bans = bans;
         this.log = log;
         this.msg = msg;
         this.audit = audit;
+        this.loginService = loginService;
+        this.floodgate = floodgate;
     }
 
     @EventHandler(priority = EventPriority.HIGHEST)
@@ -33,7 +42,7 @@ public class PreLoginListener implements Listener {
         if (ip == null || ip.isBlank()) return;
 
         long now = System.currentTimeMillis() / 1000;
-        var rec = bans.findByIp(ip);
+        var rec = JdbcFlow.call(JdbcFlow.PRELOGIN, () -> bans.findByIp(ip));
         if (rec.isEmpty()) return;
 
         long until = rec.get().lastBanUntilEpochSec();
@@ -52,6 +61,27 @@ public class PreLoginListener implements Listener {
         ));
     }
 
+    /** Still async: resolve link state now so that PlayerJoinEvent does not touch the database. */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPreLoginPrefetch(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+        try {
+            JdbcFlow.run(JdbcFlow.PRELOGIN,
+                    () -> loginService.prefetchJoin(event.getUniqueId(), event.getName(), isBedrock(event)));
+        } catch (Exception e) {
+            // Join falls back to reading storage itself
+            log.log(Level.WARNING, "[LogDO2] Join prefetch failed for " + event.getUniqueId(), e);
+        }
+    }
+
+    private boolean isBedrock(AsyncPlayerPreLoginEvent event) {
+        try {
+            return floodgate != null && floodgate.isPresent() && floodgate.isBedrock(event.getUniqueId());
+        } catch (Throwable ignored) {
+            return false;
+        }
+    }
+
     private static String humanDuration(long seconds) {
         long s = seconds;
         long d = s / 86400; s %= 86400;
@@ -0,0 +1,96 @@
+package ua.beengoo.logdo2.plugin.props;
+
+import org.bukkit.configuration.ConfigurationSection;
+import ua.beengoo.logdo2.api.events.LoginPhase;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the {@code gates.login} / {@code gates.ipConfirm} sections.
+ * Compiled once per (re)load so gate checks never walk the YAML tree.
+ */
+public final class GatePolicy {
+    public enum Action { MOVE, INTERACT, CHAT, COMMANDS, DROP, INVENTORY, DAMAGE }
+
+    public final PhasePolicy login;
+    public final PhasePolicy ipConfirm;
+    /** {@code gates.freezeMode: attributes} - freeze via movement attributes, move events only check block changes */
+    public final boolean attributeFreeze;
+    /** {@code gates.ipCheckEvent: on-change} - fire PlayerIpCheckEvent once per state/IP change, not per action */
+    public final boolean ipCheckOnChange;
+
+    public GatePolicy(PhasePolicy login, PhasePolicy ipConfirm, boolean attributeFreeze, boolean ipCheckOnChange) {
+        this.login = login;
+        this.ipConfirm = ipConfirm;
+        this.attributeFreeze = attributeFreeze;
+        this.ipCheckOnChange = ipCheckOnChange;
+    }
+
+    public PhasePolicy forPhase(LoginPhase phase) {
+        return phase == LoginPhase.LOGIN ? login : ipConfirm;
+    }
+
+    public static GatePolicy compile(ConfigurationSection cfg) {
+        return new GatePolicy(
+                PhasePolicy.compile(cfg == null ? null : cfg.getConfigurationSection("gates.login")),
+                PhasePolicy.compile(cfg == null ? null : cfg.getConfigurationSection("gates.ipConfirm")),
+                cfg != null && "attributes".equalsIgnoreCase(cfg.getString("gates.freezeMode", "cancel").trim()),
+                cfg != null && "on-change".equalsIgnoreCase(cfg.getString("gates.ipCheckEvent", "always").trim())
+        );
+    }
+
+    public static final class PhasePolicy {
+        private final EnumSet<Action> allowed;
+        private final Set<String> commandsAllowed;
+        public final boolean blindness;
+        public final boolean hidePlayers;
+
+        public PhasePolicy(EnumSet<Action> allowed, Set<String> commandsAllowed, boolean blindness, boolean hidePlayers) {
+            this.allowed = EnumSet.copyOf(allowed);
+            this.commandsAllowed = Set.copyOf(commandsAllowed);
+            this.blindness = blindness;
+            this.hidePlayers = hidePlayers;
+        }
+
+        public boolean allows(Action action) {
+            return allowed.contains(action);
+        }
+
+        /** @param rootCommand command label without slash, already lower-cased */
+        public boolean allowsCommand(String rootCommand) {
+            return allowed.contains(Action.COMMANDS) || commandsAllowed.contains(rootCommand);
+        }
+
+        static PhasePolicy compile(ConfigurationSection sec) {
+            EnumSet<Action> allowed = EnumSet.noneOf(Action.class);
+            for (Action a : Action.values()) {
+                boolean def = (a == Action.DAMAGE); // allow damage by default, block others
+                if (sec == null ? def : sec.getBoolean(key(a), def)) allowed.add(a);
+            }
+            Set<String> commands = new HashSet<>();
+            if (sec != null) {
+                for (String c : sec.getStringList("commandsAllowed")) {
+                    if (c != null && !c.isBlank()) commands.add(c.trim().toLowerCase(Locale.ROOT));
+                }
+            }
+            boolean blindness = sec != null && sec.getBoolean("blindness", false);
+            boolean hidePlayers = sec != null && sec.getBoolean("hidePlayers", false);
+            return new PhasePolicy(allowed, commands, blindness, hidePlayers);
+        }
+
+        private static String key(Action a) {
+            return switch (a) {
+                case MOVE -> "move";
+                case INTERACT -> "interact";
+                case CHAT -> "chat";
+                case COMMANDS -> "commands";
+                case DROP -> "drop";
+                case INVENTORY -> "inventory";
+                case DAMAGE -> "damage";
+            };
+        }
+    }
+}
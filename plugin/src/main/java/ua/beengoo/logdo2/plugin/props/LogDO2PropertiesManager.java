@@ -14,6 +14,7 @@ public class LogDO2PropertiesManager implements PropertiesProvider {
     @Getter
     private static final LogDO2PropertiesManager INSTANCE = new LogDO2PropertiesManager();
     private final AtomicReference<Properties> current = new AtomicReference<>();
+    private final AtomicReference<GatePolicy> gates = new AtomicReference<>(GatePolicy.compile(null));
     private final List<Consumer<Properties>> listeners = new CopyOnWriteArrayList<>();
 
     private LogDO2PropertiesManager() {}
@@ -23,6 +24,11 @@ public class LogDO2PropertiesManager implements PropertiesProvider {
         return current.get();
     }
 
+    /** Compiled gate rules for the current config; swapped atomically on reload. */
+    public GatePolicy getGatePolicy() {
+        return gates.get();
+    }
+
     @Override
     public void addListener(Consumer<Properties> listener) {
         listeners.add(listener);
@@ -58,6 +64,7 @@ public class LogDO2PropertiesManager implements PropertiesProvider {
                     disallowSimultaneousPlay);
 
             current.set(newProps);
+            gates.set(GatePolicy.compile(cfg));
             for (var l : listeners) {
                 try { l.accept(newProps); } catch (Exception ignored) {}
             }
@@ -0,0 +1,60 @@
+package ua.beengoo.logdo2.plugin.runtime;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.attribute.Attribute;
+import org.bukkit.attribute.AttributeInstance;
+import org.bukkit.attribute.AttributeModifier;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.util.UUID;
+
+/**
+ * Freezes pending players through attributes/abilities instead of cancelling every move packet.
+ * Modifiers are transient (never saved with the player); fly speed is restored on unfreeze.
+ * The saved fly speed is kept in the player's {@link PlayerSession}.
+ */
+public class FreezeManager {
+    private final NamespacedKey key;
+    private final PlayerSessions sessions;
+
+    public FreezeManager(Plugin plugin, PlayerSessions sessions) {
+        this.key = new NamespacedKey(plugin, "login_freeze");
+        this.sessions = sessions;
+    }
+
+    public boolean isFrozen(UUID uuid) {
+        PlayerSession session = sessions.get(uuid);
+        return session != null && session.frozen();
+    }
+
+    public void freeze(Player p) {
+        PlayerSession session = sessions.get(p.getUniqueId());
+        if (session == null || !session.freeze(p.getFlySpeed())) return;
+        addZeroModifier(p, Attribute.MOVEMENT_SPEED);
+        addZeroModifier(p, Attribute.JUMP_STRENGTH);
+        p.setFlySpeed(0f);
+    }
+
+    public void unfreeze(Player p) {
+        PlayerSession session = sessions.get(p.getUniqueId());
+        Float flySpeed = session == null ? null : session.unfreeze();
+        if (flySpeed == null) return;
+        removeModifier(p, Attribute.MOVEMENT_SPEED);
+        removeModifier(p, Attribute.JUMP_STRENGTH);
+        p.setFlySpeed(flySpeed);
+    }
+
+    private void addZeroModifier(Player p, Attribute attribute) {
+        AttributeInstance inst = p.getAttribute(attribute);
+        if (inst == null) return;
+        inst.removeModifier(key);
+        // base * (1 + -1) = 0
+        inst.addTransientModifier(new AttributeModifier(key, -1.0, AttributeModifier.Operation.MULTIPLY_SCALAR_1));
+    }
+
+    private void removeModifier(Player p, Attribute attribute) {
+        AttributeInstance inst = p.getAttribute(attribute);
+        if (inst != null) inst.removeModifier(key);
+    }
+}
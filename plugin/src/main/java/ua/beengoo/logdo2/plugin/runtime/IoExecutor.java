@@ -0,0 +1,52 @@
+package ua.beengoo.logdo2.plugin.runtime;
+
+import org.slf4j.Logger;
+import ua.beengoo.logdo2.plugin.db.JdbcFlow;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs blocking storage / Discord calls off the main and region threads.
+ * One virtual thread per task: cheap to park on JDBC or HTTP, no pool to size.
+ * Results go back to the game through the player / global schedulers.
+ * Tasks keep the submitter's {@link JdbcFlow}.
+ */
+public class IoExecutor implements Executor, AutoCloseable {
+    private final ExecutorService delegate =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("LogDO2-io-", 0).factory());
+    private final Logger log;
+
+    public IoExecutor(Logger log) {
+        this.log = log;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        Runnable tagged = JdbcFlow.propagate(task);
+        delegate.execute(() -> {
+            try {
+                tagged.run();
+            } catch (Throwable t) {
+                log.warn("I/O task failed", t);
+            }
+        });
+    }
+
+    /** Stop accepting work and give in-flight tasks a few seconds to finish. */
+    @Override
+    public void close() {
+        delegate.shutdown();
+        try {
+            if (!delegate.awaitTermination(5, TimeUnit.SECONDS)) {
+                log.warn("I/O tasks still running after 5s, abandoning them");
+                delegate.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            delegate.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package ua.beengoo.logdo2.plugin.runtime;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import ua.beengoo.logdo2.api.events.PlayerIpCheckEvent;
+
+import java.util.UUID;
+
+/**
+ * Fires {@link PlayerIpCheckEvent} and, in on-change mode, remembers the listeners' answer per player
+ * until the core verdict, the IP or the login phase changes, or a listener calls {@link #invalidate}.
+ * The answer lives in the player's {@link PlayerSession}, so it goes away on quit.
+ */
+public class IpCheckDispatcher {
+    private final PlayerSessions sessions;
+
+    public IpCheckDispatcher(PlayerSessions sessions) {
+        this.sessions = sessions;
+    }
+
+    /**
+     * @param onChange {@code false} dispatches the event on every call (legacy behaviour)
+     * @return final verdict after listeners had a chance to override {@code coreAllowed}
+     */
+    public boolean resolve(Player p, String ip, boolean coreAllowed, boolean onChange) {
+        if (!onChange) return fire(p, ip, coreAllowed);
+
+        PlayerSession session = sessions.get(p.getUniqueId());
+        if (session == null) return fire(p, ip, coreAllowed); // not joined yet, or already quit
+        Result cached = session.ipCheck();
+        if (cached != null && cached.coreAllowed == coreAllowed && cached.ip.equals(ip)) return cached.allowed;
+
+        long seen = session.ipCheckEpoch();
+        boolean allowed = fire(p, ip, coreAllowed);
+        // Do not resurrect an answer that was invalidated while listeners were running
+        session.cacheIpCheck(new Result(ip, coreAllowed, allowed), seen);
+        return allowed;
+    }
+
+    /** Forget the cached answer so the next gated action dispatches the event again. */
+    public void invalidate(UUID uuid) {
+        PlayerSession session = sessions.get(uuid);
+        if (session != null) session.invalidateIpCheck();
+    }
+
+    private static boolean fire(Player p, String ip, boolean coreAllowed) {
+        PlayerIpCheckEvent event = new PlayerIpCheckEvent(p, ip, coreAllowed);
+        Bukkit.getPluginManager().callEvent(event);
+        return event.isAllowed();
+    }
+
+    record Result(String ip, boolean coreAllowed, boolean allowed) {}
+}
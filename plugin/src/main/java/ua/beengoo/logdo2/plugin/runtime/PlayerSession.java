@@ -0,0 +1,135 @@
+package ua.beengoo.logdo2.plugin.runtime;
+
+import ua.beengoo.logdo2.api.events.LoginPhase;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Mutable runtime state of one online player, owned by {@link PlayerSessions}.
+ * Created on join and dropped on quit, so handlers need a single lookup and nothing outlives the session.
+ */
+public final class PlayerSession {
+    private final UUID uuid;
+    private final String ip;
+    private final boolean bedrock;
+
+    /** Last phase written to the audit log; null means NONE. */
+    private volatile LoginPhase auditedPhase;
+    /** Epoch seconds of the last phase title; 0 means not shown in the current phase. */
+    private volatile long lastLoginTitleSec;
+    private volatile long lastIpTitleSec;
+    /** Phase whose visuals (blindness, hidden players, freeze) are applied; null means NONE. */
+    private final AtomicReference<LoginPhase> visualPhase = new AtomicReference<>();
+    /** Fly speed from before the attribute freeze; null while not frozen. */
+    private volatile Float frozenFlySpeed;
+    /** Players currently hidden from this one; null while not hiding anyone. */
+    private volatile Set<UUID> hiddenPlayers;
+    /** Cached PlayerIpCheckEvent answer, guarded by this; see {@link IpCheckDispatcher}. */
+    private IpCheckDispatcher.Result ipCheck;
+    private long ipCheckEpoch;
+
+    PlayerSession(UUID uuid, String ip, boolean bedrock) {
+        this.uuid = uuid;
+        this.ip = ip;
+        this.bedrock = bedrock;
+    }
+
+    public UUID uuid() { return uuid; }
+    public String ip() { return ip; }
+    public boolean bedrock() { return bedrock; }
+
+    /** Records the phase and returns the previous one. */
+    public LoginPhase swapAuditedPhase(LoginPhase phase) {
+        LoginPhase prev = auditedPhase;
+        auditedPhase = phase;
+        return prev;
+    }
+
+    /** True (and the timestamp is updated) if at least {@code intervalSec} passed since the last login title. */
+    public boolean tryLoginTitle(long nowSec, long intervalSec) {
+        if (nowSec - lastLoginTitleSec < intervalSec) return false;
+        lastLoginTitleSec = nowSec;
+        return true;
+    }
+
+    public boolean tryIpTitle(long nowSec, long intervalSec) {
+        if (nowSec - lastIpTitleSec < intervalSec) return false;
+        lastIpTitleSec = nowSec;
+        return true;
+    }
+
+    /** Phase changed: the next tick shows the new phase title right away. */
+    public void resetTitles() {
+        lastLoginTitleSec = 0L;
+        lastIpTitleSec = 0L;
+    }
+
+    public LoginPhase visualPhase() {
+        return visualPhase.get();
+    }
+
+    /** Records the phase whose visuals are now applied and returns the previous one. */
+    public LoginPhase swapVisualPhase(LoginPhase phase) {
+        return visualPhase.getAndSet(phase);
+    }
+
+    /** Back to NONE, but only from {@code phase}: a stale exit for an earlier phase changes nothing. */
+    public boolean clearVisualPhase(LoginPhase phase) {
+        return visualPhase.compareAndSet(phase, null);
+    }
+
+    boolean frozen() {
+        return frozenFlySpeed != null;
+    }
+
+    /** @return false if already frozen, so the first fly speed is kept */
+    boolean freeze(float flySpeed) {
+        if (frozenFlySpeed != null) return false;
+        frozenFlySpeed = flySpeed;
+        return true;
+    }
+
+    /** @return the fly speed to restore, or null if not frozen */
+    Float unfreeze() {
+        Float prev = frozenFlySpeed;
+        frozenFlySpeed = null;
+        return prev;
+    }
+
+    Set<UUID> hiddenPlayers() {
+        return hiddenPlayers;
+    }
+
+    synchronized Set<UUID> startHiding() {
+        if (hiddenPlayers == null) hiddenPlayers = ConcurrentHashMap.newKeySet();
+        return hiddenPlayers;
+    }
+
+    /** @return the players that were hidden, or null if none were */
+    synchronized Set<UUID> stopHiding() {
+        Set<UUID> prev = hiddenPlayers;
+        hiddenPlayers = null;
+        return prev;
+    }
+
+    synchronized IpCheckDispatcher.Result ipCheck() {
+        return ipCheck;
+    }
+
+    synchronized long ipCheckEpoch() {
+        return ipCheckEpoch;
+    }
+
+    /** Keeps the answer unless it was invalidated after {@code seenEpoch} was read. */
+    synchronized void cacheIpCheck(IpCheckDispatcher.Result result, long seenEpoch) {
+        if (ipCheckEpoch == seenEpoch) ipCheck = result;
+    }
+
+    synchronized void invalidateIpCheck() {
+        ipCheckEpoch++;
+        ipCheck = null;
+    }
+}
@@ -0,0 +1,31 @@
+package ua.beengoo.logdo2.plugin.runtime;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Registry of {@link PlayerSession}s for online players. */
+public class PlayerSessions {
+    private final Map<UUID, PlayerSession> sessions = new ConcurrentHashMap<>();
+
+    public PlayerSession open(UUID uuid, String ip, boolean bedrock) {
+        PlayerSession s = new PlayerSession(uuid, ip, bedrock);
+        sessions.put(uuid, s);
+        return s;
+    }
+
+    /** @return session of an online player, or null if the player has not joined (or already quit) */
+    public PlayerSession get(UUID uuid) {
+        return sessions.get(uuid);
+    }
+
+    /** Sessions of everyone online; a live view. */
+    public Collection<PlayerSession> all() {
+        return sessions.values();
+    }
+
+    public void close(UUID uuid) {
+        sessions.remove(uuid);
+    }
+}
@@ -8,10 +8,7 @@ import ua.beengoo.logdo2.core.service.LoginService;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class TimeoutManager {
     private final Plugin plugin;
@@ -20,22 +17,24 @@ public class TimeoutManager {
     private final Duration loginTtl;
     private final Duration ipTtl;
     private final Duration bedrockReuseWindow;
+    private final PlayerSessions sessions;
 
     // Scheduling state
     private final boolean folia; // true if Folia APIs are available
     private int legacyTaskId = -1; // Spigot/Paper task id
     private Object foliaTask = null; // io.papermc.paper.threadedregions.scheduler.ScheduledTask, but kept as Object to avoid hard dep
 
-    // Throttle for titles
-    private final Map<UUID, Long> lastLoginTitle = new ConcurrentHashMap<>();
-    private final Map<UUID, Long> lastIpTitle = new ConcurrentHashMap<>();
+    // Title throttle; timestamps live in PlayerSession
+    private static final long TITLE_INTERVAL_SEC = 5;
 
     public TimeoutManager(Plugin plugin, LoginStatePort state, LoginService service,
+                          PlayerSessions sessions,
                           Duration loginTtl, Duration ipTtl,
                           Duration bedrockReuseWindow) {
         this.plugin = plugin;
         this.state = state;
         this.service = service;
+        this.sessions = sessions;
         this.loginTtl = loginTtl;
         this.ipTtl = ipTtl;
         this.bedrockReuseWindow = bedrockReuseWindow == null ? Duration.ofSeconds(60) : bedrockReuseWindow;
@@ -95,10 +94,9 @@ public class TimeoutManager {
                 runOnPlayerThread(uuid, () -> service.onLoginTimeout(uuid));
             }
 
-            Long last = lastLoginTitle.get(uuid);
-            if (last == null || nowSec - last >= 5) {
+            PlayerSession session = sessions.get(uuid);
+            if (session != null && session.tryLoginTitle(nowSec, TITLE_INTERVAL_SEC)) {
                 runOnPlayerThread(uuid, () -> service.showLoginPhaseTitle(uuid));
-                lastLoginTitle.put(uuid, nowSec);
             }
         }
 
@@ -110,19 +108,12 @@ public class TimeoutManager {
                 runOnPlayerThread(uuid, () -> service.onIpConfirmTimeout(uuid));
             }
 
-            Long last = lastIpTitle.get(uuid);
-            if (last == null || nowSec - last >= 5) {
+            PlayerSession session = sessions.get(uuid);
+            if (session != null && session.tryIpTitle(nowSec, TITLE_INTERVAL_SEC)) {
                 runOnPlayerThread(uuid, () -> service.showIpConfirmPhaseTitle(uuid));
-                lastIpTitle.put(uuid, nowSec);
             }
         }
 
-        // Cleanup stale entries (no longer pending)
-        final Set<UUID> stillPendingLogin = pendingLogins.stream().map(LoginStatePort.PendingLogin::uuid).collect(java.util.stream.Collectors.toSet());
-        final Set<UUID> stillPendingIp = pendingIps.stream().map(LoginStatePort.PendingIp::uuid).collect(java.util.stream.Collectors.toSet());
-        lastLoginTitle.keySet().removeIf(uuid -> !stillPendingLogin.contains(uuid));
-        lastIpTitle.keySet().removeIf(uuid -> !stillPendingIp.contains(uuid));
-
         // Clear Bedrock pending login after reuse window if player never returned
         for (LoginStatePort.PendingLogin p : pendingLogins) {
             if (!p.bedrock()) continue;
@@ -0,0 +1,83 @@
+package ua.beengoo.logdo2.plugin.runtime;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Bookkeeping for the {@code hidePlayers} gate.
+ * Remembers which players are hidden from each pending viewer so that a join or quit touches
+ * only the affected player instead of re-looping over everyone online. The hidden set of each viewer
+ * lives in their {@link PlayerSession}.
+ */
+public class VisibilityManager {
+    private final Plugin plugin;
+    private final PlayerSessions sessions;
+
+    public VisibilityManager(Plugin plugin, PlayerSessions sessions) {
+        this.plugin = plugin;
+        this.sessions = sessions;
+    }
+
+    public boolean isHiding(UUID viewer) {
+        PlayerSession session = sessions.get(viewer);
+        return session != null && session.hiddenPlayers() != null;
+    }
+
+    /** Viewer entered a hidePlayers phase: hide everyone currently online from them (one pass). */
+    public void hideAllFrom(Player viewer) {
+        PlayerSession session = sessions.get(viewer.getUniqueId());
+        if (session == null) return;
+        Set<UUID> set = session.startHiding();
+        for (Player other : Bukkit.getOnlinePlayers()) {
+            if (other.equals(viewer)) continue;
+            if (set.add(other.getUniqueId())) viewer.hidePlayer(plugin, other);
+        }
+    }
+
+    /** Viewer left the phase: single bulk show of exactly the players we hid. */
+    public void showAllTo(Player viewer) {
+        PlayerSession session = sessions.get(viewer.getUniqueId());
+        Set<UUID> set = session == null ? null : session.stopHiding();
+        if (set == null) return;
+        for (UUID id : set) {
+            Player other = Bukkit.getPlayer(id);
+            if (other != null) viewer.showPlayer(plugin, other);
+        }
+    }
+
+    /** A player joined: hide only them from the viewers that are hiding others. */
+    public void onJoin(Player joined) {
+        UUID joinedId = joined.getUniqueId();
+        for (PlayerSession session : sessions.all()) {
+            Set<UUID> set = session.hiddenPlayers();
+            if (set == null || session.uuid().equals(joinedId)) continue;
+            Player viewer = Bukkit.getPlayer(session.uuid());
+            if (viewer == null) continue;
+            if (set.add(joinedId)) runOnPlayer(viewer, () -> viewer.hidePlayer(plugin, joined));
+        }
+    }
+
+    /** A player quit: drop them as a viewer and as a hidden target. */
+    public void onQuit(UUID quitter) {
+        for (PlayerSession session : sessions.all()) {
+            if (session.uuid().equals(quitter)) session.stopHiding();
+            else {
+                Set<UUID> set = session.hiddenPlayers();
+                if (set != null) set.remove(quitter);
+            }
+        }
+    }
+
+    private void runOnPlayer(Player p, Runnable action) {
+        try {
+            p.getScheduler().execute(plugin, action, null, 0L);
+        } catch (Throwable ignored) {
+            // Player scheduler unavailable (non-Folia fallback)
+            action.run();
+        }
+    }
+}
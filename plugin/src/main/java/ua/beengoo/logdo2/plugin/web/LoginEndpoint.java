@@ -11,6 +11,7 @@ import net.dv8tion.jda.api.requests.restaction.InviteAction;
 import org.jetbrains.annotations.NotNull;
 import ua.beengoo.logdo2.core.service.LoginService;
 import ua.beengoo.logdo2.core.service.ForbiddenLinkException;
+import ua.beengoo.logdo2.plugin.db.JdbcFlow;
 import ua.beengoo.logdo2.plugin.util.AuditLogger;
 
 import java.util.Map;
@@ -97,7 +98,7 @@ public class LoginEndpoint {
             return;
         }
         try {
-            loginService.onOAuthCallback(code, state);
+            JdbcFlow.run(JdbcFlow.OAUTH_CALLBACK, () -> loginService.onOAuthCallback(code, state));
             if (audit != null) audit.log("web", "oauth_callback_ok", Map.of(
                     "state", state
             ));
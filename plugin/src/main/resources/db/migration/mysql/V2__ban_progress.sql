@@ -0,0 +1,6 @@
+CREATE TABLE IF NOT EXISTS ban_progress (
+  ip             VARCHAR(45) PRIMARY KEY,
+  attempts       INT     NOT NULL,
+  last_attempt   BIGINT  NOT NULL,
+  last_ban_until BIGINT  NOT NULL
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
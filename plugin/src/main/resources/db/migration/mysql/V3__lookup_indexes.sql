@@ -0,0 +1,15 @@
+-- Platform is stored upper-case so lookups compare it directly
+UPDATE mc_profiles SET platform = UPPER(platform) WHERE platform IS NOT NULL AND platform <> UPPER(platform);
+
+-- Case-insensitive name lookups go through an indexed lower-case copy
+ALTER TABLE mc_profiles ADD COLUMN name_lower VARCHAR(64) GENERATED ALWAYS AS (LOWER(name)) STORED;
+CREATE INDEX idx_profiles_name_lower ON mc_profiles(name_lower);
+
+-- Link lookups filter on active as well; the composites replace the single-column indexes
+-- (idx_links_mc_active also backs fk_links_profile, the primary key backs fk_links_user)
+CREATE INDEX idx_links_mc_active      ON links(mc_uuid, active);
+CREATE INDEX idx_links_discord_active ON links(discord_id, active);
+DROP INDEX idx_links_mc ON links;
+DROP INDEX idx_links_discord ON links;
+
+CREATE INDEX idx_ban_progress_until ON ban_progress(last_ban_until);
@@ -0,0 +1 @@
+-- SQLite only (auto_vacuum for incremental vacuum); nothing to change here
@@ -0,0 +1,14 @@
+-- Platform is stored upper-case so lookups compare it directly
+UPDATE mc_profiles SET platform = UPPER(platform) WHERE platform IS NOT NULL AND platform <> UPPER(platform);
+
+-- Case-insensitive name lookups go through an indexed lower-case copy
+ALTER TABLE mc_profiles ADD COLUMN name_lower TEXT GENERATED ALWAYS AS (LOWER(name)) STORED;
+CREATE INDEX IF NOT EXISTS idx_profiles_name_lower ON mc_profiles(name_lower);
+
+-- Link lookups filter on active as well; the composites replace the single-column indexes
+CREATE INDEX IF NOT EXISTS idx_links_mc_active      ON links(mc_uuid, active);
+CREATE INDEX IF NOT EXISTS idx_links_discord_active ON links(discord_id, active);
+DROP INDEX IF EXISTS idx_links_mc;
+DROP INDEX IF EXISTS idx_links_discord;
+
+CREATE INDEX IF NOT EXISTS idx_ban_progress_until ON ban_progress(last_ban_until);
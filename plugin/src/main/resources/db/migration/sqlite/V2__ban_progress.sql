@@ -0,0 +1,6 @@
+CREATE TABLE IF NOT EXISTS ban_progress (
+  ip             TEXT PRIMARY KEY,
+  attempts       INTEGER NOT NULL,
+  last_attempt   BIGINT  NOT NULL,
+  last_ban_until BIGINT  NOT NULL
+);
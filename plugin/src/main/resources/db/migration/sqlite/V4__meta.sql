@@ -0,0 +1,5 @@
+-- Database-wide settings that belong to the data, e.g. the storage format of keys
+CREATE TABLE IF NOT EXISTS logdo2_meta (
+  meta_key   VARCHAR(64)  PRIMARY KEY,
+  meta_value VARCHAR(255) NOT NULL
+);
@@ -0,0 +1,2 @@
+-- Marker only. Switching an existing file to incremental auto_vacuum needs a full VACUUM, which rewrites the
+-- whole file and blocks writers meanwhile; SqliteMaintenance does it once, while the server is quiet.
@@ -0,0 +1,143 @@
+package ua.beengoo.logdo2.plugin.adapters.cache;
+
+import org.junit.jupiter.api.Test;
+import ua.beengoo.logdo2.api.ports.AccountsRepo;
+import ua.beengoo.logdo2.api.ports.ProfileRepo;
+import ua.beengoo.logdo2.api.ports.UnitOfWork;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingReposTest {
+
+    @Test
+    void negativeLinkIsCachedUntilOwnWrite() {
+        var accounts = new CountingAccountsRepo();
+        var cache = new CachingRepos(accounts, new MapProfileRepo(), 100, Duration.ofMinutes(5), Duration.ofMinutes(1));
+        UUID uuid = UUID.randomUUID();
+
+        assertFalse(cache.isLinked(uuid));
+        assertFalse(cache.isLinked(uuid));
+        assertEquals(Optional.empty(), cache.findDiscordForProfile(uuid));
+        assertEquals(1, accounts.reads, "negative answer must be served from cache");
+
+        cache.link(42L, uuid);
+        assertTrue(cache.isLinked(uuid));
+        assertEquals(Set.of(uuid), cache.findProfilesForDiscord(42L));
+        assertEquals(3, accounts.reads);
+
+        cache.unlinkByDiscord(42L);
+        assertFalse(cache.isLinked(uuid));
+        assertTrue(cache.findProfilesForDiscord(42L).isEmpty());
+    }
+
+    @Test
+    void profileWritesInvalidate() {
+        var profiles = new MapProfileRepo();
+        var cache = new CachingRepos(new CountingAccountsRepo(), profiles, 100, Duration.ofMinutes(5), Duration.ofMinutes(1));
+        UUID uuid = UUID.randomUUID();
+
+        assertEquals(Optional.empty(), cache.findLastConfirmedIp(uuid));
+        profiles.ips.put(uuid, "1.1.1.1"); // write behind the cache's back is not seen until TTL
+        assertEquals(Optional.empty(), cache.findLastConfirmedIp(uuid));
+
+        cache.updateLastConfirmedIp(uuid, "2.2.2.2");
+        assertEquals(Optional.of("2.2.2.2"), cache.findLastConfirmedIp(uuid));
+    }
+
+    @Test
+    void readsBetweenWriteAndCommitAreDroppedOnCommit() {
+        var committed = new CountingAccountsRepo(); // what other connections see
+        var uow = new DeferredUnitOfWork();
+        // Writes land in the open transaction; only the commit makes them visible to other readers
+        var accounts = new CountingAccountsRepo() {
+            @Override public void activate(long discordId, UUID profileUuid) {
+                uow.onCommit(() -> committed.link(discordId, profileUuid));
+            }
+            @Override public Optional<Long> findDiscordForProfile(UUID profileUuid) { return committed.findDiscordForProfile(profileUuid); }
+            @Override public Set<UUID> findProfilesForDiscord(long discordId) { return committed.findProfilesForDiscord(discordId); }
+        };
+        var cache = new CachingRepos(accounts, new MapProfileRepo(), null, 100,
+                Duration.ofMinutes(5), Duration.ofMinutes(1), uow);
+        UUID uuid = UUID.randomUUID();
+
+        uow.run(() -> {
+            cache.activate(42L, uuid);
+            // Another thread reads before the commit and caches the old "not linked" answer
+            assertFalse(CompletableFuture.supplyAsync(() -> cache.isLinked(uuid)).join());
+            assertTrue(CompletableFuture.supplyAsync(() -> cache.findProfilesForDiscord(42L)).join().isEmpty());
+        });
+        assertTrue(cache.isLinked(uuid));
+        assertEquals(Set.of(uuid), cache.findProfilesForDiscord(42L));
+    }
+
+    /** Runs commit actions, then after-commit hooks, when the outermost unit returns. */
+    private static class DeferredUnitOfWork implements UnitOfWork {
+        private final List<Runnable> commits = new ArrayList<>();
+        private final List<Runnable> hooks = new ArrayList<>();
+        private boolean open;
+
+        void onCommit(Runnable write) {
+            if (open) commits.add(write); else write.run();
+        }
+
+        @Override
+        public <T> T inTransaction(Supplier<T> work) {
+            open = true;
+            try {
+                T result = work.get();
+                commits.forEach(Runnable::run);
+                hooks.forEach(Runnable::run);
+                return result;
+            } finally {
+                open = false;
+                commits.clear();
+                hooks.clear();
+            }
+        }
+
+        @Override
+        public void afterCommit(Runnable action) {
+            if (open) hooks.add(action); else action.run();
+        }
+    }
+
+    private static class CountingAccountsRepo implements AccountsRepo {
+        final Map<UUID, Long> active = new HashMap<>();
+        int reads;
+
+        @Override public void link(long discordId, UUID profileUuid) { active.put(profileUuid, discordId); }
+        @Override public void reserve(long discordId, UUID profileUuid) { }
+        @Override public void activate(long discordId, UUID profileUuid) { link(discordId, profileUuid); }
+        @Override public Optional<Long> linkedAt(UUID profileUUID) { return Optional.empty(); }
+        @Override public boolean isLinked(UUID profileUuid) { reads++; return active.containsKey(profileUuid); }
+        @Override public Optional<Long> findDiscordForProfile(UUID profileUuid) { reads++; return Optional.ofNullable(active.get(profileUuid)); }
+        @Override public Optional<Long> findAnyDiscordForProfile(UUID profileUuid) { return Optional.ofNullable(active.get(profileUuid)); }
+        @Override public Set<UUID> findProfilesForDiscord(long discordId) {
+            reads++;
+            Set<UUID> out = new HashSet<>();
+            active.forEach((u, d) -> { if (d == discordId) out.add(u); });
+            return out;
+        }
+        @Override public int countByDiscordAndPlatform(long discordId, String platform, boolean includeReserved) { return 0; }
+        @Override public void unlinkByProfile(UUID profileUuid) { active.remove(profileUuid); }
+        @Override public void unlinkByDiscord(long discordId) { active.values().removeIf(d -> d == discordId); }
+        @Override public void unlinkByDiscordAndProfile(long discordId, UUID profileUuid) { active.remove(profileUuid, discordId); }
+    }
+
+    private static class MapProfileRepo implements ProfileRepo {
+        final Map<UUID, String> ips = new HashMap<>();
+
+        @Override public Optional<String> findLastConfirmedIp(UUID profileUuid) { return Optional.ofNullable(ips.get(profileUuid)); }
+        @Override public void updateLastConfirmedIp(UUID profileUuid, String ip) { ips.put(profileUuid, ip); }
+        @Override public void upsertName(UUID profileUuid, String playerName) { }
+        @Override public void updatePlatform(UUID profileUuid, String platform) { }
+        @Override public Optional<UUID> findUuidByName(String name) { return Optional.empty(); }
+        @Override public Optional<String> findNameByUuid(UUID uuid) { return Optional.empty(); }
+        @Override public Optional<String> findPlatform(UUID uuid) { return Optional.empty(); }
+    }
+}
@@ -0,0 +1,88 @@
+package ua.beengoo.logdo2.plugin.adapters.cache;
+
+import org.junit.jupiter.api.Test;
+import ua.beengoo.logdo2.api.ports.AccountsRepo;
+import ua.beengoo.logdo2.api.ports.ProfileRepo;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LinkReplicaTest {
+
+    @Test
+    void mirrorsLinkLifecycle() {
+        var replica = new LinkReplica(new NoopAccountsRepo(), new NoopProfileRepo(), 4);
+        UUID uuid = UUID.randomUUID();
+
+        replica.upsertName(uuid, "Steve");
+        replica.updatePlatform(uuid, "JAVA");
+        replica.reserve(10L, uuid);
+        assertFalse(replica.isLinked(uuid));
+        assertEquals(Optional.of(10L), replica.findAnyDiscordForProfile(uuid));
+        assertEquals(1, replica.countByDiscordAndPlatform(10L, "java", true));
+        assertEquals(0, replica.countByDiscordAndPlatform(10L, "java", false));
+
+        replica.activate(10L, uuid);
+        replica.activate(20L, uuid);
+        assertEquals(Optional.of(20L), replica.findDiscordForProfile(uuid));
+        assertTrue(replica.findProfilesForDiscord(10L).isEmpty(), "activate deactivates other links");
+        assertEquals(Set.of(uuid), replica.findProfilesForDiscord(20L));
+        assertEquals(Optional.of(uuid), replica.findUuidByName("STEVE"));
+
+        replica.unlinkByDiscord(20L);
+        assertFalse(replica.isLinked(uuid));
+        assertEquals(Optional.of(10L), replica.findAnyDiscordForProfile(uuid));
+
+        replica.unlinkByProfile(uuid);
+        assertEquals(Optional.empty(), replica.findNameByUuid(uuid));
+        assertEquals(Optional.empty(), replica.findUuidByName("steve"));
+    }
+
+    @Test
+    void indexSurvivesGrowthAndRemoval() {
+        var index = new LongUuidIndex(2);
+        Map<Long, UUID> expected = new HashMap<>();
+        for (long k = 0; k < 5_000; k++) {
+            UUID u = UUID.randomUUID();
+            index.add(k * 31, u);
+            expected.put(k * 31, u);
+        }
+        for (long k = 0; k < 5_000; k += 2) {
+            index.removeKey(k * 31);
+            expected.remove(k * 31);
+        }
+        assertEquals(expected.size(), index.size());
+        for (long k = 0; k < 5_000; k++) {
+            UUID[] got = index.get(k * 31);
+            UUID want = expected.get(k * 31);
+            if (want == null) assertEquals(0, got.length);
+            else assertArrayEquals(new UUID[]{want}, got);
+        }
+    }
+
+    private static class NoopAccountsRepo implements AccountsRepo {
+        @Override public void link(long discordId, UUID profileUuid) { }
+        @Override public void reserve(long discordId, UUID profileUuid) { }
+        @Override public void activate(long discordId, UUID profileUuid) { }
+        @Override public Optional<Long> linkedAt(UUID profileUUID) { return Optional.empty(); }
+        @Override public boolean isLinked(UUID profileUuid) { return false; }
+        @Override public Optional<Long> findDiscordForProfile(UUID profileUuid) { return Optional.empty(); }
+        @Override public Optional<Long> findAnyDiscordForProfile(UUID profileUuid) { return Optional.empty(); }
+        @Override public Set<UUID> findProfilesForDiscord(long discordId) { return Set.of(); }
+        @Override public int countByDiscordAndPlatform(long discordId, String platform, boolean includeReserved) { return 0; }
+        @Override public void unlinkByProfile(UUID profileUuid) { }
+        @Override public void unlinkByDiscord(long discordId) { }
+        @Override public void unlinkByDiscordAndProfile(long discordId, UUID profileUuid) { }
+    }
+
+    private static class NoopProfileRepo implements ProfileRepo {
+        @Override public Optional<String> findLastConfirmedIp(UUID profileUuid) { return Optional.empty(); }
+        @Override public void updateLastConfirmedIp(UUID profileUuid, String ip) { }
+        @Override public void upsertName(UUID profileUuid, String playerName) { }
+        @Override public void updatePlatform(UUID profileUuid, String platform) { }
+        @Override public Optional<UUID> findUuidByName(String name) { return Optional.empty(); }
+        @Override public Optional<String> findNameByUuid(UUID uuid) { return Optional.empty(); }
+        @Override public Optional<String> findPlatform(UUID uuid) { return Optional.empty(); }
+    }
+}
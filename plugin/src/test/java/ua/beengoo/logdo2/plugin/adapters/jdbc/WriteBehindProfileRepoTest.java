@@ -0,0 +1,101 @@
+package ua.beengoo.logdo2.plugin.adapters.jdbc;
+
+import org.junit.jupiter.api.Test;
+import org.sqlite.SQLiteDataSource;
+import ua.beengoo.logdo2.plugin.db.DatabaseManager;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteBehindProfileRepoTest {
+
+    @Test
+    void mergesUpdatesAndFlushesAsOneUpsert() throws Exception {
+        Path file = Files.createTempFile("logdo2-wb", ".db");
+        var ds = new SQLiteDataSource();
+        ds.setUrl("jdbc:sqlite:" + file);
+        try (var c = ds.getConnection(); var st = c.createStatement()) {
+            st.execute("CREATE TABLE mc_profiles (mc_uuid TEXT PRIMARY KEY, name TEXT, last_ip TEXT, platform TEXT, updated_at BIGINT NOT NULL)");
+            st.execute("CREATE TABLE links (discord_id INTEGER NOT NULL, mc_uuid TEXT NOT NULL, active INTEGER NOT NULL, created_at BIGINT NOT NULL)");
+        }
+        var jdbc = new JdbcProfileRepo(ds, DatabaseManager.Dialect.SQLITE);
+        var repo = new WriteBehindProfileRepo(jdbc, ds, DatabaseManager.Dialect.SQLITE, 60_000L, 100);
+        try {
+            UUID a = UUID.randomUUID();
+            UUID b = UUID.randomUUID();
+            repo.upsertName(a, "Old");
+            repo.upsertName(a, "Steve");
+            repo.updatePlatform(a, "JAVA");
+            var row = repo.resolveJoin(b, "Alex", "BEDROCK");
+            assertFalse(row.linked());
+
+            // Pending values are visible before anything reaches the database
+            assertEquals(Optional.of("Steve"), repo.findNameByUuid(a));
+            assertEquals(Optional.of(b), repo.findUuidByName("alex"));
+            assertEquals(Optional.empty(), jdbc.findNameByUuid(a));
+            assertEquals(2, repo.pendingCount());
+
+            repo.flush();
+            assertEquals(0, repo.pendingCount());
+            assertEquals(Optional.of("Steve"), jdbc.findNameByUuid(a));
+            assertEquals(Optional.of("JAVA"), jdbc.findPlatform(a));
+            assertEquals(Optional.of("BEDROCK"), jdbc.findPlatform(b));
+
+            // A platform-only update keeps the stored name
+            repo.updatePlatform(a, "BEDROCK");
+            repo.close();
+            assertEquals(Optional.of("Steve"), jdbc.findNameByUuid(a));
+            assertEquals(Optional.of("BEDROCK"), jdbc.findPlatform(a));
+        } finally {
+            repo.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void existingJoinUpdatesNeverRecreateADeletedProfile() throws Exception {
+        Path file = Files.createTempFile("logdo2-wb", ".db");
+        var ds = new SQLiteDataSource();
+        ds.setUrl("jdbc:sqlite:" + file);
+        UUID kept = UUID.randomUUID();
+        UUID purged = UUID.randomUUID();
+        try (var c = ds.getConnection(); var st = c.createStatement()) {
+            st.execute("CREATE TABLE mc_profiles (mc_uuid TEXT PRIMARY KEY, name TEXT, last_ip TEXT, platform TEXT, updated_at BIGINT NOT NULL)");
+            st.execute("CREATE TABLE links (discord_id INTEGER NOT NULL, mc_uuid TEXT NOT NULL, active INTEGER NOT NULL, created_at BIGINT NOT NULL)");
+            st.execute("INSERT INTO mc_profiles VALUES ('" + kept + "', 'Steve', '1.2.3.4', 'JAVA', 0)");
+            st.execute("INSERT INTO mc_profiles VALUES ('" + purged + "', 'Alex', NULL, 'JAVA', 0)");
+        }
+        var jdbc = new JdbcProfileRepo(ds, DatabaseManager.Dialect.SQLITE);
+        var repo = new WriteBehindProfileRepo(jdbc, ds, DatabaseManager.Dialect.SQLITE, 60_000L, 100);
+        try {
+            assertEquals("1.2.3.4", repo.resolveExistingJoin(kept, "Steve2", "BEDROCK").lastConfirmedIp());
+            repo.resolveExistingJoin(purged, "Alex2", "BEDROCK");
+            assertEquals(2, repo.pendingCount());
+            // e.g. a retention purge between the join and the flush
+            try (var c = ds.getConnection(); var st = c.createStatement()) {
+                st.execute("DELETE FROM mc_profiles WHERE mc_uuid='" + purged + "'");
+            }
+
+            repo.flush();
+            assertEquals(0, repo.pendingCount());
+            assertEquals(Optional.of("Steve2"), jdbc.findNameByUuid(kept));
+            assertEquals(Optional.of("BEDROCK"), jdbc.findPlatform(kept));
+            assertEquals(Optional.empty(), jdbc.findNameByUuid(purged));
+
+            // Platform-only update keeps the name; a join that may create the profile still upserts
+            repo.resolveExistingJoin(kept, null, "JAVA");
+            repo.resolveJoin(purged, "Alex3", "JAVA");
+            repo.flush();
+            assertEquals(Optional.of("Steve2"), jdbc.findNameByUuid(kept));
+            assertEquals(Optional.of("JAVA"), jdbc.findPlatform(kept));
+            assertEquals(Optional.of("Alex3"), jdbc.findNameByUuid(purged));
+        } finally {
+            repo.close();
+            Files.deleteIfExists(file);
+        }
+    }
+}
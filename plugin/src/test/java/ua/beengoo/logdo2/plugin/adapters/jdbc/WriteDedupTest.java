@@ -0,0 +1,56 @@
+package ua.beengoo.logdo2.plugin.adapters.jdbc;
+
+import org.junit.jupiter.api.Test;
+import org.sqlite.SQLiteDataSource;
+import ua.beengoo.logdo2.plugin.db.DatabaseManager;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteDedupTest {
+
+    @Test
+    void unchangedWritesAreSkippedUntilRowIsForgotten() throws Exception {
+        Path file = Files.createTempFile("logdo2-dedup", ".db");
+        var ds = new SQLiteDataSource();
+        ds.setUrl("jdbc:sqlite:" + file);
+        try (var c = ds.getConnection(); var st = c.createStatement()) {
+            st.execute("CREATE TABLE mc_profiles (mc_uuid TEXT PRIMARY KEY, name TEXT, last_ip TEXT, platform TEXT, updated_at BIGINT NOT NULL)");
+            st.execute("CREATE TABLE links (discord_id INTEGER NOT NULL, mc_uuid TEXT NOT NULL, active INTEGER NOT NULL, created_at BIGINT NOT NULL)");
+        }
+        try {
+            var dedup = new WriteDedup(100, Duration.ofHours(1));
+            var profiles = new JdbcProfileRepo(ds, DatabaseManager.Dialect.SQLITE, dedup);
+            var join = new JdbcJoinRepo(ds, DatabaseManager.Dialect.SQLITE, dedup);
+            UUID uuid = UUID.randomUUID();
+
+            join.resolveJoin(uuid, "Steve", "JAVA");
+            // Change the row behind the repo: identical writes must not touch it
+            try (var c = ds.getConnection(); var st = c.createStatement()) {
+                st.executeUpdate("UPDATE mc_profiles SET name='Other'");
+            }
+            join.resolveJoin(uuid, "Steve", "JAVA");
+            profiles.upsertName(uuid, "Steve");
+            assertEquals(Optional.of("Other"), profiles.findNameByUuid(uuid));
+
+            // A different value is written, and so is anything after forget()
+            profiles.upsertName(uuid, "Alex");
+            assertEquals(Optional.of("Alex"), profiles.findNameByUuid(uuid));
+            dedup.forget("mc_profiles", uuid);
+            profiles.updatePlatform(uuid, "JAVA");
+            try (var c = ds.getConnection(); var st = c.createStatement()) {
+                st.executeUpdate("UPDATE mc_profiles SET platform=NULL");
+            }
+            profiles.updatePlatform(uuid, "JAVA");
+            assertEquals(Optional.empty(), profiles.findPlatform(uuid));
+            assertFalse(WriteDedup.disabled().unchanged("mc_profiles", uuid, "platform", "JAVA"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import org.junit.jupiter.api.Test;
+import org.sqlite.SQLiteDataSource;
+import ua.beengoo.logdo2.plugin.adapters.jdbc.JdbcAccountsRepo;
+import ua.beengoo.logdo2.plugin.adapters.jdbc.JdbcBanProgressRepo;
+import ua.beengoo.logdo2.plugin.adapters.jdbc.JdbcProfileRepo;
+import ua.beengoo.logdo2.plugin.adapters.jdbc.WriteDedup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryKeyConverterTest {
+    private static final DatabaseManager.Dialect SQLITE = DatabaseManager.Dialect.SQLITE;
+
+    @Test
+    void convertsExistingRowsAndKeepsLookupsWorking() throws Exception {
+        Path file = Files.createTempFile("logdo2-bin", ".db");
+        var ds = new SQLiteDataSource();
+        ds.setUrl("jdbc:sqlite:" + file);
+        try {
+            new MigrationRunner(ds, SQLITE, BinaryKeyConverterTest.class.getClassLoader()::getResourceAsStream).migrate();
+            UUID steve = UUID.randomUUID();
+            UUID alex = UUID.randomUUID();
+            new JdbcAccountsRepo(ds, SQLITE).activate(10L, steve, "Steve", "JAVA", "203.0.113.7");
+            new JdbcAccountsRepo(ds, SQLITE).reserve(10L, alex, "Alex", "BEDROCK", "0:0:0:0:0:0:0:1");
+            new JdbcBanProgressRepo(ds, SQLITE).upsert("198.51.100.1", 2, 100L, 200L);
+
+            assertEquals(KeyCodec.TEXT, new BinaryKeyConverter(ds, SQLITE).ensure(false));
+            assertEquals(KeyCodec.BINARY, new BinaryKeyConverter(ds, SQLITE).ensure(true));
+
+            var accounts = new JdbcAccountsRepo(ds, SQLITE, WriteDedup.disabled(), KeyCodec.BINARY);
+            var profiles = new JdbcProfileRepo(ds, SQLITE, WriteDedup.disabled(), KeyCodec.BINARY);
+            var bans = new JdbcBanProgressRepo(ds, SQLITE, KeyCodec.BINARY);
+            assertEquals(Optional.of(10L), accounts.findDiscordForProfile(steve));
+            assertEquals(Optional.of(10L), accounts.findAnyDiscordForProfile(alex));
+            assertEquals(1, accounts.countByDiscordAndPlatform(10L, "BEDROCK", true));
+            assertEquals(Optional.of(alex), profiles.findUuidByName("alex"));
+            assertEquals(Optional.of("203.0.113.7"), profiles.findLastConfirmedIp(steve));
+            assertEquals(Optional.of("0:0:0:0:0:0:0:1"), profiles.findLastConfirmedIp(alex));
+            assertEquals(2, bans.findByIp("198.51.100.1").orElseThrow().attempts());
+            try (var c = ds.getConnection(); var st = c.createStatement();
+                 var rs = st.executeQuery("SELECT length(mc_uuid), length(last_ip) FROM mc_profiles WHERE name='Steve'")) {
+                assertTrue(rs.next());
+                assertEquals(16, rs.getInt(1));
+                assertEquals(4, rs.getInt(2));
+            }
+
+            // Converted once; asking for text afterwards keeps binary
+            assertEquals(KeyCodec.BINARY, new BinaryKeyConverter(ds, SQLITE).ensure(true));
+            assertEquals(KeyCodec.BINARY, new BinaryKeyConverter(ds, SQLITE).ensure(false));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void codecRoundTrips() {
+        UUID uuid = UUID.randomUUID();
+        assertEquals(uuid, KeyCodec.uuidFromBytes(KeyCodec.uuidBytes(uuid)));
+        assertEquals(4, KeyCodec.ipBytes("10.0.0.1").length);
+        assertEquals(16, KeyCodec.ipBytes("2001:db8::1").length);
+        assertEquals("2001:db8:0:0:0:0:0:1", KeyCodec.ipFromBytes(KeyCodec.ipBytes("2001:db8::1")));
+        assertEquals("unknown", KeyCodec.ipFromBytes(KeyCodec.ipBytes("unknown")));
+        assertEquals("unknown", KeyCodec.ipFromBytes(KeyCodec.ipBytes("cafe"))); // never a DNS lookup
+    }
+}
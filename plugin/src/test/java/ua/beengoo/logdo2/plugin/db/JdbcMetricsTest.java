@@ -0,0 +1,69 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import org.junit.jupiter.api.Test;
+import org.sqlite.SQLiteDataSource;
+import ua.beengoo.logdo2.plugin.adapters.jdbc.JdbcAccountsRepo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JdbcMetricsTest {
+
+    @Test
+    void shapesFoldWhitespaceAndValueRows() {
+        assertEquals("SELECT a FROM t WHERE b=?", JdbcMetrics.shape("  SELECT a\n   FROM t\tWHERE b=?  "));
+        assertEquals("INSERT INTO t(a,b) VALUES (?,?), ... ON CONFLICT(a) DO NOTHING",
+                JdbcMetrics.shape("INSERT INTO t(a,b) VALUES (?,?),(?,?),(?,?) ON CONFLICT(a) DO NOTHING"));
+        assertEquals(JdbcMetrics.shape("INSERT INTO t(a) VALUES (?),(?)"), JdbcMetrics.shape("INSERT INTO t(a) VALUES (?),(?),(?)"));
+    }
+
+    @Test
+    void countsStatementsAndRowsPerFlow() throws Exception {
+        Path file = Files.createTempFile("logdo2-metrics", ".db");
+        var sqlite = new SQLiteDataSource();
+        sqlite.setUrl("jdbc:sqlite:" + file);
+        try (var c = sqlite.getConnection(); var st = c.createStatement()) {
+            st.execute("CREATE TABLE discord_accounts (discord_id INTEGER PRIMARY KEY, updated_at BIGINT NOT NULL)");
+            st.execute("CREATE TABLE mc_profiles (mc_uuid TEXT PRIMARY KEY, name TEXT, last_ip TEXT, platform TEXT, updated_at BIGINT NOT NULL)");
+            st.execute("CREATE TABLE links (discord_id INTEGER NOT NULL, mc_uuid TEXT NOT NULL, active INTEGER NOT NULL, created_at BIGINT NOT NULL, PRIMARY KEY (discord_id, mc_uuid))");
+        }
+        var metrics = new JdbcMetrics(0);
+        metrics.reset();
+        var tx = new TransactionalDataSource(metrics.wrap(sqlite));
+        var accounts = new JdbcAccountsRepo(tx, DatabaseManager.Dialect.SQLITE);
+        try {
+            UUID a = UUID.randomUUID();
+            UUID b = UUID.randomUUID();
+            JdbcFlow.run(JdbcFlow.OAUTH_CALLBACK, () -> {
+                accounts.activate(1L, a, "Steve", "JAVA", "1.2.3.4");
+                accounts.reserve(1L, b, "Alex", "BEDROCK", null);
+            });
+            assertEquals(Set.of(a), accounts.findProfilesForDiscord(1L)); // b is only reserved
+
+            List<JdbcMetrics.Stat> stats = metrics.snapshot();
+            assertTrue(stats.stream().allMatch(s -> s.flow().equals(JdbcFlow.OAUTH_CALLBACK) || s.flow().equals(JdbcFlow.LOOKUP)));
+            JdbcMetrics.Stat lookup = stats.stream().filter(s -> s.flow().equals(JdbcFlow.LOOKUP)).findFirst().orElseThrow();
+            assertEquals(1, lookup.count());
+            assertEquals(1, lookup.rows(), "rows read");
+            assertTrue(lookup.shape().startsWith("SELECT mc_uuid FROM links"), lookup.shape());
+            long callbackStatements = stats.stream().filter(s -> s.flow().equals(JdbcFlow.OAUTH_CALLBACK)).mapToLong(JdbcMetrics.Stat::count).sum();
+            assertTrue(callbackStatements >= 6, "profile, account and link writes for both calls");
+
+            List<String> report = metrics.report(3);
+            assertTrue(report.stream().anyMatch(l -> l.startsWith("oauth_callback: " + callbackStatements + " stmts")
+                    && l.contains("| 1 runs")), String.join("\n", report));
+            assertEquals(Optional.of(1L), accounts.findDiscordForProfile(a));
+
+            metrics.reset();
+            assertEquals(List.of(), metrics.snapshot());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
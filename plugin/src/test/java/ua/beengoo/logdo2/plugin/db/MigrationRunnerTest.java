@@ -0,0 +1,153 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import org.junit.jupiter.api.Test;
+import org.sqlite.SQLiteDataSource;
+import ua.beengoo.logdo2.plugin.adapters.jdbc.JdbcAccountsRepo;
+import ua.beengoo.logdo2.plugin.adapters.jdbc.JdbcProfileRepo;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MigrationRunnerTest {
+    private static final Function<String, InputStream> CLASSPATH =
+            MigrationRunnerTest.class.getClassLoader()::getResourceAsStream;
+
+    @Test
+    void appliesEachScriptOnceAndRejectsEditedOnes() throws Exception {
+        Path file = Files.createTempFile("logdo2-mig", ".db");
+        var ds = sqlite(file);
+        try {
+            assertEquals(MigrationRunner.latestVersion(), new MigrationRunner(ds, DatabaseManager.Dialect.SQLITE, CLASSPATH).migrate());
+            assertEquals(0, new MigrationRunner(ds, DatabaseManager.Dialect.SQLITE, CLASSPATH).migrate());
+            assertEquals(MigrationRunner.latestVersion(), count(ds, "SELECT COUNT(*) FROM schema_version"));
+            assertEquals(0, count(ds, "PRAGMA auto_vacuum")); // V5 is a marker; SqliteMaintenance converts the file
+
+            Function<String, InputStream> edited = path -> path.endsWith("V1__init.sql")
+                    ? new ByteArrayInputStream("-- changed\n".getBytes(StandardCharsets.UTF_8))
+                    : CLASSPATH.apply(path);
+            var ex = assertThrows(IllegalStateException.class,
+                    () -> new MigrationRunner(ds, DatabaseManager.Dialect.SQLITE, edited).migrate());
+            assertTrue(ex.getMessage().contains("V1__init.sql"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void serversSharingTheFileMigrateOneAtATime() throws Exception {
+        Path file = Files.createTempFile("logdo2-mig", ".db");
+        var ds = sqlite(file);
+        ExecutorService servers = Executors.newFixedThreadPool(2);
+        try {
+            Callable<Integer> start = () -> new MigrationRunner(ds, DatabaseManager.Dialect.SQLITE, CLASSPATH).migrate();
+            List<Future<Integer>> runs = servers.invokeAll(List.of(start, start));
+            // Whoever waited re-reads schema_version and finds nothing left to do
+            assertEquals(MigrationRunner.latestVersion(), runs.get(0).get() + runs.get(1).get());
+            assertEquals(MigrationRunner.latestVersion(), count(ds, "SELECT COUNT(*) FROM schema_version"));
+        } finally {
+            servers.shutdownNow();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void failedSqliteRunLeavesNothingBehind() throws Exception {
+        Path file = Files.createTempFile("logdo2-mig", ".db");
+        var ds = sqlite(file);
+        try {
+            Function<String, InputStream> broken = path -> path.endsWith("V2__ban_progress.sql")
+                    ? new ByteArrayInputStream("CREATE TABLE oops (;\n".getBytes(StandardCharsets.UTF_8))
+                    : CLASSPATH.apply(path);
+            assertThrows(RuntimeException.class,
+                    () -> new MigrationRunner(ds, DatabaseManager.Dialect.SQLITE, broken).migrate());
+            assertEquals(0, count(ds, "SELECT COUNT(*) FROM sqlite_master WHERE name IN ('schema_version', 'mc_profiles')"));
+
+            assertEquals(MigrationRunner.latestVersion(), new MigrationRunner(ds, DatabaseManager.Dialect.SQLITE, CLASSPATH).migrate());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void baselinesDatabasesFromBeforeVersioning() throws Exception {
+        Path file = Files.createTempFile("logdo2-mig", ".db");
+        var ds = sqlite(file);
+        try {
+            try (var c = ds.getConnection(); var st = c.createStatement()) {
+                // Oldest layout: no platform column, no ban_progress table
+                st.execute("CREATE TABLE mc_profiles (mc_uuid TEXT PRIMARY KEY, name TEXT, last_ip TEXT, updated_at BIGINT NOT NULL)");
+                st.execute("INSERT INTO mc_profiles VALUES ('u', 'Steve', NULL, 0)");
+                st.execute("CREATE TABLE links (discord_id INTEGER NOT NULL, mc_uuid TEXT NOT NULL, active INTEGER NOT NULL DEFAULT 1, created_at BIGINT NOT NULL, PRIMARY KEY (discord_id, mc_uuid))");
+                st.execute("CREATE INDEX idx_links_mc ON links(mc_uuid)");
+            }
+            int applied = new MigrationRunner(ds, DatabaseManager.Dialect.SQLITE, CLASSPATH).migrate();
+            assertEquals(MigrationRunner.latestVersion() - 1, applied); // everything after the V1 baseline
+            assertEquals(1, count(ds, "SELECT COUNT(*) FROM mc_profiles WHERE platform IS NULL"));
+            assertEquals(0, count(ds, "SELECT COUNT(*) FROM ban_progress"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void lookupsUseTheNormalizedIndexedColumns() throws Exception {
+        Path file = Files.createTempFile("logdo2-mig", ".db");
+        var ds = sqlite(file);
+        try {
+            new MigrationRunner(ds, DatabaseManager.Dialect.SQLITE, CLASSPATH).migrate();
+            var accounts = new JdbcAccountsRepo(ds, DatabaseManager.Dialect.SQLITE);
+            var profiles = new JdbcProfileRepo(ds, DatabaseManager.Dialect.SQLITE);
+            UUID uuid = UUID.randomUUID();
+            accounts.activate(10L, uuid, "Steve", "java", null);
+
+            assertEquals(Optional.of(uuid), profiles.findUuidByName("STEVE"));
+            assertEquals(Optional.of("JAVA"), profiles.findPlatform(uuid));
+            assertEquals(1, accounts.countByDiscordAndPlatform(10L, "Java", false));
+
+            assertTrue(plan(ds, "SELECT mc_uuid FROM mc_profiles WHERE name_lower=LOWER('x')").contains("idx_profiles_name_lower"));
+            assertTrue(plan(ds, "SELECT discord_id FROM links WHERE mc_uuid='x' AND active=1").contains("idx_links_mc_active"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void splitsStatementsAndDropsComments() {
+        assertEquals(List.of("CREATE TABLE a (x INT)", "CREATE INDEX i ON a(x)"),
+                MigrationRunner.statements("-- note\nCREATE TABLE a (x INT);\n\nCREATE INDEX i ON a(x);"));
+    }
+
+    private static SQLiteDataSource sqlite(Path file) {
+        var ds = new SQLiteDataSource();
+        ds.setUrl("jdbc:sqlite:" + file);
+        return ds;
+    }
+
+    private static String plan(SQLiteDataSource ds, String sql) throws Exception {
+        StringBuilder out = new StringBuilder();
+        try (var c = ds.getConnection(); var st = c.createStatement(); var rs = st.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (rs.next()) out.append(rs.getString("detail")).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static int count(SQLiteDataSource ds, String sql) throws Exception {
+        try (var c = ds.getConnection(); var st = c.createStatement(); var rs = st.executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
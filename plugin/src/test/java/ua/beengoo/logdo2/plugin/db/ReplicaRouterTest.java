@@ -0,0 +1,129 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import org.junit.jupiter.api.Test;
+import org.sqlite.SQLiteDataSource;
+import ua.beengoo.logdo2.plugin.adapters.jdbc.JdbcAccountsRepo;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicaRouterTest {
+
+    @Test
+    void lookupsUseACaughtUpReplicaAndFallBackToThePrimary() throws Exception {
+        Path primaryFile = Files.createTempFile("logdo2-primary", ".db");
+        Path replicaFile = Files.createTempFile("logdo2-replica", ".db");
+        SQLiteDataSource primary = sqlite(primaryFile);
+        SQLiteDataSource replica = sqlite(replicaFile);
+        AtomicLong lag = new AtomicLong(0);
+        var router = new ReplicaRouter(List.of(Map.entry("replica-1", (DataSource) replica)), c -> lag.get(), 500, 100);
+        var tx = new TransactionalDataSource(primary);
+        tx.useReplicas(router);
+        var accounts = new JdbcAccountsRepo(tx, DatabaseManager.Dialect.SQLITE);
+        UUID uuid = UUID.randomUUID();
+        try {
+            // The "replica" has never seen this link, so the answer tells where the lookup went
+            accounts.activate(1L, uuid, "Steve", "JAVA", "1.2.3.4");
+            assertEquals(Optional.of(1L), accounts.findDiscordForProfile(uuid), "just written: primary");
+
+            Thread.sleep(250);
+            assertEquals(Optional.empty(), accounts.findDiscordForProfile(uuid), "caught up: replica");
+
+            lag.set(10_000);
+            router.checkLag();
+            assertEquals(Optional.of(1L), accounts.findDiscordForProfile(uuid), "lagging: primary");
+
+            lag.set(0);
+            router.checkLag();
+            assertEquals(Optional.empty(), accounts.findDiscordForProfile(uuid));
+            lag.set(ReplicaRouter.UNKNOWN);
+            router.checkLag();
+            assertEquals(Optional.of(1L), accounts.findDiscordForProfile(uuid), "replication stopped: primary");
+
+            lag.set(0);
+            router.checkLag();
+            // Reads inside a unit of work see its own writes
+            assertEquals(Optional.of(1L), tx.inTransaction(() -> accounts.findDiscordForProfile(uuid)));
+            assertTrue(router.statsLine().startsWith("replica reads=2 primary fallbacks=3"), router.statsLine());
+        } finally {
+            router.close();
+            Files.deleteIfExists(primaryFile);
+            Files.deleteIfExists(replicaFile);
+        }
+    }
+
+    @Test
+    void writesHoldBackOnlyLookupsOfTheRowsTheyTouched() throws Exception {
+        Path primaryFile = Files.createTempFile("logdo2-primary", ".db");
+        Path replicaFile = Files.createTempFile("logdo2-replica", ".db");
+        SQLiteDataSource primary = sqlite(primaryFile);
+        SQLiteDataSource replica = sqlite(replicaFile);
+        var router = new ReplicaRouter(List.of(Map.entry("replica-1", (DataSource) replica)), c -> 0, 500, 100);
+        var tx = new TransactionalDataSource(primary);
+        tx.useReplicas(router);
+        var accounts = new JdbcAccountsRepo(tx, DatabaseManager.Dialect.SQLITE);
+        UUID steve = UUID.randomUUID();
+        UUID alex = UUID.randomUUID();
+        try {
+            accounts.activate(1L, steve, "Steve", "JAVA", "1.2.3.4");
+            Thread.sleep(250);
+
+            // Another player's write right now: Steve's lookups stay on the replica, Alex's go to the primary
+            accounts.reserve(2L, alex, "Alex", "JAVA", "5.6.7.8");
+            assertEquals(Optional.empty(), accounts.findDiscordForProfile(steve), "unrelated write: replica");
+            assertEquals(Optional.of(2L), accounts.findAnyDiscordForProfile(alex), "own write: primary");
+            assertEquals(1, accounts.countByDiscordAndPlatform(2L, "JAVA", true), "by Discord ID: primary");
+            assertTrue(router.statsLine().startsWith("replica reads=1 primary fallbacks=2 "), router.statsLine());
+        } finally {
+            router.close();
+            Files.deleteIfExists(primaryFile);
+            Files.deleteIfExists(replicaFile);
+        }
+    }
+
+    @Test
+    void unreachableReplicaFallsBack() throws Exception {
+        Path primaryFile = Files.createTempFile("logdo2-primary", ".db");
+        SQLiteDataSource primary = sqlite(primaryFile);
+        DataSource down = new SQLiteDataSource() {
+            @Override
+            public java.sql.Connection getConnection() throws SQLException {
+                throw new SQLException("connection refused");
+            }
+        };
+        var router = new ReplicaRouter(List.of(Map.entry("replica-1", down)), c -> 0, 500, 100);
+        var tx = new TransactionalDataSource(primary);
+        tx.useReplicas(router);
+        try {
+            UUID uuid = UUID.randomUUID();
+            var accounts = new JdbcAccountsRepo(tx, DatabaseManager.Dialect.SQLITE);
+            accounts.activate(1L, uuid, "Steve", "JAVA", "1.2.3.4");
+            Thread.sleep(250);
+            assertEquals(Optional.of(1L), accounts.findDiscordForProfile(uuid));
+            assertTrue(router.statsLine().endsWith("replica-1=down"), router.statsLine());
+        } finally {
+            router.close();
+            Files.deleteIfExists(primaryFile);
+        }
+    }
+
+    private static SQLiteDataSource sqlite(Path file) throws SQLException {
+        var ds = new SQLiteDataSource();
+        ds.setUrl("jdbc:sqlite:" + file);
+        try (var c = ds.getConnection(); var st = c.createStatement()) {
+            st.execute("CREATE TABLE discord_accounts (discord_id INTEGER PRIMARY KEY, updated_at BIGINT NOT NULL)");
+            st.execute("CREATE TABLE mc_profiles (mc_uuid TEXT PRIMARY KEY, name TEXT, last_ip TEXT, platform TEXT, updated_at BIGINT NOT NULL)");
+            st.execute("CREATE TABLE links (discord_id INTEGER NOT NULL, mc_uuid TEXT NOT NULL, active INTEGER NOT NULL, created_at BIGINT NOT NULL, PRIMARY KEY (discord_id, mc_uuid))");
+        }
+        return ds;
+    }
+}
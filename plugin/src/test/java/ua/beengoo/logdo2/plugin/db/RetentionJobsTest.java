@@ -0,0 +1,110 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import org.junit.jupiter.api.Test;
+import org.sqlite.SQLiteDataSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetentionJobsTest {
+    private static final long DAY = 86_400;
+
+    @Test
+    void purgesOnlyExpiredRowsInChunks() throws Exception {
+        Path file = Files.createTempFile("logdo2-retention", ".db");
+        var ds = new SQLiteDataSource();
+        ds.setUrl("jdbc:sqlite:" + file);
+        long now = System.currentTimeMillis() / 1000;
+        long old = now - 100 * DAY;
+        UUID linked = UUID.randomUUID();
+        UUID reservedOnly = UUID.randomUUID();
+        UUID fresh = UUID.randomUUID();
+        try (var c = ds.getConnection(); Statement st = c.createStatement()) {
+            st.execute("CREATE TABLE discord_accounts (discord_id INTEGER PRIMARY KEY, updated_at BIGINT NOT NULL)");
+            st.execute("CREATE TABLE mc_profiles (mc_uuid TEXT PRIMARY KEY, name TEXT, last_ip TEXT, platform TEXT, updated_at BIGINT NOT NULL)");
+            st.execute("CREATE TABLE links (discord_id INTEGER NOT NULL, mc_uuid TEXT NOT NULL, active INTEGER NOT NULL, created_at BIGINT NOT NULL, PRIMARY KEY (discord_id, mc_uuid))");
+            st.execute("CREATE TABLE ban_progress (ip TEXT PRIMARY KEY, attempts INTEGER NOT NULL, last_attempt BIGINT NOT NULL, last_ban_until BIGINT NOT NULL)");
+            // 25 expired ban rows, one still banned, one attempted recently
+            for (int i = 0; i < 25; i++) {
+                st.execute("INSERT INTO ban_progress VALUES ('10.0.0." + i + "', 1, " + old + ", " + old + ")");
+            }
+            st.execute("INSERT INTO ban_progress VALUES ('10.0.1.1', 3, " + old + ", " + (now + DAY) + ")");
+            st.execute("INSERT INTO ban_progress VALUES ('10.0.1.2', 1, " + (now - DAY) + ", " + (now - DAY) + ")");
+
+            st.execute("INSERT INTO discord_accounts VALUES (1, " + old + "), (2, " + old + "), (3, " + now + ")");
+            st.execute("INSERT INTO mc_profiles VALUES ('" + linked + "', 'Steve', NULL, 'JAVA', " + old + ")");
+            st.execute("INSERT INTO mc_profiles VALUES ('" + reservedOnly + "', 'Alex', NULL, 'BEDROCK', " + old + ")");
+            st.execute("INSERT INTO mc_profiles VALUES ('" + fresh + "', 'Herobrine', NULL, 'JAVA', " + now + ")");
+            st.execute("INSERT INTO links VALUES (1, '" + linked + "', 1, " + old + ")");
+            st.execute("INSERT INTO links VALUES (2, '" + reservedOnly + "', 0, " + old + ")");
+        }
+
+        var tx = new TransactionalDataSource(ds);
+        var jobs = new RetentionJobs(tx, DatabaseManager.Dialect.SQLITE, KeyCodec.TEXT,
+                new RetentionJobs.Settings(true, 7 * DAY, 90 * DAY, 90 * DAY, 10, 0), () -> 30 * DAY);
+        List<String> events = new ArrayList<>();
+        jobs.addListener(new RetentionJobs.Listener() {
+            @Override public void reservedLinkPurged(long discordId, UUID profileUuid) {
+                events.add("link " + discordId + " " + profileUuid);
+            }
+            @Override public void profilePurged(UUID profileUuid) {
+                events.add("profile " + profileUuid);
+            }
+        });
+        try {
+            Map<String, Integer> purged = jobs.runOnce();
+            assertEquals(Map.of("ban_progress", 25, "reserved links", 1, "orphan profiles", 1,
+                    "orphan discord accounts", 1), purged);
+            assertEquals(List.of("link 2 " + reservedOnly, "profile " + reservedOnly), events);
+
+            assertEquals(List.of("10.0.1.1", "10.0.1.2"), column(ds, "SELECT ip FROM ban_progress ORDER BY ip"));
+            assertEquals(List.of(linked.toString(), fresh.toString()).stream().sorted().toList(),
+                    column(ds, "SELECT mc_uuid FROM mc_profiles ORDER BY mc_uuid"));
+            // Discord 2 lost its only (reserved) link and was old, so it goes; 3 is recent
+            assertEquals(List.of("1", "3"), column(ds, "SELECT discord_id FROM discord_accounts ORDER BY discord_id"));
+
+            assertEquals(Map.of("ban_progress", 0, "reserved links", 0, "orphan profiles", 0,
+                    "orphan discord accounts", 0), jobs.runOnce());
+            assertEquals("ban_progress=25, reserved links=1, orphan profiles=1, orphan discord accounts=1", jobs.statsLine());
+        } finally {
+            jobs.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void zeroTrackWindowKeepsBanHistory() throws Exception {
+        Path file = Files.createTempFile("logdo2-retention", ".db");
+        var ds = new SQLiteDataSource();
+        ds.setUrl("jdbc:sqlite:" + file);
+        try (var c = ds.getConnection(); Statement st = c.createStatement()) {
+            st.execute("CREATE TABLE ban_progress (ip TEXT PRIMARY KEY, attempts INTEGER NOT NULL, last_attempt BIGINT NOT NULL, last_ban_until BIGINT NOT NULL)");
+            st.execute("INSERT INTO ban_progress VALUES ('10.0.0.1', 1, 0, 0)");
+        }
+        var jobs = new RetentionJobs(new TransactionalDataSource(ds), DatabaseManager.Dialect.SQLITE, KeyCodec.TEXT,
+                new RetentionJobs.Settings(true, 0, 0, 0, 10, 0), () -> 0);
+        try {
+            assertEquals(Map.of(), jobs.runOnce());
+            assertEquals(List.of("10.0.0.1"), column(ds, "SELECT ip FROM ban_progress"));
+        } finally {
+            jobs.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static List<String> column(SQLiteDataSource ds, String sql) throws SQLException {
+        List<String> out = new ArrayList<>();
+        try (var c = ds.getConnection(); var st = c.createStatement(); var rs = st.executeQuery(sql)) {
+            while (rs.next()) out.add(rs.getString(1));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,96 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import org.junit.jupiter.api.Test;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqliteMaintenanceTest {
+    private static final Function<String, InputStream> CLASSPATH =
+            SqliteMaintenanceTest.class.getClassLoader()::getResourceAsStream;
+
+    @Test
+    void convertsThenVacuumsAndCheckpointsOnlyWhileQuiet() throws Exception {
+        Path file = Files.createTempFile("logdo2-maint", ".db");
+        SQLiteConfig writeCfg = new SQLiteConfig();
+        writeCfg.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        var write = new SQLiteDataSource(writeCfg);
+        write.setUrl("jdbc:sqlite:" + file);
+        new MigrationRunner(write, DatabaseManager.Dialect.SQLITE, CLASSPATH).migrate();
+        fillAndEmpty(write);
+        SQLiteConfig readCfg = new SQLiteConfig();
+        readCfg.setReadOnly(true);
+        var read = new SQLiteDataSource(readCfg);
+        read.setUrl("jdbc:sqlite:" + file);
+        var checkpoint = new SQLiteDataSource();
+        checkpoint.setUrl("jdbc:sqlite:" + file);
+
+        var tx = new TransactionalDataSource(read, write, 8);
+        AtomicLong joins = new AtomicLong();
+        var maintenance = new SqliteMaintenance(tx, checkpoint, new SqliteMaintenance.Settings(2, 0, 1000), joins::get);
+        try {
+            int free = freePages(read);
+            assertTrue(free > 0);
+            assertEquals(0, pragma(read, "auto_vacuum"), "migrations leave the file alone");
+
+            // Many joins since the last check: nothing runs, not even the one-time conversion
+            joins.addAndGet(1000);
+            maintenance.check();
+            assertEquals(free, freePages(read));
+            assertEquals(0, pragma(read, "auto_vacuum"));
+            assertTrue(maintenance.statsLine().startsWith("checkpoints=0"), maintenance.statsLine());
+
+            // Quiet: the full VACUUM converts the file (and drops its free pages)
+            maintenance.check();
+            assertEquals(2, pragma(read, "auto_vacuum"));
+            assertEquals(0, freePages(read));
+            assertEquals("checkpoints=1", maintenance.statsLine().split(" ")[0]);
+            assertTrue(maintenance.statsLine().contains("optimize=1"), maintenance.statsLine());
+            assertTrue(maintenance.statsLine().contains("incremental=true"), maintenance.statsLine());
+
+            // From now on free pages go back in incremental steps
+            fillAndEmpty(write);
+            int freed = freePages(read);
+            assertTrue(freed > 0);
+            maintenance.check();
+            assertEquals(0, freePages(read));
+            assertTrue(maintenance.statsLine().contains("vacuumed pages=" + freed), maintenance.statsLine());
+        } finally {
+            maintenance.close();
+            tx.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void fillAndEmpty(SQLiteDataSource write) throws SQLException {
+        try (var c = write.getConnection(); var st = c.createStatement()) {
+            st.execute("PRAGMA wal_autocheckpoint=0"); // leave the WAL to the maintenance checkpoint
+            for (int i = 0; i < 2000; i++) {
+                st.execute("INSERT INTO ban_progress VALUES ('" + "x".repeat(200) + i + "', 1, 0, 0)");
+            }
+            st.execute("DELETE FROM ban_progress");
+        }
+    }
+
+    private static int pragma(SQLiteDataSource ds, String name) throws SQLException {
+        try (var c = ds.getConnection(); var st = c.createStatement(); var rs = st.executeQuery("PRAGMA " + name)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static int freePages(SQLiteDataSource ds) throws SQLException {
+        try (var c = ds.getConnection(); var st = c.createStatement(); var rs = st.executeQuery("PRAGMA freelist_count")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
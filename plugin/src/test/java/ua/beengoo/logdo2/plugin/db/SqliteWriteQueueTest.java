@@ -0,0 +1,100 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import org.junit.jupiter.api.Test;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteDataSource;
+import ua.beengoo.logdo2.plugin.adapters.jdbc.JdbcAccountsRepo;
+import ua.beengoo.logdo2.plugin.adapters.jdbc.JdbcProfileRepo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqliteWriteQueueTest {
+
+    @Test
+    void writesRunOnOneThreadAndFailuresStayIsolated() throws Exception {
+        Path file = Files.createTempFile("logdo2-wal", ".db");
+        SQLiteConfig writeCfg = new SQLiteConfig();
+        writeCfg.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        writeCfg.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+        var write = new SQLiteDataSource(writeCfg);
+        write.setUrl("jdbc:sqlite:" + file);
+        try (var c = write.getConnection(); var st = c.createStatement()) {
+            st.execute("CREATE TABLE discord_accounts (discord_id INTEGER PRIMARY KEY, updated_at BIGINT NOT NULL)");
+            st.execute("CREATE TABLE mc_profiles (mc_uuid TEXT PRIMARY KEY, name TEXT, last_ip TEXT, platform TEXT, updated_at BIGINT NOT NULL)");
+            st.execute("CREATE TABLE links (discord_id INTEGER NOT NULL, mc_uuid TEXT NOT NULL, active INTEGER NOT NULL, created_at BIGINT NOT NULL, PRIMARY KEY (discord_id, mc_uuid))");
+        }
+        SQLiteConfig readCfg = new SQLiteConfig();
+        readCfg.setReadOnly(true);
+        var read = new SQLiteDataSource(readCfg);
+        read.setUrl("jdbc:sqlite:" + file);
+
+        var tx = new TransactionalDataSource(read, write, 8);
+        var accounts = new JdbcAccountsRepo(tx, DatabaseManager.Dialect.SQLITE);
+        var profiles = new JdbcProfileRepo(tx, DatabaseManager.Dialect.SQLITE);
+        List<String> rollbacks = new CopyOnWriteArrayList<>();
+        tx.onRollback(() -> rollbacks.add("rollback"));
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            // Concurrent writers all land, each committed by the writer thread
+            Set<String> committedOn = ConcurrentHashMap.newKeySet();
+            List<UUID> uuids = new ArrayList<>();
+            List<Future<?>> done = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                UUID uuid = UUID.randomUUID();
+                uuids.add(uuid);
+                String name = "Player" + i;
+                done.add(callers.submit(() -> tx.run(() -> {
+                    profiles.upsertName(uuid, name);
+                    tx.afterCommit(() -> committedOn.add(Thread.currentThread().getName()));
+                })));
+            }
+            for (Future<?> f : done) f.get();
+            assertEquals(Set.of("LogDO2-sqlite-writer"), committedOn);
+            for (int i = 0; i < uuids.size(); i++) {
+                assertEquals(Optional.of("Player" + i), profiles.findNameByUuid(uuids.get(i)));
+            }
+
+            // A failing unit rolls back to its savepoint only
+            UUID kept = UUID.randomUUID();
+            UUID dropped = UUID.randomUUID();
+            Future<?> good = callers.submit(() -> accounts.activate(1L, kept, "Steve", "JAVA", "1.2.3.4"));
+            Future<?> bad = callers.submit(() -> tx.run(() -> {
+                accounts.activate(2L, dropped, "Alex", "BEDROCK", "5.6.7.8");
+                throw new IllegalStateException("boom");
+            }));
+            good.get();
+            var failure = assertThrows(ExecutionException.class, bad::get);
+            assertInstanceOf(IllegalStateException.class, failure.getCause());
+            assertEquals(List.of("rollback"), rollbacks);
+            assertEquals(Optional.of(1L), accounts.findDiscordForProfile(kept));
+            assertEquals(Optional.empty(), accounts.findDiscordForProfile(dropped));
+            assertEquals(Optional.empty(), profiles.findNameByUuid(dropped));
+
+            // Plain connections come from the read-only pool
+            try (var c = tx.getConnection(); var st = c.createStatement()) {
+                assertThrows(SQLException.class, () -> st.executeUpdate("DELETE FROM links"));
+            }
+        } finally {
+            callers.shutdown();
+            tx.close();
+            Files.deleteIfExists(file);
+        }
+        // Closed: no more writes are accepted
+        assertThrows(IllegalStateException.class, () -> profiles.upsertName(UUID.randomUUID(), "Late"));
+    }
+}
@@ -0,0 +1,79 @@
+package ua.beengoo.logdo2.plugin.db;
+
+import org.junit.jupiter.api.Test;
+import org.sqlite.SQLiteDataSource;
+import ua.beengoo.logdo2.plugin.adapters.jdbc.JdbcAccountsRepo;
+import ua.beengoo.logdo2.plugin.adapters.jdbc.JdbcProfileRepo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionalDataSourceTest {
+
+    @Test
+    void unitOfWorkCommitsOrRollsBackTheWholeFlow() throws Exception {
+        Path file = Files.createTempFile("logdo2-tx", ".db");
+        var sqlite = new SQLiteDataSource();
+        sqlite.setUrl("jdbc:sqlite:" + file);
+        try (var c = sqlite.getConnection(); var st = c.createStatement()) {
+            st.execute("CREATE TABLE discord_accounts (discord_id INTEGER PRIMARY KEY, updated_at BIGINT NOT NULL)");
+            st.execute("CREATE TABLE mc_profiles (mc_uuid TEXT PRIMARY KEY, name TEXT, last_ip TEXT, platform TEXT, updated_at BIGINT NOT NULL)");
+            st.execute("CREATE TABLE links (discord_id INTEGER NOT NULL, mc_uuid TEXT NOT NULL, active INTEGER NOT NULL, created_at BIGINT NOT NULL, PRIMARY KEY (discord_id, mc_uuid))");
+        }
+        var tx = new TransactionalDataSource(sqlite);
+        var accounts = new JdbcAccountsRepo(tx, DatabaseManager.Dialect.SQLITE);
+        var profiles = new JdbcProfileRepo(tx, DatabaseManager.Dialect.SQLITE);
+        List<String> events = new ArrayList<>();
+        tx.onRollback(() -> events.add("rollback"));
+        try {
+            UUID a = UUID.randomUUID();
+            tx.run(() -> {
+                // JdbcAccountsRepo's own transaction joins the outer one
+                accounts.activate(1L, a, "Steve", "JAVA", "1.2.3.4");
+                profiles.updateLastConfirmedIp(a, "5.6.7.8");
+                tx.afterCommit(() -> events.add("committed"));
+                assertEquals(List.of(), events);
+            });
+            assertEquals(List.of("committed"), events);
+            assertEquals(Optional.of(1L), accounts.findDiscordForProfile(a));
+            assertEquals(Optional.of("5.6.7.8"), profiles.findLastConfirmedIp(a));
+
+            // A failure after some writes leaves nothing behind
+            UUID b = UUID.randomUUID();
+            events.clear();
+            assertThrows(IllegalStateException.class, () -> tx.run(() -> {
+                accounts.activate(2L, b, "Alex", "BEDROCK", "9.9.9.9");
+                tx.afterCommit(() -> events.add("committed"));
+                throw new IllegalStateException("boom");
+            }));
+            assertEquals(List.of("rollback"), events);
+            assertEquals(Optional.empty(), accounts.findDiscordForProfile(b));
+            assertEquals(Optional.empty(), profiles.findNameByUuid(b));
+
+            // A nested failure rolls back the outer unit even when the caller swallows it
+            events.clear();
+            assertThrows(IllegalStateException.class, () -> tx.run(() -> {
+                accounts.activate(3L, b, "Alex", "BEDROCK", "9.9.9.9");
+                try {
+                    tx.run(() -> { throw new IllegalArgumentException("inner"); });
+                } catch (IllegalArgumentException ignored) {
+                }
+            }));
+            assertEquals(List.of("rollback"), events);
+            assertEquals(Optional.empty(), accounts.findDiscordForProfile(b));
+
+            // Outside a unit of work hooks run at once
+            events.clear();
+            tx.afterCommit(() -> events.add("now"));
+            assertEquals(List.of("now"), events);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ua.beengoo.logdo2.plugin.props;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.Test;
+import ua.beengoo.logdo2.api.events.LoginPhase;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GatePolicyTest {
+
+    @Test
+    void compilesPhasesFromConfig() throws Exception {
+        var cfg = new YamlConfiguration();
+        cfg.loadFromString("""
+                gates:
+                  freezeMode: Attributes
+                  ipCheckEvent: on-change
+                  login:
+                    move: true
+                    commands: false
+                    commandsAllowed: ["Help", " rules "]
+                    blindness: true
+                  ipConfirm:
+                    damage: false
+                    commands: true
+                    hidePlayers: true
+                """);
+
+        GatePolicy policy = GatePolicy.compile(cfg);
+
+        var login = policy.forPhase(LoginPhase.LOGIN);
+        assertTrue(login.allows(GatePolicy.Action.MOVE));
+        assertFalse(login.allows(GatePolicy.Action.CHAT));
+        assertTrue(login.allows(GatePolicy.Action.DAMAGE), "damage defaults to allowed");
+        assertTrue(login.allowsCommand("help"));
+        assertTrue(login.allowsCommand("rules"));
+        assertFalse(login.allowsCommand("spawn"));
+        assertTrue(login.blindness);
+        assertFalse(login.hidePlayers);
+
+        var ip = policy.forPhase(LoginPhase.IP_CONFIRM);
+        assertFalse(ip.allows(GatePolicy.Action.DAMAGE));
+        assertTrue(ip.allowsCommand("anything"));
+        assertTrue(ip.hidePlayers);
+        assertTrue(policy.attributeFreeze);
+        assertTrue(policy.ipCheckOnChange);
+    }
+
+    @Test
+    void missingSectionsFallBackToDefaults() {
+        GatePolicy policy = GatePolicy.compile(new YamlConfiguration());
+        assertTrue(policy.login.allows(GatePolicy.Action.DAMAGE));
+        assertFalse(policy.login.allows(GatePolicy.Action.MOVE));
+        assertFalse(policy.ipConfirm.allowsCommand("help"));
+        assertFalse(policy.attributeFreeze);
+        assertFalse(policy.ipCheckOnChange);
+    }
+}